@@ -0,0 +1,241 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.net.Uri;
+import android.view.Surface;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.source.MediaLoadData;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HLS / DASH 自适应码率播放，基于 ExoPlayer
+ * <p>
+ * DefaultBandwidthMeter 估计带宽，DefaultTrackSelector 的自适应选择据此在清单中的码率之间切换，
+ * 每次切换通过 {@link Listener#onBitrateChanged} 报告新的码率和当时的带宽估计。只能在主线程使用。
+ */
+final class AdaptiveStreamPlayer {
+
+    interface Listener {
+        void onPrepared();
+
+        void onBufferingChanged(boolean buffering);
+
+        void onSeekComplete();
+
+        void onCompletion();
+
+        void onError(int code, String message);
+
+        /**
+         * @param bitrate           新选择的码率(bps)
+         * @param bandwidthEstimate 带宽估计(bps)
+         */
+        void onBitrateChanged(int bitrate, long bandwidthEstimate);
+
+        /**
+         * 第一帧视频画面已渲染
+         */
+        void onFirstFrame();
+    }
+
+    private final ExoPlayer player;
+    private final DefaultBandwidthMeter bandwidthMeter;
+    private final Listener listener;
+    private boolean prepared = false;
+    private boolean seeking = false;
+    private boolean buffering = false;
+    private int bitrate = Format.NO_VALUE;
+    // 码率是否来自视频或音视频复用轨，否则来自纯音频流
+    private boolean bitrateFromVideo = false;
+    private int bitrateSwitches = 0;
+    private long droppedFrames = 0;
+
+    AdaptiveStreamPlayer(Context context, Listener listener) {
+        this.listener = listener;
+        this.bandwidthMeter = new DefaultBandwidthMeter.Builder(context).build();
+        this.player = new ExoPlayer.Builder(context)
+                .setTrackSelector(new DefaultTrackSelector(context))
+                .setBandwidthMeter(bandwidthMeter)
+                .build();
+        player.setWakeMode(C.WAKE_MODE_NETWORK);
+        player.addListener(playerListener);
+        player.addAnalyticsListener(analyticsListener);
+    }
+
+    /**
+     * @return url 是否是 HLS (.m3u8) 或 DASH (.mpd) 清单
+     */
+    static boolean isManifestUrl(String url) {
+        return mimeTypeOf(url) != null;
+    }
+
+    private static String mimeTypeOf(String url) {
+        if (url == null) return null;
+        String path = Uri.parse(url).getPath();
+        if (path == null) return null;
+        path = path.toLowerCase(Locale.US);
+        if (path.endsWith(".m3u8")) return MimeTypes.APPLICATION_M3U8;
+        if (path.endsWith(".mpd")) return MimeTypes.APPLICATION_MPD;
+        return null;
+    }
+
+    /**
+     * @param startPositionMs 起播位置，直接从该位置开始加载
+     */
+    void prepare(String url, int startPositionMs) {
+        MediaItem.Builder builder = new MediaItem.Builder().setUri(url);
+        String mimeType = mimeTypeOf(url);
+        if (mimeType != null) builder.setMimeType(mimeType);
+        player.setMediaItem(builder.build(), startPositionMs);
+        player.setPlayWhenReady(false);
+        player.prepare();
+    }
+
+    void play() {
+        player.play();
+    }
+
+    void pause() {
+        player.pause();
+    }
+
+    boolean isPlaying() {
+        return player.isPlaying();
+    }
+
+    void seekTo(int position) {
+        seeking = true;
+        player.seekTo(position);
+    }
+
+    int position() {
+        return (int) player.getCurrentPosition();
+    }
+
+    int duration() {
+        long duration = player.getDuration();
+        return duration == C.TIME_UNSET ? 0 : (int) duration;
+    }
+
+    /**
+     * @return 已缓冲到的位置占总时长的百分比，ExoPlayer 不回调缓冲进度，需要轮询
+     */
+    int bufferedPercent() {
+        return player.getBufferedPercentage();
+    }
+
+    /**
+     * 倍速播放，保持音调不变
+     */
+    void setSpeed(float speed) {
+        player.setPlaybackParameters(new PlaybackParameters(speed));
+    }
+
+    /**
+     * ExoPlayer 自带的静音跳过
+     */
+    void setSkipSilence(boolean enabled) {
+        player.setSkipSilenceEnabled(enabled);
+    }
+
+    void setVideoSurface(Surface surface) {
+        player.setVideoSurface(surface);
+    }
+
+    void release() {
+        player.removeListener(playerListener);
+        player.release();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bitrate", bitrate);
+        map.put("bitrateSwitches", bitrateSwitches);
+        map.put("bandwidthEstimate", bandwidthMeter.getBitrateEstimate());
+        map.put("droppedFrames", droppedFrames);
+        return map;
+    }
+
+    private final Player.Listener playerListener = new Player.Listener() {
+        @Override
+        public void onPlaybackStateChanged(int state) {
+            switch (state) {
+                case Player.STATE_BUFFERING:
+                    if (prepared && !seeking && !buffering) {
+                        buffering = true;
+                        listener.onBufferingChanged(true);
+                    }
+                    break;
+                case Player.STATE_READY:
+                    if (!prepared) {
+                        prepared = true;
+                        listener.onPrepared();
+                    }
+                    if (seeking) {
+                        seeking = false;
+                        listener.onSeekComplete();
+                    }
+                    if (buffering) {
+                        buffering = false;
+                        listener.onBufferingChanged(false);
+                    }
+                    break;
+                case Player.STATE_ENDED:
+                    listener.onCompletion();
+                    break;
+            }
+        }
+
+        @Override
+        public void onPlayerError(PlaybackException error) {
+            listener.onError(error.errorCode, error.getErrorCodeName() + ": " + error.getMessage());
+        }
+    };
+
+    private final AnalyticsListener analyticsListener = new AnalyticsListener() {
+        @Override
+        public void onDownstreamFormatChanged(EventTime eventTime, MediaLoadData mediaLoadData) {
+            if (mediaLoadData.trackFormat == null) return;
+            onFormatChanged(mediaLoadData.trackType, mediaLoadData.trackFormat);
+        }
+
+        @Override
+        public void onDroppedVideoFrames(EventTime eventTime, int droppedFrames, long elapsedMs) {
+            AdaptiveStreamPlayer.this.droppedFrames += droppedFrames;
+        }
+
+        @Override
+        public void onRenderedFirstFrame(EventTime eventTime, Object output, long renderTimeMs) {
+            listener.onFirstFrame();
+        }
+    };
+
+    /**
+     * 码率以视频或复用轨为准，分离的音频轨只在没有视频的流中使用，否则音频切换会被算作码率切换
+     */
+    private void onFormatChanged(int trackType, Format format) {
+        boolean video = trackType == C.TRACK_TYPE_VIDEO || trackType == C.TRACK_TYPE_DEFAULT;
+        if (!video && trackType != C.TRACK_TYPE_AUDIO) return;
+        if (format.bitrate == Format.NO_VALUE || (!video && bitrateFromVideo)) return;
+        if (format.bitrate == bitrate && video == bitrateFromVideo) return;
+        // 从音频轨换到视频轨只是来源变化，不算切换
+        if (bitrate != Format.NO_VALUE && video == bitrateFromVideo) bitrateSwitches++;
+        bitrate = format.bitrate;
+        bitrateFromVideo = video;
+        listener.onBitrateChanged(bitrate, bandwidthMeter.getBitrateEstimate());
+    }
+}
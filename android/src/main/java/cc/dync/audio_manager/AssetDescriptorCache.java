@@ -0,0 +1,103 @@
+package cc.dync.audio_manager;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 最近使用的 asset 文件描述符，重复播放同一个 asset 时不必再次 openFd
+ * <p>
+ * 每个描述符就是 APK 的 fd 加上该 asset 的偏移和长度。MediaPlayer.setDataSource 会复制 fd，
+ * 所以被淘汰时可以直接关闭，不影响正在播放的曲目。只在主线程使用。
+ * 用按访问顺序的 LinkedHashMap 而不是 LruCache，便于在 JVM 测试中验证淘汰时关闭。
+ */
+final class AssetDescriptorCache {
+    private static final String TAG = AssetDescriptorCache.class.getSimpleName();
+    static final int MAX_OPEN = 4;
+
+    /**
+     * 打开 asset，一般是 {@link AssetManager#openFd}，测试时替换
+     */
+    interface Opener {
+        AssetFileDescriptor open(String assetName) throws IOException;
+    }
+
+    private final Opener opener;
+    // 按访问顺序，超过 MAX_OPEN 时关闭最久未用的
+    private final LinkedHashMap<String, AssetFileDescriptor> descriptors = new LinkedHashMap<String, AssetFileDescriptor>(MAX_OPEN + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AssetFileDescriptor> eldest) {
+            if (size() <= MAX_OPEN) return false;
+            close(eldest.getValue());
+            return true;
+        }
+    };
+
+    // 统计
+    private long hitCount;
+    private long missCount;
+    private long closedCount;
+
+    AssetDescriptorCache(AssetManager assets) {
+        this(assets::openFd);
+    }
+
+    AssetDescriptorCache(Opener opener) {
+        this.opener = opener;
+    }
+
+    /**
+     * @return 缓存持有的描述符，调用方不要关闭
+     */
+    AssetFileDescriptor open(String assetName) throws IOException {
+        AssetFileDescriptor descriptor = descriptors.get(assetName);
+        if (descriptor != null) {
+            hitCount++;
+            return descriptor;
+        }
+        missCount++;
+        descriptor = opener.open(assetName);
+        descriptors.put(assetName, descriptor);
+        return descriptor;
+    }
+
+    /**
+     * 关闭全部描述符
+     */
+    void clear() {
+        for (AssetFileDescriptor descriptor : descriptors.values()) {
+            close(descriptor);
+        }
+        descriptors.clear();
+    }
+
+    int size() {
+        return descriptors.size();
+    }
+
+    long closedCount() {
+        return closedCount;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("open", descriptors.size());
+        map.put("hits", hitCount);
+        map.put("misses", missCount);
+        map.put("closed", closedCount);
+        return map;
+    }
+
+    private void close(AssetFileDescriptor descriptor) {
+        try {
+            descriptor.close();
+            closedCount++;
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "close failed: ", e);
+        }
+    }
+}
@@ -1,19 +1,31 @@
 package cc.dync.audio_manager;
 
 import android.content.Context;
-import android.util.Log;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Surface;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
+import io.flutter.view.TextureRegistry;
 
 /**
  * AudioManagerPlugin
@@ -25,9 +37,35 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
     private MethodChannel channel;
     private MediaPlayerHelper helper;
     private VolumeChangeObserver volumeChangeObserver;
+    private MetadataExtractor metadataExtractor;
+    private WaveformGenerator waveformGenerator;
+    private OfflineDownloader downloader;
 
     private static FlutterAssets flutterAssets;
     private static Registrar registrar;
+    private static TextureRegistry textureRegistry;
+    // 视频画面输出的 Flutter 纹理
+    private TextureRegistry.SurfaceTextureEntry videoTexture;
+    private Surface videoSurface;
+    // Flutter 资源名 -> APK 中的 asset 路径，首次用到时解析
+    private static final Map<String, String> assetKeys = new HashMap<>();
+    // 不需要创建播放器的方法
+    private static final Set<String> PLAYERLESS_METHODS = new HashSet<>(Arrays.asList(
+            "getPlatformVersion", "setVolume", "currentVolume", "extractMetadata", "cancelMetadata", "getWaveform",
+            "replayEvents", "download", "pauseDownload", "removeDownload", "getDownloads"));
+    // 引擎分离多久后记录一次内存，等 Flutter 引擎的内存回收
+    private static final long DETACHED_MEMORY_SAMPLE_MS = 10_000;
+    // 启动耗时统计
+    private long attachNanos;
+    private long helperInitNanos = -1;
+    private long volumeInitNanos = -1;
+    // 没有引擎或新引擎还没有调用过任何方法时暂存事件
+    private final PendingEvents pendingEvents = new PendingEvents();
+    private boolean replayPending;
+    // channel 所属引擎的 messenger，只有这个引擎分离时才断开 channel
+    private BinaryMessenger channelMessenger;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Map<String, Object> detachedMemory;
 
     private static synchronized AudioManagerPlugin getInstance() {
         if (instance == null) {
@@ -44,6 +82,7 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
+        long start = SystemClock.elapsedRealtimeNanos();
         final AudioManagerPlugin instance = getInstance();
         final Context applicationContext = flutterPluginBinding.getApplicationContext();
 
@@ -52,9 +91,11 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
             final MethodChannel channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), "audio_manager");
 
             channel.setMethodCallHandler(getInstance());
-            setup(flutterPluginBinding.getApplicationContext(), channel);
+            setup(flutterPluginBinding.getApplicationContext(), channel, flutterPluginBinding.getBinaryMessenger());
             AudioManagerPlugin.flutterAssets = flutterPluginBinding.getFlutterAssets();
+            AudioManagerPlugin.textureRegistry = flutterPluginBinding.getTextureRegistry();
         }
+        instance.attachNanos = SystemClock.elapsedRealtimeNanos() - start;
     }
 
     // This static function is optional and equivalent to onAttachedToEngine. It
@@ -75,73 +116,129 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
         MethodChannel channel = new MethodChannel(registrar.messenger(), "audio_manager");
 
         channel.setMethodCallHandler(getInstance());
-        instance.setup(registrar.context(), channel);
+        instance.setup(registrar.context(), channel, registrar.messenger());
         AudioManagerPlugin.registrar = registrar;
+        AudioManagerPlugin.textureRegistry = registrar.textures();
     }
 
-    private void setup(Context context, MethodChannel channel) {
+    /**
+     * 只保存 context 和 channel，播放器、通知栏服务和音量监听在第一次用到时创建
+     */
+    private void setup(Context context, MethodChannel channel, BinaryMessenger messenger) {
         instance.context = context;
         instance.channel = channel;
+        instance.channelMessenger = messenger;
+        instance.mainHandler.removeCallbacks(instance.sampleDetachedMemory);
+        instance.pendingEvents.onAttached();
+        // 等新引擎的 Dart 端注册好 handler、第一次调用方法时再补发
+        instance.replayPending = !instance.pendingEvents.isEmpty();
+    }
+
+    private MediaPlayerHelper getHelper() {
+        if (instance.helper == null) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            instance.helper = MediaPlayerHelper.getInstance(instance.context);
+            instance.helper.restorePlaybackState();
+            setupPlayer();
+            instance.helperInitNanos = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return instance.helper;
+    }
+
+    /**
+     * 创建并注册音量监听，之后系统音量变化会通知给 Dart
+     */
+    private VolumeChangeObserver getVolumeChangeObserver() {
+        VolumeChangeObserver observer = peekVolumeChangeObserver();
+        observer.registerObserver();
+        return observer;
+    }
 
-        instance.helper = MediaPlayerHelper.getInstance(instance.context);
-        setupPlayer();
-        volumeChangeObserver = new VolumeChangeObserver(instance.context);
-        volumeChangeObserver.setVolumeChangeListener(instance);
-        volumeChangeObserver.registerReceiver();
+    /**
+     * 只创建，不注册监听，用于一次性读取音量
+     */
+    private VolumeChangeObserver peekVolumeChangeObserver() {
+        if (instance.volumeChangeObserver == null) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            instance.volumeChangeObserver = new VolumeChangeObserver(instance.context);
+            instance.volumeChangeObserver.setVolumeChangeListener(instance);
+            instance.volumeInitNanos = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return instance.volumeChangeObserver;
     }
 
     private void setupPlayer() {
         MediaPlayerHelper helper = instance.helper;
-        MethodChannel channel = instance.channel;
 
-        helper.setOnStatusCallbackListener((status, args) -> {
-            Log.v(TAG, "--" + status.toString());
-            switch (status) {
-                case ready:
-                    channel.invokeMethod("ready", helper.duration());
-                    break;
-                case seekComplete:
-                    channel.invokeMethod("seekComplete", helper.position());
-                    break;
-                case buffering:
-                    if (args.length == 0) return;
-                    Log.v(TAG, "网络缓冲:" + args[1] + "%");
-
-                    Map map = new HashMap();
-                    map.put("buffering", !helper.isPlaying());
-                    map.put("buffer", args[1]);
-                    channel.invokeMethod("buffering", map);
-                    break;
-                case playOrPause:
-                    if (args.length == 0) return;
-                    channel.invokeMethod("playstatus", args[0]);
-                    break;
-                case progress:
-                    if (args.length == 0) return;
-                    Log.v(TAG, "进度:" + args[0] + "%");
-
-                    Map map2 = new HashMap();
-                    map2.put("position", helper.position());
-                    map2.put("duration", helper.duration());
-                    channel.invokeMethod("timeupdate", map2);
-                    break;
-                case error:
-                    Log.v(TAG, "播放错误:" + args[0]);
-                    channel.invokeMethod("error", args[0]);
-                    helper.stop();
-                    break;
-                case next:
-                    channel.invokeMethod("next", null);
-                    break;
-                case previous:
-                    channel.invokeMethod("previous", null);
-                    break;
-                case ended:
-                    channel.invokeMethod("ended", null);
-                    break;
-                case stop:
-                    channel.invokeMethod("stop", null);
-                    break;
+        helper.addPlayerEventListener(new PlayerEventListener() {
+            @Override
+            public void onReady(int duration) {
+                send("ready", duration);
+            }
+
+            @Override
+            public void onSeekComplete(int position) {
+                send("seekComplete", position);
+            }
+
+            @Override
+            public void onBuffering(int percent) {
+                PlayerTrace.v(TAG, "网络缓冲(%):", percent);
+
+                Map<String, Object> map = new HashMap<>();
+                map.put("buffering", !helper.isPlaying());
+                map.put("buffer", percent);
+                send("buffering", map);
+            }
+
+            @Override
+            public void onPlayStatus(boolean playing) {
+                send("playstatus", playing);
+            }
+
+            @Override
+            public void onProgress(int position, int duration) {
+                PlayerTrace.v(TAG, "进度(ms):", position);
+
+                Map<String, Object> map = new HashMap<>();
+                map.put("position", position);
+                map.put("duration", duration);
+                send("timeupdate", map);
+            }
+
+            @Override
+            public void onError(String message) {
+                PlayerTrace.w(TAG, "播放错误:", message);
+                send("error", message);
+                helper.stop();
+            }
+
+            @Override
+            public void onNext() {
+                send("next", null);
+            }
+
+            @Override
+            public void onPrevious() {
+                send("previous", null);
+            }
+
+            @Override
+            public void onEnded() {
+                send("ended", null);
+            }
+
+            @Override
+            public void onStop() {
+                send("stop", null);
+            }
+
+            @Override
+            public void onBitrateChanged(int bitrate, long bandwidthEstimate) {
+                Map<String, Object> map = new HashMap<>();
+                map.put("bitrate", bitrate);
+                map.put("bandwidth", bandwidthEstimate);
+                send("bitrateChange", map);
             }
         });
     }
@@ -150,12 +247,21 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
 
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
-        MediaPlayerHelper helper = instance.helper;
+        if (instance.replayPending) {
+            instance.replayPending = false;
+            instance.pendingEvents.replay(instance.channel::invokeMethod);
+        }
+        MediaPlayerHelper helper = PLAYERLESS_METHODS.contains(call.method) ? null : getHelper();
         switch (call.method) {
+            case "replayEvents":
+                result.success(null);
+                break;
             case "getPlatformVersion":
                 result.success("Android " + android.os.Build.VERSION.RELEASE);
                 break;
             case "start":
+                // 播放期间把系统音量变化通知给 Dart
+                getVolumeChangeObserver();
                 String url = call.argument("url");
                 String title = call.argument("title");
                 String desc = call.argument("desc");
@@ -168,12 +274,21 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
                 info.desc = desc;
                 info.isAsset = isLocal;
                 info.isAuto = isAuto;
+                info.isVideo = call.hasArgument("isVideo") ? call.argument("isVideo") : false;
+                if (call.hasArgument("position") && call.argument("position") != null) {
+                    info.startPosition = call.argument("position");
+                }
+                if (call.hasArgument("index") && call.argument("index") != null) {
+                    info.queueIndex = call.argument("index");
+                }
+                if (call.hasArgument("buffering")) {
+                    info.bufferingPolicy = BufferingPolicy.fromMap(call.argument("buffering"));
+                }
+                if (!isLocal) {
+                    info.isAdaptive = call.hasArgument("adaptive") ? call.argument("adaptive") : AdaptiveStreamPlayer.isManifestUrl(url);
+                }
                 if (isLocal) {
-                    if (registrar != null) {
-                        info.url = registrar.lookupKeyForAsset(url);
-                    } else if (flutterAssets != null) {
-                        info.url = AudioManagerPlugin.flutterAssets.getAssetFilePathByName(url);
-                    }
+                    info.url = lookupAsset(url);
                 }
                 info.cover = cover;
                 if (isLocalCover) {
@@ -224,8 +339,24 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
                 break;
             case "rate":
                 try {
+                    if (call.hasArgument("skipSilence")) {
+                        helper.setSkipSilence(call.argument("skipSilence"));
+                    }
                     double rate = Double.parseDouble(call.argument("rate").toString());
-                    helper.setSpeed((float) rate);
+                    result.success(helper.setSpeed((float) rate) ? "" : "参数错误");
+                } catch (Exception ex) {
+                    result.success("参数错误");
+                }
+                break;
+            case "skipSilence":
+                helper.setSkipSilence(call.hasArgument("enabled") ? call.argument("enabled") : false);
+                result.success(null);
+                break;
+            case "setIdleTimeout":
+                try {
+                    long timeout = Long.parseLong(call.argument("timeout").toString());
+                    helper.setIdleTimeout(timeout);
+                    result.success(null);
                 } catch (Exception ex) {
                     result.success("参数错误");
                 }
@@ -233,13 +364,124 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
             case "setVolume":
                 try {
                     double value = Double.parseDouble(call.argument("value").toString());
-                    instance.volumeChangeObserver.setVolume(value);
+                    getVolumeChangeObserver().setVolume(value);
                 } catch (Exception ex) {
                     result.success("参数错误");
                 }
                 break;
             case "currentVolume":
-                result.success(instance.volumeChangeObserver.getCurrentMusicVolume());
+                boolean observe = !call.hasArgument("observe") || !Boolean.FALSE.equals(call.argument("observe"));
+                result.success((observe ? getVolumeChangeObserver() : peekVolumeChangeObserver()).getCurrentMusicVolume());
+                break;
+            case "getResumeState":
+                result.success(helper.getResumeState());
+                break;
+            case "getMetrics":
+                Map<String, Object> metrics = helper.getMetrics();
+                if (instance.metadataExtractor != null) {
+                    metrics.put("metadata", instance.metadataExtractor.toMap());
+                }
+                if (instance.waveformGenerator != null) {
+                    metrics.put("waveform", instance.waveformGenerator.toMap());
+                }
+                if (instance.downloader != null) {
+                    metrics.put("downloads", instance.downloader.toMap());
+                }
+                Map<String, Object> startup = new HashMap<>();
+                startup.put("attachMicros", instance.attachNanos / 1000);
+                startup.put("helperInitMicros", instance.helperInitNanos < 0 ? -1 : instance.helperInitNanos / 1000);
+                startup.put("volumeInitMicros", instance.volumeInitNanos < 0 ? -1 : instance.volumeInitNanos / 1000);
+                metrics.put("startup", startup);
+                Map<String, Object> headless = instance.pendingEvents.toMap();
+                headless.put("memory", memorySnapshot());
+                if (instance.detachedMemory != null) headless.put("memoryDetached", instance.detachedMemory);
+                metrics.put("headless", headless);
+                result.success(metrics);
+                break;
+            case "extractMetadata":
+                List<String> paths = call.argument("paths");
+                if (paths == null) {
+                    result.error("argument", "paths is required", null);
+                    break;
+                }
+                boolean artwork = call.hasArgument("artwork") ? call.argument("artwork") : false;
+                result.success(getMetadataExtractor().extract(paths, artwork, this::onMetadataBatch));
+                break;
+            case "setLoudnessNormalization":
+                boolean normalize = call.hasArgument("enabled") ? call.argument("enabled") : false;
+                double target = call.hasArgument("target") && call.argument("target") != null
+                        ? ((Number) call.argument("target")).doubleValue() : LoudnessNormalizer.DEFAULT_TARGET_LUFS;
+                helper.setLoudnessNormalization(normalize, (float) target);
+                result.success(null);
+                break;
+            case "analyzeLoudness":
+                List<String> urls = call.argument("urls");
+                boolean localUrls = call.hasArgument("isLocal") ? call.argument("isLocal") : false;
+                if (urls != null) {
+                    List<String> resolved = new ArrayList<>(urls.size());
+                    for (String u : urls) resolved.add(localUrls ? lookupAsset(u) : u);
+                    helper.analyzeLoudness(resolved, localUrls);
+                }
+                result.success(null);
+                break;
+            case "getWaveform":
+                String source = call.argument("url");
+                if (source == null) {
+                    result.error("argument", "url is required", null);
+                    break;
+                }
+                boolean isAsset = call.hasArgument("isLocal") ? call.argument("isLocal") : false;
+                int buckets = call.hasArgument("buckets") ? call.argument("buckets") : 512;
+                getWaveformGenerator().generate(isAsset ? lookupAsset(source) : source, isAsset, buckets, (peaks, error) -> {
+                    if (peaks != null) {
+                        result.success(peaks);
+                    } else {
+                        result.error("waveform", error, null);
+                    }
+                });
+                break;
+            case "download":
+                String downloadUrl = call.argument("url");
+                if (downloadUrl == null) {
+                    result.error("argument", "url is required", null);
+                    break;
+                }
+                boolean allowMetered = call.hasArgument("allowMetered") ? call.argument("allowMetered") : false;
+                getDownloader().download(downloadUrl, call.argument("sha256"), allowMetered);
+                result.success(null);
+                break;
+            case "pauseDownload":
+                if (call.hasArgument("url")) getDownloader().pause(call.argument("url"));
+                result.success(null);
+                break;
+            case "removeDownload":
+                if (call.hasArgument("url")) getDownloader().remove(call.argument("url"));
+                result.success(null);
+                break;
+            case "getDownloads":
+                result.success(getDownloader().list());
+                break;
+            case "createVideoTexture":
+                if (textureRegistry == null) {
+                    result.error("texture", "TextureRegistry unavailable", null);
+                    break;
+                }
+                if (instance.videoTexture == null) {
+                    instance.videoTexture = textureRegistry.createSurfaceTexture();
+                    instance.videoSurface = new Surface(instance.videoTexture.surfaceTexture());
+                    helper.setVideoSurface(instance.videoSurface);
+                }
+                result.success(instance.videoTexture.id());
+                break;
+            case "disposeVideoTexture":
+                disposeVideoTexture();
+                result.success(null);
+                break;
+            case "cancelMetadata":
+                if (instance.metadataExtractor != null && call.hasArgument("id")) {
+                    instance.metadataExtractor.cancel(call.argument("id"));
+                }
+                result.success(null);
                 break;
             default:
                 result.notImplemented();
@@ -247,12 +489,112 @@ public class AudioManagerPlugin implements FlutterPlugin, MethodCallHandler, Vol
         }
     }
 
+    private static String lookupAsset(String name) {
+        synchronized (assetKeys) {
+            String key = assetKeys.get(name);
+            if (key != null) return key;
+            if (registrar != null) {
+                key = registrar.lookupKeyForAsset(name);
+            } else if (flutterAssets != null) {
+                key = flutterAssets.getAssetFilePathByName(name);
+            } else {
+                return name;
+            }
+            assetKeys.put(name, key);
+            return key;
+        }
+    }
+
+    private WaveformGenerator getWaveformGenerator() {
+        if (instance.waveformGenerator == null) {
+            instance.waveformGenerator = new WaveformGenerator(instance.context);
+        }
+        return instance.waveformGenerator;
+    }
+
+    private OfflineDownloader getDownloader() {
+        if (instance.downloader == null) {
+            instance.downloader = OfflineDownloader.getInstance(instance.context);
+            instance.downloader.setListener(this::onDownloadProgress);
+        }
+        return instance.downloader;
+    }
+
+    private MetadataExtractor getMetadataExtractor() {
+        if (instance.metadataExtractor == null) {
+            instance.metadataExtractor = new MetadataExtractor(instance.context);
+        }
+        return instance.metadataExtractor;
+    }
+
+    private void onMetadataBatch(int requestId, List<Map<String, Object>> items, boolean done) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", requestId);
+        map.put("items", items);
+        map.put("done", done);
+        // 引擎分离时已经取消了提取，不需要暂存
+        if (instance.channel != null) instance.channel.invokeMethod("metadata", map);
+    }
+
+    /**
+     * 释放视频纹理，播放器改回 SurfaceView 或只播放声音
+     */
+    private void disposeVideoTexture() {
+        if (instance.videoTexture == null) return;
+        if (instance.helper != null) instance.helper.setVideoSurface(null);
+        instance.videoSurface.release();
+        instance.videoSurface = null;
+        instance.videoTexture.release();
+        instance.videoTexture = null;
+    }
+
+    private void onDownloadProgress(List<Map<String, Object>> items) {
+        // 下载在引擎分离后继续，重新连接时用 getDownloads 取得最新状态
+        if (instance.channel != null) instance.channel.invokeMethod("download", items);
+    }
+
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        // 没有接管 channel 的引擎（例如后台引擎）分离，不影响当前引擎
+        if (binding.getBinaryMessenger() != instance.channelMessenger) return;
+        // 播放器和通知栏服务继续工作，事件暂存到重新连接
+        if (instance.channel != null) instance.channel.setMethodCallHandler(null);
+        instance.channel = null;
+        instance.channelMessenger = null;
+        instance.replayPending = false;
+        instance.pendingEvents.onDetached();
+        if (instance.metadataExtractor != null) instance.metadataExtractor.cancelAll();
+        // 纹理属于这个引擎
+        disposeVideoTexture();
+        instance.mainHandler.postDelayed(instance.sampleDetachedMemory, DETACHED_MEMORY_SAMPLE_MS);
+    }
+
+    private final Runnable sampleDetachedMemory = () -> instance.detachedMemory = memorySnapshot();
+
+    /**
+     * 发送事件，没有引擎时暂存
+     */
+    private void send(String method, Object arguments) {
+        if (instance.channel == null || instance.replayPending) {
+            instance.pendingEvents.add(method, arguments);
+            return;
+        }
+        instance.channel.invokeMethod(method, arguments);
+    }
+
+    private static Map<String, Object> memorySnapshot() {
+        Runtime runtime = Runtime.getRuntime();
+        Debug.MemoryInfo memoryInfo = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(memoryInfo);
+        Map<String, Object> map = new HashMap<>();
+        map.put("javaHeapBytes", runtime.totalMemory() - runtime.freeMemory());
+        map.put("nativeHeapBytes", Debug.getNativeHeapAllocatedSize());
+        map.put("totalPssKb", memoryInfo.getTotalPss());
+        return map;
     }
 
     @Override
     public void onVolumeChanged(double volume) {
-        instance.channel.invokeMethod("volumeChange", volume);
+        send("volumeChange", volume);
     }
 }
@@ -0,0 +1,104 @@
+package cc.dync.audio_manager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 网络流缓冲策略
+ * <p>
+ * 参数含义与 ExoPlayer DefaultLoadControl 一致：缓冲少于 minBufferMs 时继续下载，达到 maxBufferMs 时暂停下载；
+ * 起播需要 bufferForPlaybackMs，卡顿后恢复需要 bufferForPlaybackAfterRebufferMs。
+ * 实际使用的值会根据测得的下载速度在配置值的基础上调整。
+ */
+final class BufferingPolicy {
+    static final int DEFAULT_MIN_BUFFER_MS = 15_000;
+    static final int DEFAULT_MAX_BUFFER_MS = 50_000;
+    static final int DEFAULT_BUFFER_FOR_PLAYBACK_MS = 2_500;
+    static final int DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 5_000;
+
+    // 下载速度低于码率的这个倍数时认为网络较差
+    private static final double SLOW_RATIO = 1.5;
+    // 下载速度高于码率的这个倍数时认为网络很好
+    private static final double FAST_RATIO = 4.0;
+
+    final int minBufferMs;
+    final int maxBufferMs;
+    final int bufferForPlaybackMs;
+    final int bufferForPlaybackAfterRebufferMs;
+
+    private volatile int effectiveMinBufferMs;
+    private volatile int effectiveBufferForPlaybackMs;
+    private volatile int effectiveRebufferMs;
+
+    BufferingPolicy(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs) {
+        this.maxBufferMs = Math.max(maxBufferMs, 1_000);
+        this.minBufferMs = Math.min(Math.max(minBufferMs, 0), this.maxBufferMs);
+        this.bufferForPlaybackMs = Math.min(Math.max(bufferForPlaybackMs, 0), this.minBufferMs);
+        this.bufferForPlaybackAfterRebufferMs = Math.min(Math.max(bufferForPlaybackAfterRebufferMs, 0), this.minBufferMs);
+        this.effectiveMinBufferMs = this.minBufferMs;
+        this.effectiveBufferForPlaybackMs = this.bufferForPlaybackMs;
+        this.effectiveRebufferMs = this.bufferForPlaybackAfterRebufferMs;
+    }
+
+    static BufferingPolicy defaults() {
+        return new BufferingPolicy(DEFAULT_MIN_BUFFER_MS, DEFAULT_MAX_BUFFER_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_MS, DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
+    }
+
+    /**
+     * 解析 start 方法的 buffering 参数，缺少的字段使用默认值
+     */
+    static BufferingPolicy fromMap(Map<?, ?> map) {
+        if (map == null) return null;
+        return new BufferingPolicy(
+                intValue(map.get("minBufferMs"), DEFAULT_MIN_BUFFER_MS),
+                intValue(map.get("maxBufferMs"), DEFAULT_MAX_BUFFER_MS),
+                intValue(map.get("bufferForPlaybackMs"), DEFAULT_BUFFER_FOR_PLAYBACK_MS),
+                intValue(map.get("bufferForPlaybackAfterRebufferMs"), DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS));
+    }
+
+    private static int intValue(Object value, int defaultValue) {
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    int minBufferMs() {
+        return effectiveMinBufferMs;
+    }
+
+    int bufferForPlaybackMs() {
+        return effectiveBufferForPlaybackMs;
+    }
+
+    int bufferForPlaybackAfterRebufferMs() {
+        return effectiveRebufferMs;
+    }
+
+    /**
+     * 根据下载速度调整：网络较差时缓冲更多再播放并尽量保持缓冲区满，网络很好时按配置值缓冲以节省流量
+     *
+     * @param throughputBytesPerMs 测得的下载速度
+     * @param mediaBytesPerMs      媒体码率
+     */
+    void adapt(double throughputBytesPerMs, double mediaBytesPerMs) {
+        if (throughputBytesPerMs <= 0 || mediaBytesPerMs <= 0) return;
+        double ratio = throughputBytesPerMs / mediaBytesPerMs;
+        if (ratio < SLOW_RATIO) {
+            effectiveMinBufferMs = maxBufferMs;
+            effectiveBufferForPlaybackMs = Math.min(bufferForPlaybackMs * 2, minBufferMs);
+            effectiveRebufferMs = Math.min(bufferForPlaybackAfterRebufferMs * 2, minBufferMs);
+        } else if (ratio > FAST_RATIO) {
+            effectiveMinBufferMs = minBufferMs;
+            effectiveBufferForPlaybackMs = bufferForPlaybackMs;
+            effectiveRebufferMs = bufferForPlaybackAfterRebufferMs;
+        }
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("minBufferMs", effectiveMinBufferMs);
+        map.put("maxBufferMs", maxBufferMs);
+        map.put("bufferForPlaybackMs", effectiveBufferForPlaybackMs);
+        map.put("bufferForPlaybackAfterRebufferMs", effectiveRebufferMs);
+        return map;
+    }
+}
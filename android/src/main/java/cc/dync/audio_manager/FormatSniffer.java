@@ -0,0 +1,288 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按文件开头的魔数识别格式，代替按扩展名判断
+ * <p>
+ * 只读取前 {@link #HEADER_BYTES} 个字节：本地文件和 asset 直接读取，网络地址发一个 Range 请求。
+ * 结果按 url（本地文件加上大小和修改时间）缓存。只有确认不是媒体（网页、文本、图片等）时才拒绝播放，
+ * 识别不出的交给 MediaPlayer 判断。
+ */
+final class FormatSniffer {
+    private static final String TAG = FormatSniffer.class.getSimpleName();
+    // MPEG-TS 需要看到第二个包的同步字节
+    static final int HEADER_BYTES = 192;
+    private static final int CACHE_SIZE = 256;
+    // 至少读到这么多可打印字符才按纯文本拒绝
+    private static final int MIN_TEXT_BYTES = 32;
+    // 以 < { [ 开头时检查的长度
+    private static final int MARKUP_CHECK_BYTES = 16;
+
+    enum Format {
+        MP3, AAC, MP4, OGG, FLAC, WAV,
+        // MediaPlayer 同样支持，不能误判为不支持
+        MATROSKA, MPEG_TS, AMR, MIDI,
+        // 没有认出来，可能是开头有较长填充的 MP3 等，交给 MediaPlayer
+        UNKNOWN,
+        // 网页、JSON 等文本，通常是服务器返回的错误页
+        TEXT,
+        // 图片、PDF、压缩包等已知不是音视频的格式
+        UNSUPPORTED;
+
+        /**
+         * @return 是否确定不能播放
+         */
+        boolean isRejected() {
+            return this == TEXT || this == UNSUPPORTED;
+        }
+    }
+
+    interface Callback {
+        /**
+         * 主线程调用，读取失败时 format 为 null
+         */
+        void onSniffed(String url, Format format);
+    }
+
+    private final Context context;
+    private final LruCache<String, Format> cache = new LruCache<>(CACHE_SIZE);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // 统计
+    private volatile long sniffCount;
+    private volatile long cacheHitCount;
+    private volatile long unknownCount;
+    private volatile long rejectedCount;
+    private volatile long sniffNanos;
+
+    FormatSniffer(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * 同步识别本地文件和 asset；网络地址只查缓存
+     *
+     * @return 格式，无法读取或网络地址未缓存时返回 null
+     */
+    Format sniffNow(String url, boolean isAsset) {
+        String key = cacheKey(url, isAsset);
+        Format format = cache.get(key);
+        if (format != null) {
+            cacheHitCount++;
+            return format;
+        }
+        if (!isAsset && isNetwork(url)) return null;
+        byte[] header;
+        try {
+            header = isAsset ? readAsset(url) : readFile(url);
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "sniff failed: ", e);
+            return null;
+        }
+        return record(key, header);
+    }
+
+    /**
+     * 在 {@link HttpClient} 的线程池中用 Range 请求读取网络地址的开头
+     */
+    void sniffAsync(String url, Callback callback) {
+        String key = cacheKey(url, false);
+        HttpClient client = HttpClient.getInstance(context);
+        client.execute(() -> {
+            Format format;
+            try {
+                format = record(key, client.head(url, HEADER_BYTES));
+            } catch (IOException e) {
+                PlayerTrace.w(TAG, "sniff failed: ", e);
+                format = null;
+            }
+            Format result = format;
+            mainHandler.post(() -> callback.onSniffed(url, result));
+        });
+    }
+
+    /**
+     * 内存紧张时清空缓存
+     */
+    void clear() {
+        cache.evictAll();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("sniffed", sniffCount);
+        map.put("cacheHits", cacheHitCount);
+        map.put("unknown", unknownCount);
+        map.put("rejected", rejectedCount);
+        long count = sniffCount;
+        map.put("avgSniffMicros", count == 0 ? 0.0 : sniffNanos / 1000.0 / count);
+        return map;
+    }
+
+    private Format record(String key, byte[] header) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        Format format = sniff(header, header.length);
+        sniffNanos += SystemClock.elapsedRealtimeNanos() - start;
+        sniffCount++;
+        if (format == Format.UNKNOWN) unknownCount++;
+        if (format.isRejected()) rejectedCount++;
+        cache.put(key, format);
+        return format;
+    }
+
+    static Format sniff(byte[] b, int length) {
+        if (length < 4) return Format.UNKNOWN;
+        // 带 ID3v2 标签的一般是 MP3
+        if (startsWith(b, length, 0, "ID3")) return Format.MP3;
+        if (startsWith(b, length, 4, "ftyp")) return Format.MP4;
+        if (startsWith(b, length, 0, "OggS")) return Format.OGG;
+        if (startsWith(b, length, 0, "fLaC")) return Format.FLAC;
+        if (startsWith(b, length, 0, "RIFF") && startsWith(b, length, 8, "WAVE")) return Format.WAV;
+        if (startsWith(b, length, 0, "ADIF")) return Format.AAC;
+        if (startsWith(b, length, 0, "#!AMR")) return Format.AMR;
+        if (startsWith(b, length, 0, "MThd")) return Format.MIDI;
+        if ((b[0] & 0xFF) == 0x1A && (b[1] & 0xFF) == 0x45 && (b[2] & 0xFF) == 0xDF && (b[3] & 0xFF) == 0xA3) {
+            return Format.MATROSKA;
+        }
+        if (length > 188 && b[0] == 0x47 && b[188] == 0x47) return Format.MPEG_TS;
+        if (isUnsupportedMagic(b, length)) return Format.UNSUPPORTED;
+        if (isText(b, length)) return Format.TEXT;
+        // 帧同步：有的文件开头有填充，在读到的范围内查找
+        for (int i = 0; i + 4 <= length; i++) {
+            if ((b[i] & 0xFF) != 0xFF || (b[i + 1] & 0xE0) != 0xE0) continue;
+            int h = ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+            if (isAdts(h)) return Format.AAC;
+            if (isMpegAudio(h)) return Format.MP3;
+        }
+        return Format.UNKNOWN;
+    }
+
+    /**
+     * PNG、JPEG、GIF、PDF、ZIP
+     */
+    private static boolean isUnsupportedMagic(byte[] b, int length) {
+        if ((b[0] & 0xFF) == 0x89 && startsWith(b, length, 1, "PNG")) return true;
+        if ((b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xD8 && (b[2] & 0xFF) == 0xFF) return true;
+        if (startsWith(b, length, 0, "GIF8")) return true;
+        if (startsWith(b, length, 0, "%PDF")) return true;
+        return startsWith(b, length, 0, "PK") && b[2] == 3 && b[3] == 4;
+    }
+
+    /**
+     * HTML/XML/JSON，或者读到的全部是可打印文本。m3u 播放列表是文本但 MediaPlayer 能处理，不算
+     */
+    private static boolean isText(byte[] b, int length) {
+        int i = 0;
+        // UTF-8 BOM
+        if (length >= 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB && (b[2] & 0xFF) == 0xBF) i = 3;
+        while (i < length && isWhitespace(b[i])) i++;
+        if (i == length) return false;
+        if (startsWith(b, length, i, "#EXTM3U")) return false;
+        boolean markup = b[i] == '{' || b[i] == '['
+                || (b[i] == '<' && i + 1 < length && (b[i + 1] == '!' || b[i + 1] == '?' || Character.isLetter(b[i + 1])));
+        // 标记语言开头只需要一小段文本确认，否则要求读到的全部是文本
+        int end = markup ? Math.min(length, i + MARKUP_CHECK_BYTES) : length;
+        if (!markup && length - i < MIN_TEXT_BYTES) return false;
+        return isUtf8Text(b, i, end);
+    }
+
+    /**
+     * 合法的 UTF-8 且除空白外没有控制字符。结尾被截断的多字节字符不算错误
+     */
+    private static boolean isUtf8Text(byte[] b, int from, int to) {
+        int j = from;
+        while (j < to) {
+            int c = b[j] & 0xFF;
+            if (c < 0x80) {
+                if ((c < 0x20 && !isWhitespace(b[j])) || c == 0x7F) return false;
+                j++;
+                continue;
+            }
+            int continuation;
+            if (c >= 0xC2 && c <= 0xDF) continuation = 1;
+            else if (c >= 0xE0 && c <= 0xEF) continuation = 2;
+            else if (c >= 0xF0 && c <= 0xF4) continuation = 3;
+            else return false;
+            for (int k = 1; k <= continuation && j + k < to; k++) {
+                if ((b[j + k] & 0xC0) != 0x80) return false;
+            }
+            j += continuation + 1;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    /**
+     * ADTS：12 位同步字，layer 固定为 0
+     */
+    private static boolean isAdts(int h) {
+        return (h & 0xFFF60000) == 0xFFF00000 && ((h >>> 10) & 0xF) < 13;
+    }
+
+    /**
+     * MPEG 音频帧头（Layer I/II/III）
+     */
+    private static boolean isMpegAudio(int h) {
+        int version = (h >>> 19) & 3;
+        int layer = (h >>> 17) & 3;
+        int bitrateIndex = (h >>> 12) & 0xF;
+        int sampleRateIndex = (h >>> 10) & 3;
+        return version != 1 && layer != 0 && bitrateIndex != 15 && sampleRateIndex != 3;
+    }
+
+    private static boolean startsWith(byte[] b, int length, int offset, String magic) {
+        if (offset + magic.length() > length) return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if (b[offset + i] != magic.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private byte[] readAsset(String name) throws IOException {
+        try (InputStream in = context.getAssets().open(name)) {
+            return readHeader(in);
+        }
+    }
+
+    private static byte[] readFile(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            return readHeader(in);
+        }
+    }
+
+    private static byte[] readHeader(InputStream in) throws IOException {
+        byte[] data = new byte[HEADER_BYTES];
+        int read = 0;
+        int n;
+        while (read < HEADER_BYTES && (n = in.read(data, read, HEADER_BYTES - read)) != -1) {
+            read += n;
+        }
+        return read == HEADER_BYTES ? data : Arrays.copyOf(data, read);
+    }
+
+    private static boolean isNetwork(String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    private static String cacheKey(String url, boolean isAsset) {
+        if (isAsset) return "asset:" + url;
+        File file = new File(url);
+        return file.isFile() ? url + "#" + file.length() + "#" + file.lastModified() : url;
+    }
+}
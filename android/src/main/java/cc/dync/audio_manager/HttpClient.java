@@ -0,0 +1,349 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 封面、流媒体共用的 HTTP 客户端
+ * <p>
+ * 基于系统 HttpURLConnection 的 keep-alive 连接池：响应体读完并关闭后连接回到池中复用。
+ * 统一设置连接/读取超时；{@link #fetch(String)} 用 ETag/Last-Modified 在磁盘缓存上做条件请求，
+ * 并发数受 {@link #MAX_CONCURRENT_FETCHES} 限制。
+ */
+final class HttpClient {
+    private static final String TAG = HttpClient.class.getSimpleName();
+
+    static final int CONNECT_TIMEOUT_MS = 10_000;
+    static final int READ_TIMEOUT_MS = 15_000;
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+    private static final String CACHE_DIR = "audio_manager/http";
+    private static final long MAX_CACHE_BYTES = 20 * 1024 * 1024;
+
+    private static HttpClient instance;
+
+    private final File cacheDir;
+    private final Semaphore permits = new Semaphore(MAX_CONCURRENT_FETCHES);
+    private final ExecutorService executor;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long requestCount;
+    private long failureCount;
+    private long conditionalCount;
+    private long notModifiedCount;
+    private long bytesRead;
+
+    static synchronized HttpClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new HttpClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private HttpClient(Context context) {
+        this(new File(context.getCacheDir(), CACHE_DIR));
+    }
+
+    HttpClient(File cacheDir) {
+        this.cacheDir = cacheDir;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "audio_manager-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    /**
+     * 在共享的后台线程池执行网络任务
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 打开一个请求并等待响应头，调用方读取完毕后必须 {@link HttpURLConnection#disconnect()}
+     *
+     * @param offset 大于 0 时发送 Range 请求
+     */
+    HttpURLConnection open(String url, long offset) throws IOException {
+        HttpURLConnection connection = newConnection(url);
+        connection.setUseCaches(false);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+        try {
+            execute(connection);
+        } catch (IOException e) {
+            connection.disconnect();
+            synchronized (this) {
+                failureCount++;
+            }
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * 请求 [from, to] 闭区间，调用方读取完毕后必须 {@link HttpURLConnection#disconnect()}
+     *
+     * @param validator ETag 或 Last-Modified，非空时带上 If-Range：资源已变化时服务器返回 200 和完整内容
+     */
+    HttpURLConnection openRange(String url, long from, long to, String validator) throws IOException {
+        HttpURLConnection connection = newConnection(url);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Range", "bytes=" + from + "-" + to);
+        if (validator != null) connection.setRequestProperty("If-Range", validator);
+        try {
+            execute(connection);
+        } catch (IOException e) {
+            connection.disconnect();
+            synchronized (this) {
+                failureCount++;
+            }
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * 只读取开头的 length 个字节，用于识别格式。服务器不支持 Range 时读够就断开
+     *
+     * @return 读到的字节，可能少于 length
+     */
+    byte[] head(String url, int length) throws IOException {
+        HttpURLConnection connection = newConnection(url);
+        try {
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Range", "bytes=0-" + (length - 1));
+            int code = execute(connection);
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + code + " " + url);
+            }
+            byte[] data = new byte[length];
+            int read = 0;
+            try (InputStream in = connection.getInputStream()) {
+                int n;
+                while (read < length && (n = in.read(data, read, length - read)) != -1) {
+                    read += n;
+                }
+            }
+            onBytesRead(read);
+            return read == length ? data : Arrays.copyOf(data, read);
+        } catch (IOException e) {
+            synchronized (this) {
+                failureCount++;
+            }
+            throw e;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 下载小文件（封面等），已缓存时带上 If-None-Match / If-Modified-Since 重新验证
+     *
+     * @return 响应体
+     */
+    byte[] fetch(String url) throws IOException {
+        File body = cacheFile(url, ".body");
+        File meta = cacheFile(url, ".meta");
+        String[] validators = body.exists() ? readValidators(meta) : null;
+
+        permits.acquireUninterruptibly();
+        HttpURLConnection connection = null;
+        try {
+            connection = newConnection(url);
+            connection.setUseCaches(false);
+            if (validators != null) {
+                if (validators[0] != null) connection.setRequestProperty("If-None-Match", validators[0]);
+                if (validators[1] != null) connection.setRequestProperty("If-Modified-Since", validators[1]);
+            }
+            int code = execute(connection);
+            if (validators != null) {
+                synchronized (this) {
+                    conditionalCount++;
+                }
+            }
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+                synchronized (this) {
+                    notModifiedCount++;
+                }
+                body.setLastModified(System.currentTimeMillis());
+                return readFile(body);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " " + url);
+            }
+            byte[] data;
+            try (InputStream in = connection.getInputStream()) {
+                data = readFully(in);
+            }
+            store(body, meta, data, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            return data;
+        } catch (IOException e) {
+            synchronized (this) {
+                failureCount++;
+            }
+            throw e;
+        } finally {
+            // 出错时也要断开，否则连接泄漏
+            if (connection != null) connection.disconnect();
+            permits.release();
+        }
+    }
+
+    /**
+     * 记录读取的响应体字节数
+     */
+    synchronized void onBytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("requests", requestCount);
+        map.put("failures", failureCount);
+        map.put("bytesRead", bytesRead);
+        map.put("revalidations", conditionalCount);
+        map.put("notModified", notModifiedCount);
+        map.put("cacheHitRate", conditionalCount == 0 ? 0.0 : (double) notModifiedCount / conditionalCount);
+        map.put("latencyMs", latency.toMap());
+        return map;
+    }
+
+    private HttpURLConnection newConnection(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Connection", "keep-alive");
+        return connection;
+    }
+
+    /**
+     * 发送请求，记录到收到响应头的耗时
+     */
+    private int execute(HttpURLConnection connection) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        int code = connection.getResponseCode();
+        synchronized (this) {
+            requestCount++;
+            latency.record(SystemClock.elapsedRealtime() - start);
+        }
+        return code;
+    }
+
+    private byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        onBytesRead(out.size());
+        return out.toByteArray();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            new DataInputStream(in).readFully(data);
+            return data;
+        }
+    }
+
+    private File cacheFile(String url, String suffix) {
+        return new File(cacheDir, hashKey(url) + suffix);
+    }
+
+    private static String[] readValidators(File meta) {
+        if (!meta.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(meta))) {
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            if (etag.isEmpty() && lastModified.isEmpty()) return null;
+            return new String[]{etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void store(File body, File meta, byte[] data, String etag, String lastModified) {
+        if (etag == null && lastModified == null) return;
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) return;
+        try (FileOutputStream out = new FileOutputStream(body)) {
+            out.write(data);
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "cache write failed: ", e);
+            body.delete();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(meta))) {
+            out.writeUTF(etag == null ? "" : etag);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "cache write failed: ", e);
+            body.delete();
+            meta.delete();
+            return;
+        }
+        trimCache();
+    }
+
+    /**
+     * 超出上限时按最近使用时间删除最旧的缓存
+     */
+    private synchronized void trimCache() {
+        File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(".body"));
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) total += file.length();
+        if (total <= MAX_CACHE_BYTES) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_CACHE_BYTES) break;
+            total -= file.length();
+            String name = file.getName();
+            file.delete();
+            new File(cacheDir, name.substring(0, name.length() - ".body".length()) + ".meta").delete();
+        }
+    }
+
+    /**
+     * 用作缓存文件名的 SHA-1
+     */
+    static String hashKey(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package cc.dync.audio_manager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HdrHistogram 风格的延迟直方图（毫秒）
+ * <p>
+ * 0~127ms 精确记录，之后按 2 的幂分段，每段 64 个子桶，相对误差不超过 1/64。
+ * 计数数组在构造时一次性分配，{@link #record(long)} 不产生任何对象。
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    // 最大可记录约 2^(7+25) ms，足够覆盖任何播放相关耗时
+    private static final int MAX_EXPONENT = 25;
+
+    private final long[] counts = new long[SUB_BUCKET_COUNT + MAX_EXPONENT * SUB_BUCKET_HALF];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    void record(long valueMs) {
+        if (valueMs < 0) valueMs = 0;
+        counts[indexOf(valueMs)]++;
+        totalCount++;
+        sum += valueMs;
+        if (valueMs < min) min = valueMs;
+        if (valueMs > max) max = valueMs;
+    }
+
+    long count() {
+        return totalCount;
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return 对应百分位的值（所在桶的下界），没有数据时返回 0
+     */
+    long valueAtPercentile(double percentile) {
+        if (totalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(valueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", totalCount);
+        map.put("min", totalCount == 0 ? 0 : min);
+        map.put("max", max);
+        map.put("mean", totalCount == 0 ? 0.0 : (double) sum / totalCount);
+        map.put("p50", valueAtPercentile(50));
+        map.put("p90", valueAtPercentile(90));
+        map.put("p99", valueAtPercentile(99));
+        return map;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        if (exponent > MAX_EXPONENT) {
+            return SUB_BUCKET_COUNT + MAX_EXPONENT * SUB_BUCKET_HALF - 1;
+        }
+        return SUB_BUCKET_COUNT + (exponent - 1) * SUB_BUCKET_HALF + (int) ((value >> exponent) - SUB_BUCKET_HALF);
+    }
+
+    private static long valueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return subBucket << exponent;
+    }
+}
@@ -0,0 +1,157 @@
+package cc.dync.audio_manager;
+
+/**
+ * EBU R128 / ITU-R BS.1770 积分响度
+ * <p>
+ * PCM 逐块流入：K 计权（高架 + 高通两级 biquad）后按 100ms 子块累计均方值，
+ * 每 4 个子块组成一个 400ms、重叠 75% 的测量块。结束时先按 -70 LUFS 绝对门限、
+ * 再按相对 -10 LU 门限求平均。每个测量块只保存一个 double。
+ */
+final class LoudnessMeter implements PcmDecoder.Sink {
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double RELATIVE_GATE_LU = -10;
+    private static final int SUB_BLOCKS_PER_BLOCK = 4;
+
+    private int channelCount;
+    private double[] weights;
+    // 每声道两级 biquad 的状态：x[n-1], x[n-2], y[n-1], y[n-2], z[n-1], z[n-2]
+    private double[][] state;
+    private double b0, b1, b2, a1, a2;
+    private double c0, c1, c2, d1, d2;
+
+    private int subBlockFrames;
+    private int framesInSubBlock;
+    private final double[] subBlockEnergy = new double[SUB_BLOCKS_PER_BLOCK];
+    private int subBlockCount;
+    private double currentEnergy;
+
+    private double[] blocks = new double[1024];
+    private int blockCount;
+    private long frames;
+    private int sampleRate;
+
+    @Override
+    public void onFormat(int sampleRate, int channelCount, long durationUs) {
+        this.sampleRate = sampleRate;
+        this.channelCount = Math.max(1, channelCount);
+        this.subBlockFrames = Math.max(1, sampleRate / 10);
+        this.state = new double[this.channelCount][6];
+        this.weights = new double[this.channelCount];
+        for (int c = 0; c < this.channelCount; c++) {
+            // 5.1 布局：L R C LFE Ls Rs，LFE 不计入，环绕声道 +1.5dB
+            if (this.channelCount > 2 && c == 3) weights[c] = 0;
+            else if (this.channelCount > 2 && c >= 4) weights[c] = 1.41;
+            else weights[c] = 1.0;
+        }
+
+        // 高架滤波（模拟头部声学效应）
+        double f0 = 1681.974450955533;
+        double gain = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double vh = Math.pow(10.0, gain / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / q + k * k;
+        b0 = (vh + vb * k / q + k * k) / a0;
+        b1 = 2.0 * (k * k - vh) / a0;
+        b2 = (vh - vb * k / q + k * k) / a0;
+        a1 = 2.0 * (k * k - 1.0) / a0;
+        a2 = (1.0 - k / q + k * k) / a0;
+
+        // RLB 高通滤波
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRate);
+        a0 = 1.0 + k / q + k * k;
+        c0 = 1.0;
+        c1 = -2.0;
+        c2 = 1.0;
+        d1 = 2.0 * (k * k - 1.0) / a0;
+        d2 = (1.0 - k / q + k * k) / a0;
+    }
+
+    @Override
+    public boolean onPcm(short[] samples, int count, long presentationUs) {
+        for (int i = 0; i + channelCount <= count; i += channelCount) {
+            double energy = 0;
+            for (int c = 0; c < channelCount; c++) {
+                if (weights[c] == 0) continue;
+                double x = samples[i + c] / 32768.0;
+                double[] s = state[c];
+                double y = b0 * x + b1 * s[0] + b2 * s[1] - a1 * s[2] - a2 * s[3];
+                // 第二级的输入历史就是第一级的输出历史
+                double z = c0 * y + c1 * s[2] + c2 * s[3] - d1 * s[4] - d2 * s[5];
+                s[1] = s[0];
+                s[0] = x;
+                s[3] = s[2];
+                s[2] = y;
+                s[5] = s[4];
+                s[4] = z;
+                energy += weights[c] * z * z;
+            }
+            currentEnergy += energy;
+            frames++;
+            if (++framesInSubBlock == subBlockFrames) endSubBlock();
+        }
+        return true;
+    }
+
+    private void endSubBlock() {
+        subBlockEnergy[subBlockCount % SUB_BLOCKS_PER_BLOCK] = currentEnergy / subBlockFrames;
+        subBlockCount++;
+        currentEnergy = 0;
+        framesInSubBlock = 0;
+        if (subBlockCount < SUB_BLOCKS_PER_BLOCK) return;
+        double sum = 0;
+        for (double e : subBlockEnergy) sum += e;
+        addBlock(sum / SUB_BLOCKS_PER_BLOCK);
+    }
+
+    private void addBlock(double energy) {
+        if (blockCount == blocks.length) {
+            double[] grown = new double[blocks.length * 2];
+            System.arraycopy(blocks, 0, grown, 0, blockCount);
+            blocks = grown;
+        }
+        blocks[blockCount++] = energy;
+    }
+
+    long durationMs() {
+        return sampleRate == 0 ? 0 : frames * 1000 / sampleRate;
+    }
+
+    /**
+     * @return 积分响度 (LUFS)，数据不足 400ms 时返回 NaN
+     */
+    double integratedLoudness() {
+        double absoluteGate = energyOf(ABSOLUTE_GATE_LUFS);
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blocks[i] > absoluteGate) {
+                sum += blocks[i];
+                count++;
+            }
+        }
+        if (count == 0) return Double.NaN;
+        double relativeGate = energyOf(loudnessOf(sum / count) + RELATIVE_GATE_LU);
+        sum = 0;
+        count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blocks[i] > absoluteGate && blocks[i] > relativeGate) {
+                sum += blocks[i];
+                count++;
+            }
+        }
+        if (count == 0) return Double.NaN;
+        return loudnessOf(sum / count);
+    }
+
+    private static double loudnessOf(double energy) {
+        return -0.691 + 10.0 * Math.log10(energy);
+    }
+
+    private static double energyOf(double loudness) {
+        return Math.pow(10.0, (loudness + 0.691) / 10.0);
+    }
+}
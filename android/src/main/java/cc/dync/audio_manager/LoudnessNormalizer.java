@@ -0,0 +1,199 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 响度归一化：后台测量每首曲目的积分响度，播放时按目标响度计算增益
+ * <p>
+ * 测量在最低优先级的单线程中逐首进行，结果以 url（本地文件加上大小和修改时间）为键持久化，
+ * 每首只需分析一次。默认关闭，通过 {@link #setEnabled(boolean, float)} 开启。
+ */
+final class LoudnessNormalizer {
+    private static final String TAG = LoudnessNormalizer.class.getSimpleName();
+    private static final String DIR_NAME = "audio_manager";
+    private static final String FILE_NAME = "loudness.index";
+    static final float DEFAULT_TARGET_LUFS = -14f;
+    // LoudnessEnhancer 最多提升的增益，避免把很安静的曲目推到削波
+    static final float MAX_BOOST_DB = 9f;
+
+    interface Callback {
+        /**
+         * 主线程调用，测量失败时 loudness 为 NaN
+         */
+        void onAnalyzed(String url, float loudness);
+    }
+
+    private final Context context;
+    private final File file;
+    private final Map<String, Float> cache = new ConcurrentHashMap<>();
+    private final Set<String> queued = new HashSet<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+        r.run();
+    }, "audio_manager-loudness"));
+
+    private volatile boolean enabled = false;
+    private volatile float targetLufs = DEFAULT_TARGET_LUFS;
+
+    // 测量统计，只在 executor 线程写入
+    private volatile long analyzedCount;
+    private volatile long failureCount;
+    private volatile long analyzedMediaMs;
+    private volatile long analyzeMs;
+
+    LoudnessNormalizer(Context context) {
+        this.context = context;
+        this.file = new File(new File(context.getFilesDir(), DIR_NAME), FILE_NAME);
+        executor.execute(this::load);
+    }
+
+    void setEnabled(boolean enabled, float targetLufs) {
+        this.enabled = enabled;
+        this.targetLufs = targetLufs;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return 需要施加的增益 (dB)，未开启或尚未测量时返回 NaN
+     */
+    float gainDb(String url) {
+        if (!enabled || url == null) return Float.NaN;
+        Float loudness = cache.get(cacheKey(url));
+        if (loudness == null || loudness.isNaN()) return Float.NaN;
+        return Math.min(targetLufs - loudness, MAX_BOOST_DB);
+    }
+
+    /**
+     * 排队测量，已测量或已在队列中时不重复
+     *
+     * @param callback 可以为 null
+     */
+    void analyze(String url, boolean isAsset, Callback callback) {
+        synchronized (queued) {
+            if (!queued.add(url)) return;
+        }
+        executor.execute(() -> {
+            String key = cacheKey(url);
+            Float loudness = cache.get(key);
+            if (loudness == null) {
+                loudness = measure(url, isAsset);
+                // 失败的不缓存，下次再试
+                if (!loudness.isNaN()) {
+                    cache.put(key, loudness);
+                    save();
+                }
+            }
+            synchronized (queued) {
+                queued.remove(url);
+            }
+            if (callback != null) {
+                float result = loudness;
+                mainHandler.post(() -> callback.onAnalyzed(url, result));
+            }
+        });
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("enabled", enabled);
+        map.put("targetLufs", (double) targetLufs);
+        map.put("analyzed", analyzedCount);
+        map.put("failures", failureCount);
+        map.put("cacheSize", cache.size());
+        long elapsed = analyzeMs;
+        map.put("realtimeFactor", elapsed == 0 ? 0.0 : analyzedMediaMs / (double) elapsed);
+        return map;
+    }
+
+    private float measure(String url, boolean isAsset) {
+        LoudnessMeter meter = new LoudnessMeter();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            if (isAsset) {
+                try (AssetFileDescriptor descriptor = context.getAssets().openFd(url)) {
+                    new PcmDecoder(descriptor).decode(meter, 0);
+                }
+            } else {
+                new PcmDecoder(url).decode(meter, 0);
+            }
+        } catch (IOException | RuntimeException e) {
+            PlayerTrace.w(TAG, "loudness failed: ", e);
+            failureCount++;
+            return Float.NaN;
+        }
+        analyzedCount++;
+        analyzedMediaMs += meter.durationMs();
+        analyzeMs += SystemClock.elapsedRealtime() - start;
+        return (float) meter.integratedLoudness();
+    }
+
+    private static String cacheKey(String url) {
+        File file = new File(url);
+        return file.isFile() ? url + "#" + file.length() + "#" + file.lastModified() : url;
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                cache.put(key, in.readFloat());
+            }
+        } catch (EOFException e) {
+            // 文件不完整，保留已读出的记录
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "loudness load: ", e);
+        }
+    }
+
+    /**
+     * 只在 executor 线程调用
+     */
+    private void save() {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        Map<String, Float> snapshot = new HashMap<>(cache);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Float> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeFloat(entry.getValue());
+            }
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "loudness save: ", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            PlayerTrace.w(TAG, "loudness rename failed");
+        }
+    }
+}
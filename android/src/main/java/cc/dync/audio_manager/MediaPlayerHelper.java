@@ -1,32 +1,38 @@
 package cc.dync.audio_manager;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.MediaDataSource;
 import android.media.MediaPlayer;
-import android.net.wifi.WifiManager;
+import android.media.PlaybackParams;
+import android.media.audiofx.LoudnessEnhancer;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
-import android.os.PowerManager;
-import android.util.Log;
+import android.os.SystemClock;
+import android.os.PersistableBundle;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
 import androidx.annotation.RequiresApi;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * 多媒体播放
@@ -34,16 +40,66 @@ import java.util.Objects;
 public class MediaPlayerHelper {
     private static final String TAG = MediaPlayerHelper.class.getSimpleName();
 
-    private String[] ext = {".3gp", ".3GP", ".mp4", ".MP4", ".mp3", ".ogg", ".OGG", ".MP3", ".wav", ".WAV"};//定义我们支持的文件格式
     private Holder uiHolder;//UI的容器
     private Context context;
     private MediaInfo mediaInfo = new MediaInfo("title", null);
     private static MediaPlayerHelper instance;
     private int delaySecondTime = 1000;//进度回调间隔
     private boolean isHolderCreate = false;//SurfaceHolder是否准备好了
-    private WifiManager.WifiLock wifiLock;
+    // Flutter 纹理的 Surface，设置后优先于 SurfaceView
+    private Surface videoSurface;
     private String curUrl = "";//当前初始化url
     private boolean isPrepare = false;
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+    private final PositionClock clock = new PositionClock();
+    private final PlaybackJournal journal;
+    private final LoudnessNormalizer loudness;
+    private final SilenceSkipper silenceSkipper;
+    private final FormatSniffer formatSniffer;
+    private final AssetDescriptorCache assetDescriptors;
+    private final PlaybackLocks locks;
+    // 当前网络数据源是否占用着 WiFi 锁
+    private boolean holdsNetworkLock = false;
+    // ExoPlayer 上次报告的缓冲百分比，变化时才分发
+    private int adaptiveBufferedPercent = -1;
+    private boolean skipSilence = false;
+    static final float MIN_SPEED = 0.25f;
+    static final float MAX_SPEED = 4f;
+    private static final long SPEED_COALESCE_MS = 50;
+    // 设置的播放速率，切换曲目后保持
+    private float playbackSpeed = 1f;
+    // 已经设置到当前 MediaPlayer 上的速率
+    private float appliedSpeed = 1f;
+    private PlaybackJournal.Snapshot resumeSnapshot;
+    // journal 在后台读取，第一次用到时再取结果
+    private Future<PlaybackJournal.Snapshot> pendingRestore;
+    // 准备完毕后、开始播放前需要跳转到的位置
+    private int pendingStartPosition = 0;
+    // 起播跳转完成后再自动播放，不播出开头的片段
+    private boolean startAfterSeek = false;
+    // 本地没有 TOC 的 VBR MP3 的帧索引，远距离拖动时从目标帧所在偏移重新准备
+    private Mp3SeekIndex seekIndex;
+    // 离当前数据源起点这么近时 MediaPlayer 的估算误差可以忽略，直接跳转
+    private static final int IN_SOURCE_SEEK_MS = 30_000;
+    // 小范围拖动和跳过静音直接跳转，不重新准备
+    private static final int SHORT_SEEK_MS = 5_000;
+    // 按索引重新准备后，播放器位置 0 对应的曲目位置
+    private int positionBase = 0;
+    // 按索引重新准备中的目标位置，-1 表示没有
+    private int reseekTarget = -1;
+    private long indexedSeekCount;
+    // 未结束的 prepare / seek 异步 trace 区间，0 表示没有
+    private int prepareTraceCookie;
+    private int seekTraceCookie;
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60_000;
+    // 暂停超过这个时间释放播放器，0 表示不释放
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    // 播放器被释放后用于恢复的描述，没有时为 null
+    private ResumeDescriptor reaped;
+    private long reapCount;
+    private long trimCount;
+    private long resumeRequestedAt = -1;
+    private final LatencyHistogram resumeLatency = new LatencyHistogram();
 
     static class MediaInfo {
         String title;
@@ -73,6 +129,22 @@ public class MediaPlayerHelper {
          * 是否是自动播放
          */
         boolean isAuto = true;
+        /**
+         * 在播放列表中的位置，-1 表示未知
+         */
+        int queueIndex = -1;
+        /**
+         * 网络流缓冲策略，为 null 时使用 MediaPlayer 默认的缓冲
+         */
+        BufferingPolicy bufferingPolicy;
+        /**
+         * 是否是 HLS/DASH 自适应流，是时交给 {@link AdaptiveStreamPlayer} 播放
+         */
+        boolean isAdaptive = false;
+        /**
+         * 起播位置(ms)，准备完成后、开始播放前生效
+         */
+        int startPosition = 0;
 
         MediaInfo(String title, String url) {
             this.title = title;
@@ -167,10 +239,10 @@ public class MediaPlayerHelper {
                     playOrPause();
                     break;
                 case next:
-                    onStatusCallbackNext(CallBackState.next);
+                    dispatchNext();
                     break;
                 case previous:
-                    onStatusCallbackNext(CallBackState.previous);
+                    dispatchPrevious();
                     break;
                 case stop:
                     release();
@@ -178,7 +250,6 @@ public class MediaPlayerHelper {
             }
         });
 
-        keepAlive();
         return instance;
     }
 
@@ -194,10 +265,10 @@ public class MediaPlayerHelper {
     MediaPlayerHelper updateCover(String url) {
         if (service == null) return instance;
         if (url.contains("http")) {
-            new Thread(() -> {
+            HttpClient.getInstance(context).execute(() -> {
                 Bitmap bitmap = getBitmapFromUrl(url);
-                service.updateCover(bitmap);
-            }).start();
+                if (service != null) service.updateCover(bitmap);
+            });
             return instance;
         }
         try {
@@ -213,7 +284,7 @@ public class MediaPlayerHelper {
             service.updateCover(BitmapFactory.decodeStream(inputStream));
 
         } catch (IOException e) {
-            onStatusCallbackNext(CallBackState.error, e.toString());
+            dispatchError(e.toString());
         }
         return instance;
     }
@@ -222,7 +293,13 @@ public class MediaPlayerHelper {
      * 播放音视频
      */
     void start(MediaInfo info) throws Exception {
+        if (!info.isAsset && !info.isAdaptive && info.url != null && isNetworkUrl(info.url)) {
+            // 已离线下载的直接播放本地文件
+            File offline = OfflineDownloader.completedFile(context, info.url);
+            if (offline != null) info.url = offline.getPath();
+        }
         if (info.url.equals(curUrl)) {
+            if (info.startPosition > 0 && (isPrepare || reaped != null)) seekTo(info.startPosition);
             play();
             return;
         }
@@ -230,61 +307,92 @@ public class MediaPlayerHelper {
         if (mediaInfo.url == null) throw new Exception("you must invoke setInfo method before");
 
         stop();
+        // HLS/DASH 的地址是清单，不需要识别
+        if (!mediaInfo.isAdaptive && !checkAvalable(mediaInfo)) return;
+        awaitRestore();
+        if (resumeSnapshot != null) {
+            if (mediaInfo.url.equals(resumeSnapshot.info.url)) {
+                pendingStartPosition = resumeSnapshot.position;
+            }
+            resumeSnapshot = null;
+        }
+        if (mediaInfo.startPosition > 0) {
+            pendingStartPosition = mediaInfo.startPosition;
+        }
+        journal.recordItem(mediaInfo);
+        metrics.onStartRequested();
+        preparePlayer();
+    }
+
+    /**
+     * 为 mediaInfo 创建播放器并开始准备，起播位置是 pendingStartPosition。
+     * 不经过 {@link #stop()}，恢复被释放的播放器时 Flutter 端的时长和进度保持不变
+     */
+    private void preparePlayer() {
+        if (mediaInfo.isAdaptive) {
+            startAdaptive();
+            curUrl = mediaInfo.url;
+            isPrepare = false;
+            return;
+        }
         uiHolder.player = new MediaPlayer();
+        appliedSpeed = 1f;
         keepAlive();
         initPlayerListener();
+        applyLoudnessGain();
+        if (!mediaInfo.isAsset && Mp3SeekIndex.isIndexable(mediaInfo.url)) {
+            loadSeekIndex(mediaInfo.url);
+        }
+        if (loudness.isEnabled() && Float.isNaN(loudness.gainDb(mediaInfo.url))) {
+            loudness.analyze(mediaInfo.url, mediaInfo.isAsset, (url, lufs) -> {
+                if (url.equals(curUrl)) applyLoudnessGain();
+            });
+        }
 
         if (!mediaInfo.isVideo) bindService();
 
         if (mediaInfo.isAsset) {
-//            if (!checkAvalable(mediaInfo.url)) {
-//                onStatusCallbackNext(CallBackState.FORMAT_NOT_SUPPORT, mediaInfo.url);
-//                return;
-//            }
-            if (mediaInfo.isVideo) {
-                if (isHolderCreate) {
-                    beginPlayAsset(mediaInfo.url);
-                } else {
-                    setOnHolderCreateListener(() -> beginPlayAsset(mediaInfo.url));
-                }
-            } else {
-                beginPlayAsset(mediaInfo.url);
-            }
+            beginPlayAsset(mediaInfo.url);
         } else {
-            if (mediaInfo.isVideo) {
-                if (isHolderCreate) {
-                    beginPlayUrl(mediaInfo.url);
-                } else {
-                    setOnHolderCreateListener(() -> beginPlayUrl(mediaInfo.url));
-                }
-            } else {
-                beginPlayUrl(mediaInfo.url);
-            }
+            beginPlaySource(mediaInfo.url);
         }
 
         curUrl = mediaInfo.url;
         isPrepare = false;
     }
 
+    /**
+     * HLS/DASH 交给 ExoPlayer，按带宽在清单的码率之间切换
+     */
+    private void startAdaptive() {
+        uiHolder.adaptive = new AdaptiveStreamPlayer(context, adaptiveListener);
+        adaptiveBufferedPercent = -1;
+        uiHolder.adaptive.setSkipSilence(skipSilence);
+        uiHolder.adaptive.setSpeed(playbackSpeed);
+        if (videoSurface != null) {
+            uiHolder.adaptive.setVideoSurface(videoSurface);
+        } else if (uiHolder.surfaceHolder != null) {
+            uiHolder.adaptive.setVideoSurface(uiHolder.surfaceHolder.getSurface());
+        }
+        if (!mediaInfo.isVideo) bindService();
+        beginPrepareTrace();
+        // 起播位置直接交给 ExoPlayer，不需要准备完再跳转
+        uiHolder.adaptive.prepare(mediaInfo.url, pendingStartPosition);
+        pendingStartPosition = 0;
+    }
+
     /**
      * 通过Assets文件名播放Assets目录下的音频
      *
      * @param assetName 名字,带后缀，比如:text.mp3
      */
     public void playAsset(String assetName, boolean isVideo) {
-//        if (!checkAvalable(assetName)) {
-//            onStatusCallbackNext(CallBackState.FORMAT_NOT_SUPPORT, assetName);
-//            return;
-//        }
-        if (isVideo) {
-            if (isHolderCreate) {
-                beginPlayAsset(assetName);
-            } else {
-                setOnHolderCreateListener(() -> beginPlayAsset(assetName));
-            }
-        } else {
-            beginPlayAsset(assetName);
+        FormatSniffer.Format format = formatSniffer.sniffNow(assetName, true);
+        if (format != null && format.isRejected()) {
+            dispatchFormatNotSupported(assetName);
+            return;
         }
+        beginPlayAsset(assetName);
     }
 
     /**
@@ -293,15 +401,7 @@ public class MediaPlayerHelper {
      * @param path 路径
      */
     public void playUrl(final String path, boolean isVideo) {
-        if (isVideo) {
-            if (isHolderCreate) {
-                beginPlayUrl(path);
-            } else {
-                setOnHolderCreateListener(() -> beginPlayUrl(path));
-            }
-        } else {
-            beginPlayUrl(path);
-        }
+        beginPlayUrl(path);
     }
 
 
@@ -312,15 +412,7 @@ public class MediaPlayerHelper {
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
     public void playByte(byte[] videoBuffer, boolean isVideo) {
-        if (isVideo) {
-            if (isHolderCreate) {
-                beginPlayDataSource(new ByteMediaDataSource(videoBuffer));
-            } else {
-                setOnHolderCreateListener(() -> beginPlayDataSource(new ByteMediaDataSource(videoBuffer)));
-            }
-        } else {
-            beginPlayDataSource(new ByteMediaDataSource(videoBuffer));
-        }
+        beginPlayDataSource(new ByteMediaDataSource(videoBuffer));
     }
 
     /**
@@ -336,33 +428,62 @@ public class MediaPlayerHelper {
     }
 
     /**
-     * @param speed 播放速率
-     * @return 是否设置成功
+     * 设置播放速率，音调保持不变。拖动滑块时连续的设置在 {@link #SPEED_COALESCE_MS} 内合并为一次
+     *
+     * @param speed 播放速率，{@link #MIN_SPEED} ~ {@link #MAX_SPEED}
+     * @return 速率是否有效
      */
     boolean setSpeed(float speed) {
-        if (!canPlay()) return false;
-        //倍速设置，必须在23以上
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            try {
-                uiHolder.player.setPlaybackParams(uiHolder.player.getPlaybackParams().setSpeed(speed));
-                uiHolder.player.pause();
-                uiHolder.player.start();
-                return true;
-            } catch (Exception e) {
-                Log.e(TAG, "setPlaySpeed: ", e);
-                return false;
-            }
+        if (Float.isNaN(speed) || speed < MIN_SPEED || speed > MAX_SPEED) return false;
+        playbackSpeed = speed;
+        refress_time_handler.removeCallbacks(applySpeed);
+        refress_time_handler.postDelayed(applySpeed, SPEED_COALESCE_MS);
+        return true;
+    }
+
+    private final Runnable applySpeed = this::applySpeed;
+
+    /**
+     * 播放中直接修改 PlaybackParams，不会中断。MediaPlayer 暂停时设置速率会开始播放，
+     * 所以暂停时只记录，在 {@link #startPlayer()} 中生效
+     */
+    private void applySpeed() {
+        if (!isPrepare) return;
+        if (uiHolder.adaptive != null) {
+            uiHolder.adaptive.setSpeed(playbackSpeed);
+        } else if (uiHolder.player != null && uiHolder.player.isPlaying()) {
+            if (!applyPlayerSpeed()) return;
         } else {
-            Log.v(TAG, "Cannot set speed.");
+            return;
+        }
+        clock.setSpeed(playbackSpeed);
+        journal.recordPosition(clock.position(), playbackSpeed, false);
+        scheduleSilenceCheck();
+    }
+
+    private boolean applyPlayerSpeed() {
+        try {
+            uiHolder.player.setPlaybackParams(new PlaybackParams()
+                    .setSpeed(playbackSpeed)
+                    .setPitch(1f)
+                    .setAudioFallbackMode(PlaybackParams.AUDIO_FALLBACK_MODE_DEFAULT));
+            appliedSpeed = playbackSpeed;
+            return true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            PlayerTrace.e(TAG, "setPlaySpeed: ", e);
             return false;
         }
     }
 
     void play() {
+        if (reaped != null) {
+            resumeReaped();
+            return;
+        }
         if (!canPlay()) return;
         if (isPlaying()) return;
-        uiHolder.player.start();
-        onStatusCallbackNext(CallBackState.playOrPause, isPlaying());
+        startPlayer();
+        dispatchPlayStatus(isPlaying());
 
         if (service != null)
             service.updateNotification(isPlaying(), mediaInfo.title, mediaInfo.desc);
@@ -371,79 +492,550 @@ public class MediaPlayerHelper {
     void pause() {
         if (!canPlay()) return;
         if (!isPlaying()) return;
-        uiHolder.player.pause();
-        onStatusCallbackNext(CallBackState.playOrPause, isPlaying());
+        pausePlayer();
+        dispatchPlayStatus(isPlaying());
 
         if (service != null)
             service.updateNotification(isPlaying(), mediaInfo.title, mediaInfo.desc);
     }
 
     void playOrPause() {
+        if (reaped != null) {
+            resumeReaped();
+            return;
+        }
         if (!canPlay()) return;
         if (isPlaying()) {
-            uiHolder.player.pause();
+            pausePlayer();
         } else {
-            uiHolder.player.start();
+            startPlayer();
         }
-        onStatusCallbackNext(CallBackState.playOrPause, isPlaying());
+        dispatchPlayStatus(isPlaying());
 
         if (service != null)
             service.updateNotification(isPlaying(), mediaInfo.title, mediaInfo.desc);
     }
 
+    private void startPlayer() {
+        PlayerTrace.beginSection(PlayerTrace.SECTION_START);
+        try {
+            if (uiHolder.adaptive != null) {
+                uiHolder.adaptive.play();
+            } else {
+                if (appliedSpeed != playbackSpeed) applyPlayerSpeed();
+                if (!uiHolder.player.isPlaying()) uiHolder.player.start();
+            }
+        } finally {
+            PlayerTrace.endSection();
+        }
+        metrics.onPlaybackStarted();
+        locks.onActive();
+        refress_time_handler.removeCallbacks(idleReaper);
+        if (resumeRequestedAt >= 0) {
+            resumeLatency.record(SystemClock.elapsedRealtime() - resumeRequestedAt);
+            resumeRequestedAt = -1;
+        }
+        clock.setSpeed(playbackSpeed);
+        clock.anchor(playerPosition(), true);
+        scheduleSilenceCheck();
+    }
+
+    private void pausePlayer() {
+        if (uiHolder.adaptive != null) {
+            uiHolder.adaptive.pause();
+        } else {
+            uiHolder.player.pause();
+        }
+        clock.anchor(playerPosition(), false);
+        journal.recordPosition(clock.position(), clock.speed(), true);
+        locks.onPaused();
+        scheduleIdleReap();
+        scheduleSilenceCheck();
+    }
+
     private boolean canPlay() {
         if (!isPrepare) {
-            Log.e(TAG, "not prepared");
-            //onStatusCallbackNext(CallBackState.error, "媒体资源加载失败");
+            PlayerTrace.w(TAG, "not prepared");
+            //dispatchError("媒体资源加载失败");
         }
         return isPrepare;
     }
 
     boolean isPlaying() {
+        if (uiHolder.adaptive != null) return uiHolder.adaptive.isPlaying();
         if (uiHolder.player == null) return false;
         return uiHolder.player.isPlaying();
     }
 
+    private boolean hasPlayer() {
+        return uiHolder.player != null || uiHolder.adaptive != null;
+    }
+
+    /**
+     * 直接读取播放器的位置
+     */
+    private int playerPosition() {
+        if (uiHolder.adaptive != null) return uiHolder.adaptive.position();
+        return positionBase + uiHolder.player.getCurrentPosition();
+    }
+
+    private int playerDuration() {
+        if (uiHolder.adaptive != null) return uiHolder.adaptive.duration();
+        if (positionBase > 0 && seekIndex != null) return (int) seekIndex.durationMs();
+        return uiHolder.player.getDuration();
+    }
+
+    /**
+     * 当前位置，由 {@link PositionClock} 推算，只会低频读取播放器
+     */
     int position() {
-        if (uiHolder.player == null) return 0;
-        return uiHolder.player.getCurrentPosition();
+        if (reaped != null) return reaped.position;
+        if (!hasPlayer()) return 0;
+        if (isPrepare && clock.needsResync()) {
+            clock.resync(playerPosition());
+        }
+        return clock.position();
     }
 
+    /**
+     * 总时长，准备完毕后缓存
+     */
     int duration() {
-        if (uiHolder.player == null) return 0;
-        return uiHolder.player.getDuration();
+        if (reaped != null) return reaped.duration;
+        if (!hasPlayer()) return 0;
+        if (clock.duration() <= 0 && isPrepare) {
+            clock.setDuration(playerDuration());
+        }
+        return clock.duration();
     }
 
     boolean seekTo(int position) {
-        if (uiHolder.player == null) return false;
-        uiHolder.player.seekTo(position);
+        if (reaped != null) {
+            // 恢复时从新位置开始
+            reaped.position = position;
+            dispatchSeekComplete(position);
+            return true;
+        }
+        if (!hasPlayer()) return false;
+        metrics.onSeekRequested();
+        if (uiHolder.adaptive == null && seekIndexed(position)) return true;
+        clock.anchor(position, clock.isRunning());
+        beginSeekTrace();
+        PlayerTrace.beginSection(PlayerTrace.SECTION_SEEK);
+        try {
+            if (uiHolder.adaptive != null) {
+                uiHolder.adaptive.seekTo(position);
+            } else {
+                uiHolder.player.seekTo(position - positionBase);
+            }
+        } finally {
+            PlayerTrace.endSection();
+        }
         return true;
     }
 
+    private void loadSeekIndex(String url) {
+        seekIndex = null;
+        Mp3SeekIndex.loadAsync(context, url, index -> {
+            if (index != null && index.needsIndex() && url.equals(curUrl)) seekIndex = index;
+        });
+    }
+
+    /**
+     * MediaPlayer 对没有 TOC 的 VBR MP3 按平均码率估算偏移，长文件误差可达数十秒。
+     * 有索引时从目标帧所在字节重新准备，剩余不到一个索引间隔的部分再交给 MediaPlayer 跳转。
+     * 重新准备会有短暂的停顿，距离很近或目标离当前数据源起点不远时估算误差很小，仍由 MediaPlayer 跳转
+     *
+     * @return 是否按索引跳转
+     */
+    private boolean seekIndexed(int position) {
+        Mp3SeekIndex index = seekIndex;
+        boolean reseeking = reseekTarget >= 0;
+        if (index == null || uiHolder.player == null || !(isPrepare || reseeking) || !index.path.equals(mediaInfo.url)) {
+            return false;
+        }
+        if (!reseeking && position >= positionBase
+                && (position - positionBase <= IN_SOURCE_SEEK_MS || Math.abs(position - clock.position()) <= SHORT_SEEK_MS)) {
+            return false;
+        }
+        int slot = index.slotAt(position);
+        OffsetFileDataSource source;
+        try {
+            source = new OffsetFileDataSource(index.path, index.offsetAt(slot));
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "indexed seek: ", e);
+            return false;
+        }
+        boolean resume = clock.isRunning() || startAfterSeek;
+        clock.anchor(position, false);
+        // 重新准备中再次拖动时直接换成新的目标
+        if (!reseeking) beginSeekTrace();
+        releaseLoudnessEnhancer();
+        uiHolder.player.release();
+        uiHolder.player = new MediaPlayer();
+        appliedSpeed = 1f;
+        initPlayerListener();
+        applyLoudnessGain();
+        // 重新准备期间不接受播放控制
+        isPrepare = false;
+        startAfterSeek = resume;
+        positionBase = index.timeAt(slot);
+        reseekTarget = position;
+        indexedSeekCount++;
+        try {
+            uiHolder.player.setDataSource(source);
+            uiHolder.player.prepareAsync();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // 播放器没有接管 source，需要自己关闭
+            try {
+                source.close();
+            } catch (IOException ignored) {
+            }
+            positionBase = 0;
+            reseekTarget = -1;
+            startAfterSeek = false;
+            endSeekTrace();
+            dispatchError(e.toString());
+        }
+        return true;
+    }
+
+    private void onReseekPrepared() {
+        isPrepare = true;
+        int remainder = reseekTarget - positionBase;
+        reseekTarget = -1;
+        if (remainder > 0) {
+            uiHolder.player.seekTo(remainder);
+        } else {
+            onPlayerSeekComplete();
+        }
+    }
+
+    /**
+     * 跳过静音，与倍速一起用于播客等语音内容。HLS/DASH 使用 ExoPlayer 自带的实现
+     */
+    void setSkipSilence(boolean enabled) {
+        if (skipSilence == enabled) return;
+        skipSilence = enabled;
+        if (uiHolder.adaptive != null) {
+            uiHolder.adaptive.setSkipSilence(enabled);
+            return;
+        }
+        if (enabled && isPrepare && uiHolder.player != null) {
+            silenceSkipper.start(mediaInfo.url, mediaInfo.isAsset, position());
+            scheduleSilenceCheck();
+        } else if (!enabled) {
+            silenceSkipper.stop();
+            refress_time_handler.removeCallbacks(silenceCheck);
+        }
+    }
+
+    private final Runnable silenceCheck = this::scheduleSilenceCheck;
+
+    /**
+     * 在下一个静音段开始时跳到它的结尾。只在播放中生效，暂停、拖动后重新安排
+     */
+    private void scheduleSilenceCheck() {
+        refress_time_handler.removeCallbacks(silenceCheck);
+        if (!skipSilence || uiHolder.player == null || !isPrepare || !clock.isRunning()) return;
+        int position = position();
+        silenceSkipper.onPosition(position);
+        int[] silence = silenceSkipper.nextSilence(position);
+        if (silence == null) {
+            // 还没有分析到，等分析结果回调或下一次检查
+            refress_time_handler.postDelayed(silenceCheck, 1000);
+        } else if (silence[0] <= position) {
+            silenceSkipper.onSkipped(silence[1] - position);
+            seekTo(silence[1]);
+        } else {
+            long delay = (long) ((silence[0] - position) / Math.max(0.25f, clock.speed()));
+            refress_time_handler.postDelayed(silenceCheck, Math.min(delay, 1000));
+        }
+    }
+
+    /**
+     * 开启/关闭响度归一化，立即作用于当前曲目
+     *
+     * @param targetLufs 目标响度
+     */
+    void setLoudnessNormalization(boolean enabled, float targetLufs) {
+        loudness.setEnabled(enabled, targetLufs);
+        applyLoudnessGain();
+    }
+
+    /**
+     * 在后台预先测量一批曲目的响度
+     */
+    void analyzeLoudness(List<String> urls, boolean isAsset) {
+        for (String url : urls) {
+            loudness.analyze(url, isAsset, null);
+        }
+    }
+
+    /**
+     * 按测量结果设置音量：衰减用 MediaPlayer.setVolume，提升用 LoudnessEnhancer
+     */
+    private void applyLoudnessGain() {
+        if (uiHolder.player == null) return;
+        float gainDb = loudness.gainDb(mediaInfo.url);
+        if (Float.isNaN(gainDb)) gainDb = 0;
+        float volume = gainDb < 0 ? (float) Math.pow(10, gainDb / 20) : 1f;
+        uiHolder.player.setVolume(volume, volume);
+        if (gainDb > 0) {
+            try {
+                if (uiHolder.loudnessEnhancer == null) {
+                    uiHolder.loudnessEnhancer = new LoudnessEnhancer(uiHolder.player.getAudioSessionId());
+                }
+                uiHolder.loudnessEnhancer.setTargetGain((int) (gainDb * 100));
+                uiHolder.loudnessEnhancer.setEnabled(true);
+            } catch (RuntimeException e) {
+                PlayerTrace.w(TAG, "LoudnessEnhancer: ", e);
+            }
+        } else {
+            releaseLoudnessEnhancer();
+        }
+    }
+
+    private void releaseLoudnessEnhancer() {
+        if (uiHolder.loudnessEnhancer != null) {
+            uiHolder.loudnessEnhancer.release();
+            uiHolder.loudnessEnhancer = null;
+        }
+    }
+
+    /**
+     * 在后台读取上次进程退出前保存的播放状态。之后 {@link #start(MediaInfo)} 同一个 url 时会从保存的位置继续播放
+     */
+    void restorePlaybackState() {
+        if (pendingRestore != null || resumeSnapshot != null || !curUrl.isEmpty()) return;
+        pendingRestore = journal.loadAsync();
+    }
+
+    /**
+     * 取后台读取的结果，通常在第一次 start 前已经读完，不会阻塞
+     */
+    private void awaitRestore() {
+        if (pendingRestore == null) return;
+        try {
+            resumeSnapshot = pendingRestore.get();
+        } catch (ExecutionException | InterruptedException e) {
+            PlayerTrace.w(TAG, "restore: ", e);
+        }
+        pendingRestore = null;
+    }
+
+    /**
+     * @return 可恢复的播放状态，没有时返回 null
+     */
+    Map<String, Object> getResumeState() {
+        awaitRestore();
+        return resumeSnapshot == null ? null : resumeSnapshot.toMap();
+    }
+
+    /**
+     * 播放质量统计
+     *
+     * @return 起播耗时、缓冲、拖动耗时和错误码
+     */
+    Map<String, Object> getMetrics() {
+        Map<String, Object> map = metrics.toMap();
+        map.put("positionClock", clock.toMap());
+        map.put("journal", journal.toMap());
+        map.put("http", HttpClient.getInstance(context).toMap());
+        map.put("loudness", loudness.toMap());
+        map.put("silence", silenceSkipper.toMap());
+        map.put("format", formatSniffer.toMap());
+        map.put("assetDescriptors", assetDescriptors.toMap());
+        map.put("locks", locks.toMap());
+        Map<String, Object> idle = new HashMap<>();
+        idle.put("timeoutMs", idleTimeoutMs);
+        idle.put("reaped", reaped != null);
+        idle.put("reaps", reapCount);
+        idle.put("trims", trimCount);
+        idle.put("resumeLatencyMs", resumeLatency.toMap());
+        map.put("idle", idle);
+        if (mediaInfo.isVideo) {
+            Map<String, Object> video = new HashMap<>();
+            video.put("texture", videoSurface != null);
+            if (uiHolder.player != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                PersistableBundle playerMetrics = uiHolder.player.getMetrics();
+                video.put("frames", playerMetrics.getLong(MediaPlayer.MetricsConstants.FRAMES, -1));
+                video.put("droppedFrames", playerMetrics.getLong(MediaPlayer.MetricsConstants.FRAMES_DROPPED, -1));
+            }
+            map.put("video", video);
+        }
+        if (seekIndex != null) {
+            Map<String, Object> index = seekIndex.toMap();
+            index.put("indexedSeeks", indexedSeekCount);
+            map.put("seekIndex", index);
+        }
+        if (uiHolder.streamingSource != null) {
+            map.put("streaming", uiHolder.streamingSource.toMap());
+        }
+        if (uiHolder.adaptive != null) {
+            map.put("adaptive", uiHolder.adaptive.toMap());
+        }
+        return map;
+    }
+
     /**
      * 停止资源
      */
     public void stop() {
+        releasePlayer();
+        dispatchStop();
+        metrics.onStop();
+        clock.reset();
+
+        curUrl = "";
+        pendingStartPosition = 0;
+        startAfterSeek = false;
+        seekIndex = null;
+        reaped = null;
+    }
+
+    /**
+     * 释放播放器和相关资源，保留当前曲目信息
+     */
+    private void releasePlayer() {
+        releaseLoudnessEnhancer();
+        silenceSkipper.stop();
+        refress_time_handler.removeCallbacks(silenceCheck);
+        refress_time_handler.removeCallbacks(idleReaper);
         if (uiHolder.player != null) {
             uiHolder.player.release();
             uiHolder.player = null;
         }
-        onStatusCallbackNext(CallBackState.stop);
+        if (uiHolder.adaptive != null) {
+            uiHolder.adaptive.release();
+            uiHolder.adaptive = null;
+        }
+        if (uiHolder.streamingSource != null) {
+            uiHolder.streamingSource.close();
+            uiHolder.streamingSource = null;
+        }
         refress_time_handler.removeCallbacks(refress_time_Thread);
-
-        curUrl = "";
+        holdsNetworkLock = false;
+        locks.onStopped();
         isPrepare = false;
+        positionBase = 0;
+        reseekTarget = -1;
+        endPrepareTrace();
+        endSeekTrace();
     }
 
+    /**
+     * 开始新的异步区间前先结束被取代的那个，每个区间都有自己的 cookie
+     */
+    private void beginPrepareTrace() {
+        endPrepareTrace();
+        prepareTraceCookie = PlayerTrace.beginAsyncSection(PlayerTrace.SECTION_PREPARE);
+    }
+
+    private void endPrepareTrace() {
+        if (prepareTraceCookie == 0) return;
+        PlayerTrace.endAsyncSection(PlayerTrace.SECTION_PREPARE, prepareTraceCookie);
+        prepareTraceCookie = 0;
+    }
+
+    private void beginSeekTrace() {
+        endSeekTrace();
+        seekTraceCookie = PlayerTrace.beginAsyncSection(PlayerTrace.SECTION_SEEK);
+    }
+
+    private void endSeekTrace() {
+        if (seekTraceCookie == 0) return;
+        PlayerTrace.endAsyncSection(PlayerTrace.SECTION_SEEK, seekTraceCookie);
+        seekTraceCookie = 0;
+    }
+
+    /**
+     * 设置暂停多久后释放播放器
+     *
+     * @param timeoutMs 0 表示不释放
+     */
+    void setIdleTimeout(long timeoutMs) {
+        idleTimeoutMs = Math.max(0, timeoutMs);
+        if (isPrepare && !isPlaying()) scheduleIdleReap();
+    }
+
+    private final Runnable idleReaper = this::reap;
+
+    private void scheduleIdleReap() {
+        refress_time_handler.removeCallbacks(idleReaper);
+        if (idleTimeoutMs > 0) refress_time_handler.postDelayed(idleReaper, idleTimeoutMs);
+    }
+
+    /**
+     * 暂停时释放解码器、缓冲区和通知栏封面，只保留 url 和位置，播放时重新准备
+     */
+    private void reap() {
+        if (!isPrepare || isPlaying() || reaped != null) return;
+        ResumeDescriptor descriptor = new ResumeDescriptor(mediaInfo, position(), duration());
+        journal.recordPosition(descriptor.position, clock.speed(), true);
+        releasePlayer();
+        clock.reset();
+        // 恢复的耗时记在 resumeLatency，不算作起播
+        metrics.onStop();
+        reaped = descriptor;
+        reapCount++;
+        if (service != null) service.updateCover(null);
+    }
+
+    private void resumeReaped() {
+        ResumeDescriptor descriptor = reaped;
+        reaped = null;
+        resumeRequestedAt = SystemClock.elapsedRealtime();
+        mediaInfo = descriptor.info;
+        mediaInfo.isAuto = true;
+        pendingStartPosition = descriptor.position;
+        startAfterSeek = false;
+        try {
+            preparePlayer();
+        } catch (RuntimeException e) {
+            resumeRequestedAt = -1;
+            dispatchError(e.toString());
+        }
+    }
+
+    /**
+     * 内存紧张时清空缓存，暂停中的播放器直接释放
+     */
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimCount++;
+            assetDescriptors.clear();
+            formatSniffer.clear();
+            // UI_HIDDEN 只是切到后台，不必释放
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                refress_time_handler.post(MediaPlayerHelper.this::reap);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration configuration) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
     /**
      * 释放资源
      */
     public void release() {
+        if (isPrepare) {
+            journal.recordPosition(position(), clock.speed(), true);
+        }
+        journal.flush();
         stop();
+        assetDescriptors.clear();
         MediaPlayerService.unBind(context);
-
-        if (wifiLock != null && wifiLock.isHeld())
-            wifiLock.release();
     }
 
 //    /**
@@ -470,7 +1062,7 @@ public class MediaPlayerHelper {
      */
     public MediaPlayerHelper setSurfaceView(SurfaceView surfaceView) {
         if (surfaceView == null) {
-            onStatusCallbackNext(CallBackState.SURFACE_NULL, uiHolder.player);
+            dispatchSurfaceNull();
         } else {
             uiHolder.surfaceView = surfaceView;
             uiHolder.surfaceHolder = uiHolder.surfaceView.getHolder();
@@ -478,34 +1070,53 @@ public class MediaPlayerHelper {
                 @Override
                 public void surfaceCreated(SurfaceHolder holder) {
                     isHolderCreate = true;
-                    if (uiHolder.player != null && holder != null) {
-                        //解决部分机型/电视播放的时候有声音没画面的情况
-                        if (uiHolder.surfaceView != null) {
-                            uiHolder.surfaceView.post(() -> {
-                                holder.setFixedSize(uiHolder.surfaceView.getWidth(), uiHolder.surfaceView.getHeight());
-                                uiHolder.player.setDisplay(holder);
-                            });
-                        }
-                    }
-                    onStatusCallbackNext(CallBackState.SURFACE_CREATE, holder);
-                    onHolderCreateNext();
+                    if (uiHolder.player != null) bindVideoOutput();
+                    dispatchSurfaceCreated();
                 }
 
                 @Override
                 public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-                    onStatusCallbackNext(CallBackState.SURFACE_CHANGE, format, width, height);
+                    dispatchSurfaceChanged(format, width, height);
                 }
 
                 @Override
                 public void surfaceDestroyed(SurfaceHolder holder) {
                     isHolderCreate = false;
-                    onStatusCallbackNext(CallBackState.SURFACE_DESTROY, holder);
+                    if (uiHolder.player != null && videoSurface == null) uiHolder.player.setDisplay(null);
+                    dispatchSurfaceDestroyed();
                 }
             });
         }
         return instance;
     }
 
+    /**
+     * 设置视频输出到 Flutter 纹理，立即作用于当前播放器
+     *
+     * @param surface 由 TextureRegistry 的 SurfaceTexture 创建，null 表示解除
+     */
+    void setVideoSurface(Surface surface) {
+        videoSurface = surface;
+        if (uiHolder.adaptive != null) {
+            uiHolder.adaptive.setVideoSurface(surface);
+        } else if (uiHolder.player != null) {
+            bindVideoOutput();
+        }
+    }
+
+    /**
+     * 解码后的画面直接进入纹理或 SurfaceView，没有可用的输出时只播放声音
+     */
+    private void bindVideoOutput() {
+        if (videoSurface != null) {
+            uiHolder.player.setSurface(videoSurface);
+        } else if (isHolderCreate && uiHolder.surfaceHolder != null) {
+            uiHolder.player.setDisplay(uiHolder.surfaceHolder);
+        } else {
+            uiHolder.player.setSurface(null);
+        }
+    }
+
     /**
      * 构造函数
      */
@@ -515,7 +1126,14 @@ public class MediaPlayerHelper {
         }
         this.context = context;
         this.uiHolder = new Holder();
+        this.journal = new PlaybackJournal(context);
+        this.loudness = new LoudnessNormalizer(context);
+        this.formatSniffer = new FormatSniffer(context);
+        this.assetDescriptors = new AssetDescriptorCache(context.getAssets());
+        this.locks = new PlaybackLocks(context);
+        this.silenceSkipper = new SilenceSkipper(context, () -> refress_time_handler.post(this::scheduleSilenceCheck));
         MediaPlayerService.registerReceiver(context);
+        context.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
 //        uiHolder.player = new MediaPlayer();
 //        keepAlive();
 //        initPlayerListener();
@@ -525,47 +1143,182 @@ public class MediaPlayerHelper {
      * 时间监听
      */
     private void initPlayerListener() {
-        uiHolder.player.setOnCompletionListener(mp -> {
-            onStatusCallbackNext(CallBackState.progress, 100);
-            onStatusCallbackNext(CallBackState.ended, mp);
-        });
+        uiHolder.player.setOnCompletionListener(mp -> onPlayerCompletion());
         uiHolder.player.setOnErrorListener((mp, what, extra) -> {
+            metrics.onError(what, extra);
             String errorString = "what:" + what + " extra:" + extra;
-            onStatusCallbackNext(CallBackState.error, errorString);
+            dispatchError(errorString);
             return false;
         });
         uiHolder.player.setOnInfoListener((mp, what, extra) -> {
-            onStatusCallbackNext(CallBackState.INFO, mp, what, extra);
+            if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+                onBufferingStart();
+            } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+                onBufferingEnd();
+            } else if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START) {
+                metrics.onFirstVideoFrame();
+            }
+            dispatchInfo(what, extra);
             return false;
         });
         uiHolder.player.setOnPreparedListener(mp -> {
+            if (reseekTarget >= 0) {
+                onReseekPrepared();
+                return;
+            }
             try {
-                if (uiHolder.surfaceView != null) {
-                    //解决部分机型/电视播放的时候有声音没画面的情况
-                    uiHolder.surfaceView.post(() -> {
-                        uiHolder.surfaceHolder.setFixedSize(uiHolder.surfaceView.getWidth(), uiHolder.surfaceView.getHeight());
-                        //设置预览区域
-                        uiHolder.player.setDisplay(uiHolder.surfaceHolder);
-                    });
-                }
-                isPrepare = true;
-                if (mediaInfo.isAuto) {
-                    uiHolder.player.start();
-                }
-                refress_time_handler.postDelayed(refress_time_Thread, delaySecondTime);
+                onPlayerPrepared();
             } catch (Exception e) {
-                onStatusCallbackNext(CallBackState.error, e.toString());
-            }
-            String holderMsg = "holder -";
-            if (uiHolder.surfaceHolder != null) {
-                holderMsg = holderMsg + " height：" + uiHolder.surfaceHolder.getSurfaceFrame().height();
-                holderMsg = holderMsg + " width：" + uiHolder.surfaceHolder.getSurfaceFrame().width();
+                dispatchError(e.toString());
             }
-            onStatusCallbackNext(CallBackState.ready, holderMsg);
+            dispatchReady(duration());
         });
-        uiHolder.player.setOnSeekCompleteListener(mp -> onStatusCallbackNext(CallBackState.seekComplete, mp));
-        uiHolder.player.setOnVideoSizeChangedListener((mp, width, height) -> onStatusCallbackNext(CallBackState.VIDEO_SIZE_CHANGE, width, height));
-        uiHolder.player.setOnBufferingUpdateListener((mp, percent) -> onStatusCallbackNext(CallBackState.buffering, mp, percent));
+        uiHolder.player.setOnSeekCompleteListener(mp -> onPlayerSeekComplete());
+        uiHolder.player.setOnVideoSizeChangedListener((mp, width, height) -> dispatchVideoSizeChanged(width, height));
+        uiHolder.player.setOnBufferingUpdateListener((mp, percent) -> onBufferedPercent(percent));
+    }
+
+    private void onPlayerPrepared() {
+        isPrepare = true;
+        clock.setDuration(playerDuration());
+        clock.anchor(playerPosition(), false);
+        if (uiHolder.streamingSource != null) {
+            uiHolder.streamingSource.onPrepared(clock.duration());
+        }
+        endPrepareTrace();
+        metrics.onPrepared();
+        if (skipSilence && uiHolder.player != null) {
+            silenceSkipper.start(mediaInfo.url, mediaInfo.isAsset, Math.max(pendingStartPosition, 0));
+        }
+        if (pendingStartPosition > 0) {
+            startAfterSeek = mediaInfo.isAuto;
+            seekTo(pendingStartPosition);
+            pendingStartPosition = 0;
+        } else if (mediaInfo.isAuto) {
+            startPlayer();
+        }
+        refress_time_handler.postDelayed(refress_time_Thread, delaySecondTime);
+    }
+
+    private void onPlayerSeekComplete() {
+        endSeekTrace();
+        metrics.onSeekComplete();
+        clock.anchor(playerPosition(), isPlaying());
+        journal.recordPosition(clock.position(), clock.speed(), false);
+        if (startAfterSeek) {
+            startAfterSeek = false;
+            startPlayer();
+        }
+        dispatchSeekComplete(clock.position());
+        scheduleSilenceCheck();
+    }
+
+    private void onPlayerCompletion() {
+        int duration = duration();
+        clock.anchor(duration, false);
+        // 播放完毕，下次从头开始
+        journal.recordPosition(0, clock.speed(), true);
+        locks.onPaused();
+        dispatchProgress(duration, duration);
+        dispatchEnded();
+    }
+
+    private void onBufferingStart() {
+        if (!hasPlayer()) return;
+        metrics.onBufferingStart();
+        // 缓冲时位置不再前进
+        clock.anchor(playerPosition(), false);
+    }
+
+    private void onBufferingEnd() {
+        if (!hasPlayer()) return;
+        metrics.onBufferingEnd();
+        clock.anchor(playerPosition(), isPlaying());
+        scheduleSilenceCheck();
+    }
+
+    /**
+     * ExoPlayer 的回调都在主线程
+     */
+    private final AdaptiveStreamPlayer.Listener adaptiveListener = new AdaptiveStreamPlayer.Listener() {
+        @Override
+        public void onPrepared() {
+            try {
+                onPlayerPrepared();
+            } catch (Exception e) {
+                dispatchError(e.toString());
+            }
+            dispatchReady(duration());
+        }
+
+        @Override
+        public void onBufferingChanged(boolean buffering) {
+            if (buffering) {
+                onBufferingStart();
+            } else {
+                onBufferingEnd();
+            }
+        }
+
+        @Override
+        public void onSeekComplete() {
+            onPlayerSeekComplete();
+        }
+
+        @Override
+        public void onCompletion() {
+            onPlayerCompletion();
+        }
+
+        @Override
+        public void onError(int code, String message) {
+            metrics.onError(code, 0);
+            dispatchError(message);
+        }
+
+        @Override
+        public void onBitrateChanged(int bitrate, long bandwidthEstimate) {
+            dispatchBitrateChanged(bitrate, bandwidthEstimate);
+        }
+
+        @Override
+        public void onFirstFrame() {
+            metrics.onFirstVideoFrame();
+        }
+    };
+
+    /**
+     * 网络流的卡顿和缓冲进度，回调线程不是主线程
+     */
+    private final StreamingDataSource.Listener streamingListener = new StreamingDataSource.Listener() {
+        @Override
+        public void onStallChanged(boolean stalled) {
+            refress_time_handler.post(stalled ? MediaPlayerHelper.this::onBufferingStart : MediaPlayerHelper.this::onBufferingEnd);
+        }
+
+        @Override
+        public void onBufferedPercent(int percent) {
+            refress_time_handler.post(() -> onBufferedPercent(percent));
+        }
+    };
+
+    /**
+     * 网络地址且设置了缓冲策略时通过 {@link StreamingDataSource} 加载，否则交给 MediaPlayer
+     *
+     * @param path 参数
+     */
+    private void beginPlaySource(String path) {
+        if (mediaInfo.bufferingPolicy != null && isNetworkUrl(path)) {
+            uiHolder.streamingSource = new StreamingDataSource(HttpClient.getInstance(context), path,
+                    mediaInfo.bufferingPolicy, pendingStartPosition > 0, streamingListener);
+            beginPlayDataSource(uiHolder.streamingSource);
+        } else {
+            beginPlayUrl(path);
+        }
+    }
+
+    static boolean isNetworkUrl(String path) {
+        return path.startsWith("http://") || path.startsWith("https://");
     }
 
     /**
@@ -574,20 +1327,20 @@ public class MediaPlayerHelper {
      * @param path 参数
      */
     private void beginPlayUrl(String path) {
-        /*
-         * 其实仔细观察优酷app切换播放网络视频时的确像是这样做的：先暂停当前视频，
-         * 让mediaplayer与先前的surfaceHolder脱离“绑定”,当mediaplayer再次准备好要start时，
-         * 再次让mediaplayer与surfaceHolder“绑定”在一起，显示下一个要播放的视频。
-         * 注：MediaPlayer.setDisplay()的作用： 设置SurfaceHolder用于显示的视频部分媒体。
-         */
+        // 重置后立即绑定视频输出，不必等 Surface 创建或准备完成
+        PlayerTrace.beginSection(PlayerTrace.SECTION_PREPARE);
         try {
             //Uri url = Uri.fromFile(new File(path));
-            uiHolder.player.setDisplay(null);
             uiHolder.player.reset();
+            bindVideoOutput();
             uiHolder.player.setDataSource(path);
+            beginPrepareTrace();
             uiHolder.player.prepareAsync();
         } catch (Exception e) {
-            onStatusCallbackNext(CallBackState.error, e.toString());
+            endPrepareTrace();
+            dispatchError(e.toString());
+        } finally {
+            PlayerTrace.endSection();
         }
     }
 
@@ -597,21 +1350,21 @@ public class MediaPlayerHelper {
      * @param assetName 参数
      */
     private void beginPlayAsset(String assetName) {
-        /*
-         * 其实仔细观察优酷app切换播放网络视频时的确像是这样做的：先暂停当前视频，
-         * 让mediaplayer与先前的surfaceHolder脱离“绑定”,当mediaplayer再次准备好要start时，
-         * 再次让mediaplayer与surfaceHolder“绑定”在一起，显示下一个要播放的视频。
-         * 注：MediaPlayer.setDisplay()的作用： 设置SurfaceHolder用于显示的视频部分媒体。
-         */
-        AssetManager assetMg = context.getAssets();
+        // 重置后立即绑定视频输出，不必等 Surface 创建或准备完成
+        PlayerTrace.beginSection(PlayerTrace.SECTION_PREPARE);
         try {
-            uiHolder.assetDescriptor = assetMg.openFd(assetName);
-            uiHolder.player.setDisplay(null);
+            // 描述符由缓存持有并在淘汰时关闭，MediaPlayer 内部会复制 fd
+            AssetFileDescriptor descriptor = assetDescriptors.open(assetName);
             uiHolder.player.reset();
-            uiHolder.player.setDataSource(uiHolder.assetDescriptor.getFileDescriptor(), uiHolder.assetDescriptor.getStartOffset(), uiHolder.assetDescriptor.getLength());
+            bindVideoOutput();
+            uiHolder.player.setDataSource(descriptor.getFileDescriptor(), descriptor.getStartOffset(), descriptor.getLength());
+            beginPrepareTrace();
             uiHolder.player.prepareAsync();
         } catch (Exception e) {
-            onStatusCallbackNext(CallBackState.error, e.toString());
+            endPrepareTrace();
+            dispatchError(e.toString());
+        } finally {
+            PlayerTrace.endSection();
         }
     }
 
@@ -622,52 +1375,85 @@ public class MediaPlayerHelper {
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
     private void beginPlayDataSource(MediaDataSource mediaDataSource) {
-        /*
-         * 其实仔细观察优酷app切换播放网络视频时的确像是这样做的：先暂停当前视频，
-         * 让mediaplayer与先前的surfaceHolder脱离“绑定”,当mediaplayer再次准备好要start时，
-         * 再次让mediaplayer与surfaceHolder“绑定”在一起，显示下一个要播放的视频。
-         * 注：MediaPlayer.setDisplay()的作用： 设置SurfaceHolder用于显示的视频部分媒体。
-         */
+        // 重置后立即绑定视频输出，不必等 Surface 创建或准备完成
+        PlayerTrace.beginSection(PlayerTrace.SECTION_PREPARE);
         try {
-            uiHolder.player.setDisplay(null);
             uiHolder.player.reset();
+            bindVideoOutput();
             uiHolder.player.setDataSource(mediaDataSource);
+            beginPrepareTrace();
             uiHolder.player.prepareAsync();
         } catch (Exception e) {
-            onStatusCallbackNext(CallBackState.error, e.toString());
+            endPrepareTrace();
+            dispatchError(e.toString());
+        } finally {
+            PlayerTrace.endSection();
         }
     }
 
     /**
-     * 检查是否可以播放
+     * 检查是否可以播放：本地文件和 asset 在创建播放器之前同步读取文件头；
+     * 网络地址没有缓存结果时并行发 Range 请求，在准备完成前识别为不支持就停止。
+     * 只拒绝确定不是媒体的内容，识别不出的仍交给 MediaPlayer
      *
-     * @param path 参数
+     * @param info 参数
      * @return 结果
      */
-    private boolean checkAvalable(String path) {
-        boolean surport = false;
-        for (String s : ext) {
-            if (path.endsWith(s)) {
-                surport = true;
-            }
-        }
-        if (!surport) {
-            onStatusCallbackNext(CallBackState.FORMAT_NOT_SUPPORT, uiHolder.player);
+    private boolean checkAvalable(MediaInfo info) {
+        String path = info.url;
+        FormatSniffer.Format format = formatSniffer.sniffNow(path, info.isAsset);
+        if (format != null && format.isRejected()) {
+            dispatchFormatNotSupported(path);
             return false;
         }
+        if (format == null && !info.isAsset && isNetworkUrl(path)) {
+            formatSniffer.sniffAsync(path, (url, sniffed) -> {
+                if (sniffed != null && sniffed.isRejected() && url.equals(curUrl) && !isPrepare) {
+                    stop();
+                    dispatchFormatNotSupported(url);
+                }
+            });
+        }
         return true;
     }
 
     private void keepAlive() {
         // 设置设备进入锁状态模式-可在后台播放或者缓冲音乐-CPU一直工作
-        uiHolder.player.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        // 不用 MediaPlayer.setWakeMode，由 PlaybackLocks 统一管理，长时间暂停后释放
+        // ExoPlayer 在创建时已经设置了 WAKE_MODE_NETWORK
+        locks.onActive();
         // 当播放的时候一直让屏幕变亮
 //        player.setScreenOnWhilePlaying(true);
 
-        // 如果你使用wifi播放流媒体，你还需要持有wifi锁
-        wifiLock = ((WifiManager) Objects.requireNonNull(context.getApplicationContext().getSystemService(Context.WIFI_SERVICE)))
-                .createWifiLock(WifiManager.WIFI_MODE_FULL, "wifilock");
-        wifiLock.acquire();
+        // 如果你使用wifi播放流媒体，你还需要持有wifi锁，加载完毕后释放
+        if (!mediaInfo.isAsset && !mediaInfo.isAdaptive && isNetworkUrl(mediaInfo.url) && !holdsNetworkLock) {
+            holdsNetworkLock = true;
+            locks.acquireNetwork();
+        }
+    }
+
+    private void releaseNetworkLock() {
+        if (!holdsNetworkLock) return;
+        holdsNetworkLock = false;
+        locks.releaseNetwork();
+    }
+
+    /**
+     * 下载进度，全部下载完毕后不再需要 WiFi 锁
+     */
+    private void onBufferedPercent(int percent) {
+        if (percent >= 100) releaseNetworkLock();
+        dispatchBuffering(percent);
+    }
+
+    /**
+     * ExoPlayer 没有缓冲进度回调，由进度定时器轮询后按 MediaPlayer 的方式分发
+     */
+    private void pollAdaptiveBuffered() {
+        int percent = uiHolder.adaptive.bufferedPercent();
+        if (percent == adaptiveBufferedPercent) return;
+        adaptiveBufferedPercent = percent;
+        onBufferedPercent(percent);
     }
 
     /**
@@ -678,7 +1464,7 @@ public class MediaPlayerHelper {
         public void handleMessage(Message msg) {
             switch (msg.what){
                 case ERROR:
-                    onStatusCallbackNext(CallBackState.error, msg.obj);
+                    dispatchError(String.valueOf(msg.obj));
                     break;
             }
         }
@@ -687,14 +1473,17 @@ public class MediaPlayerHelper {
         public void run() {
             refress_time_handler.removeCallbacks(refress_time_Thread);
             try {
-                if (uiHolder.player != null && uiHolder.player.isPlaying()) {
-                    int duraction = uiHolder.player.getDuration();
+                if (hasPlayer() && clock.isRunning()) {
+                    int duraction = duration();
                     if (duraction > 0) {
-                        onStatusCallbackNext(CallBackState.progress, 100 * uiHolder.player.getCurrentPosition() / duraction);
+                        int position = position();
+                        journal.recordPosition(position, clock.speed(), false);
+                        dispatchProgress(position, duraction);
                     }
                 }
+                if (uiHolder.adaptive != null) pollAdaptiveBuffered();
             } catch (IllegalStateException e) {
-                onStatusCallbackNext(CallBackState.error, e.toString());
+                dispatchError(e.toString());
             }
             refress_time_handler.postDelayed(refress_time_Thread, delaySecondTime);
         }
@@ -702,16 +1491,9 @@ public class MediaPlayerHelper {
 
     // 网络获取图片
     private Bitmap getBitmapFromUrl(String urlString) {
-        Bitmap bitmap;
-        InputStream is;
         try {
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            is = new BufferedInputStream(connection.getInputStream());
-            bitmap = BitmapFactory.decodeStream(is);
-            connection.disconnect();
-            is.close();
-            return bitmap;
+            byte[] data = HttpClient.getInstance(context).fetch(urlString);
+            return BitmapFactory.decodeByteArray(data, 0, data.length);
         } catch (IOException e) {
             Message msg = new Message();
             msg.what = ERROR;
@@ -725,53 +1507,242 @@ public class MediaPlayerHelper {
 
     /* ***************************** Holder封装UI ***************************** */
 
+    /**
+     * 被释放的曲目，恢复时按 url 和位置重新准备
+     */
+    private static final class ResumeDescriptor {
+        final MediaInfo info;
+        int position;
+        final int duration;
+
+        ResumeDescriptor(MediaInfo info, int position, int duration) {
+            this.info = info;
+            this.position = position;
+            this.duration = duration;
+        }
+    }
+
     private static final class Holder {
         private SurfaceHolder surfaceHolder;
         private MediaPlayer player;
         private SurfaceView surfaceView;
-        private AssetFileDescriptor assetDescriptor;
+        private StreamingDataSource streamingSource;
+        private AdaptiveStreamPlayer adaptive;
+        private LoudnessEnhancer loudnessEnhancer;
+    }
+
+    /* ***************************** PlayerEvent ***************************** */
+
+    private final PlayerEventListeners playerEventListeners = new PlayerEventListeners();
+
+    /**
+     * 注册播放器事件监听，可以注册多个
+     */
+    public MediaPlayerHelper addPlayerEventListener(PlayerEventListener listener) {
+        playerEventListeners.add(listener);
+        return instance;
+    }
+
+    public MediaPlayerHelper removePlayerEventListener(PlayerEventListener listener) {
+        playerEventListeners.remove(listener);
+        return instance;
+    }
+
+    private void dispatchReady(int duration) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onReady(duration);
+    }
+
+    private void dispatchSeekComplete(int position) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onSeekComplete(position);
+    }
+
+    private void dispatchBuffering(int percent) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onBuffering(percent);
+    }
+
+    private void dispatchPlayStatus(boolean playing) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onPlayStatus(playing);
+    }
+
+    private void dispatchProgress(int position, int duration) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onProgress(position, duration);
+    }
+
+    private void dispatchError(String message) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onError(message);
+    }
+
+    private void dispatchNext() {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onNext();
+    }
+
+    private void dispatchPrevious() {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onPrevious();
+    }
+
+    private void dispatchEnded() {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onEnded();
+    }
+
+    private void dispatchStop() {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onStop();
+    }
+
+    private void dispatchFormatNotSupported(String url) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onFormatNotSupported(url);
+    }
+
+    private void dispatchInfo(int what, int extra) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onInfo(what, extra);
+    }
+
+    private void dispatchVideoSizeChanged(int width, int height) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onVideoSizeChanged(width, height);
+    }
+
+    private void dispatchBitrateChanged(int bitrate, long bandwidthEstimate) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onBitrateChanged(bitrate, bandwidthEstimate);
+    }
+
+    private void dispatchSurfaceCreated() {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onSurfaceCreated();
+    }
+
+    private void dispatchSurfaceChanged(int format, int width, int height) {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onSurfaceChanged(format, width, height);
+    }
+
+    private void dispatchSurfaceDestroyed() {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onSurfaceDestroyed();
+    }
+
+    private void dispatchSurfaceNull() {
+        for (PlayerEventListener l : playerEventListeners.get()) l.onSurfaceNull();
     }
 
     /* ***************************** StatusCallback ***************************** */
 
-    private OnStatusCallbackListener onStatusCallbackListener;
+    private StatusCallbackAdapter statusCallbackAdapter;
 
     // 接口类 -> OnStatusCallbackListener
+    // 旧的回调方式，参数会被装箱到 Object[]，新代码请使用 PlayerEventListener
     public interface OnStatusCallbackListener {
         void onStatusonStatusCallbackNext(CallBackState status, Object... args);
     }
 
     // 对外暴露接口 -> setOnStatusCallbackListener
     public MediaPlayerHelper setOnStatusCallbackListener(OnStatusCallbackListener onStatusCallbackListener) {
-        this.onStatusCallbackListener = onStatusCallbackListener;
+        if (statusCallbackAdapter != null) {
+            removePlayerEventListener(statusCallbackAdapter);
+            statusCallbackAdapter = null;
+        }
+        if (onStatusCallbackListener != null) {
+            statusCallbackAdapter = new StatusCallbackAdapter(onStatusCallbackListener);
+            addPlayerEventListener(statusCallbackAdapter);
+        }
         return instance;
     }
 
-    // 内部使用方法 -> StatusCallbackNext
-    private void onStatusCallbackNext(CallBackState status, Object... args) {
-        if (onStatusCallbackListener != null) {
-            onStatusCallbackListener.onStatusonStatusCallbackNext(status, args);
+    /**
+     * 把 PlayerEventListener 事件转换成旧的 CallBackState + Object... 形式
+     */
+    private final class StatusCallbackAdapter implements PlayerEventListener {
+        private final OnStatusCallbackListener listener;
+
+        StatusCallbackAdapter(OnStatusCallbackListener listener) {
+            this.listener = listener;
         }
-    }
 
-    /* ***************************** HolderCreate(内部使用) ***************************** */
+        @Override
+        public void onReady(int duration) {
+            String holderMsg = "holder -";
+            if (uiHolder.surfaceHolder != null) {
+                holderMsg = holderMsg + " height：" + uiHolder.surfaceHolder.getSurfaceFrame().height();
+                holderMsg = holderMsg + " width：" + uiHolder.surfaceHolder.getSurfaceFrame().width();
+            }
+            listener.onStatusonStatusCallbackNext(CallBackState.ready, holderMsg);
+        }
 
-    private OnHolderCreateListener onHolderCreateListener;
+        @Override
+        public void onSeekComplete(int position) {
+            listener.onStatusonStatusCallbackNext(CallBackState.seekComplete, uiHolder.player);
+        }
 
-    // 接口类 -> OnHolderCreateListener
-    private interface OnHolderCreateListener {
-        void onHolderCreate();
-    }
+        @Override
+        public void onBuffering(int percent) {
+            listener.onStatusonStatusCallbackNext(CallBackState.buffering, uiHolder.player, percent);
+        }
 
-    // 内部露接口 -> setOnHolderCreateListener
-    private void setOnHolderCreateListener(OnHolderCreateListener onHolderCreateListener) {
-        this.onHolderCreateListener = onHolderCreateListener;
-    }
+        @Override
+        public void onPlayStatus(boolean playing) {
+            listener.onStatusonStatusCallbackNext(CallBackState.playOrPause, playing);
+        }
+
+        @Override
+        public void onProgress(int position, int duration) {
+            if (duration <= 0) return;
+            listener.onStatusonStatusCallbackNext(CallBackState.progress, (int) (100L * position / duration));
+        }
 
-    // 内部使用方法 -> HolderCreateNext
-    private void onHolderCreateNext() {
-        if (onHolderCreateListener != null) {
-            onHolderCreateListener.onHolderCreate();
+        @Override
+        public void onError(String message) {
+            listener.onStatusonStatusCallbackNext(CallBackState.error, message);
+        }
+
+        @Override
+        public void onNext() {
+            listener.onStatusonStatusCallbackNext(CallBackState.next);
+        }
+
+        @Override
+        public void onPrevious() {
+            listener.onStatusonStatusCallbackNext(CallBackState.previous);
+        }
+
+        @Override
+        public void onEnded() {
+            listener.onStatusonStatusCallbackNext(CallBackState.ended, uiHolder.player);
+        }
+
+        @Override
+        public void onStop() {
+            listener.onStatusonStatusCallbackNext(CallBackState.stop);
+        }
+
+        @Override
+        public void onFormatNotSupported(String url) {
+            listener.onStatusonStatusCallbackNext(CallBackState.FORMAT_NOT_SUPPORT, url);
+        }
+
+        @Override
+        public void onInfo(int what, int extra) {
+            listener.onStatusonStatusCallbackNext(CallBackState.INFO, uiHolder.player, what, extra);
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {
+            listener.onStatusonStatusCallbackNext(CallBackState.VIDEO_SIZE_CHANGE, width, height);
+        }
+
+        @Override
+        public void onSurfaceCreated() {
+            listener.onStatusonStatusCallbackNext(CallBackState.SURFACE_CREATE, uiHolder.surfaceHolder);
+        }
+
+        @Override
+        public void onSurfaceChanged(int format, int width, int height) {
+            listener.onStatusonStatusCallbackNext(CallBackState.SURFACE_CHANGE, format, width, height);
+        }
+
+        @Override
+        public void onSurfaceDestroyed() {
+            listener.onStatusonStatusCallbackNext(CallBackState.SURFACE_DESTROY, uiHolder.surfaceHolder);
+        }
+
+        @Override
+        public void onSurfaceNull() {
+            listener.onStatusonStatusCallbackNext(CallBackState.SURFACE_NULL, uiHolder.player);
         }
     }
+
 }
@@ -0,0 +1,291 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量读取本地媒体的时长、标签和封面，不需要 prepare 播放器
+ * <p>
+ * 在低优先级的固定大小线程池中执行，结果按批次在主线程回调。命中 {@link MetadataIndex} 的文件直接返回；
+ * 内嵌封面写入缓存目录，结果中只返回文件路径。
+ */
+final class MetadataExtractor {
+    private static final String TAG = MetadataExtractor.class.getSimpleName();
+    private static final String ARTWORK_DIR = "audio_manager/artwork";
+    private static final int BATCH_SIZE = 64;
+    // 批次未满时最长等待时间
+    private static final long BATCH_INTERVAL_MS = 250;
+
+    interface Callback {
+        /**
+         * 主线程调用，done 为 true 时是该请求的最后一批
+         */
+        void onBatch(int requestId, List<Map<String, Object>> items, boolean done);
+    }
+
+    private final MetadataIndex index;
+    private final File artworkDir;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private final Map<Integer, Request> requests = new HashMap<>();
+
+    // 吞吐统计
+    private final AtomicLong extractedCount = new AtomicLong();
+    private final AtomicLong indexHitCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong extractNanos = new AtomicLong();
+
+    private final class Request {
+        final int id;
+        final int total;
+        final boolean artwork;
+        final Callback callback;
+        final ConcurrentLinkedQueue<Map<String, Object>> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger completed = new AtomicInteger();
+        volatile boolean cancelled = false;
+        volatile long lastFlushAt = SystemClock.elapsedRealtime();
+
+        Request(int id, int total, boolean artwork, Callback callback) {
+            this.id = id;
+            this.total = total;
+            this.artwork = artwork;
+            this.callback = callback;
+        }
+    }
+
+    MetadataExtractor(Context context) {
+        this.index = new MetadataIndex(context);
+        this.artworkDir = new File(context.getCacheDir(), ARTWORK_DIR);
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "audio_manager-metadata"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /**
+     * @param paths   本地文件路径
+     * @param artwork 是否提取内嵌封面
+     * @return 请求 id，用于 {@link #cancel(int)}
+     */
+    int extract(List<String> paths, boolean artwork, Callback callback) {
+        int id = nextRequestId.getAndIncrement();
+        Request request = new Request(id, paths.size(), artwork, callback);
+        if (paths.isEmpty()) {
+            mainHandler.post(() -> callback.onBatch(id, new ArrayList<>(), true));
+            return id;
+        }
+        synchronized (requests) {
+            requests.put(id, request);
+        }
+        for (String path : paths) {
+            executor.execute(() -> process(request, path));
+        }
+        return id;
+    }
+
+    /**
+     * 取消请求，尚未开始的文件不再读取，之后不会再回调
+     */
+    void cancel(int requestId) {
+        Request request;
+        synchronized (requests) {
+            request = requests.remove(requestId);
+        }
+        if (request != null) {
+            request.cancelled = true;
+            // 保存已经读取的部分
+            executor.execute(index::save);
+        }
+    }
+
+    void cancelAll() {
+        synchronized (requests) {
+            for (Request request : requests.values()) request.cancelled = true;
+            requests.clear();
+        }
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        long extracted = extractedCount.get();
+        map.put("extracted", extracted);
+        map.put("indexHits", indexHitCount.get());
+        map.put("failures", failureCount.get());
+        map.put("indexSize", index.size());
+        map.put("avgExtractMs", extracted == 0 ? 0.0 : extractNanos.get() / 1e6 / extracted);
+        return map;
+    }
+
+    private void process(Request request, String path) {
+        if (request.cancelled) return;
+        Map<String, Object> item;
+        File file = new File(path);
+        if (!file.isFile()) {
+            failureCount.incrementAndGet();
+            item = new HashMap<>();
+            item.put("path", path);
+            item.put("error", "file not found");
+        } else {
+            MetadataIndex.Entry entry = index.get(path, file.length(), file.lastModified());
+            if (entry != null && (!request.artwork || hasArtwork(entry))) {
+                indexHitCount.incrementAndGet();
+            } else {
+                entry = read(file, request.artwork);
+            }
+            item = entry.toMap();
+        }
+        request.pending.add(item);
+        int completed = request.completed.incrementAndGet();
+        boolean done = completed == request.total;
+        if (done || request.pending.size() >= BATCH_SIZE
+                || SystemClock.elapsedRealtime() - request.lastFlushAt >= BATCH_INTERVAL_MS) {
+            flush(request, done);
+        }
+    }
+
+    private MetadataIndex.Entry read(File file, boolean artwork) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        String path = file.getPath();
+        MetadataIndex.Entry entry = new MetadataIndex.Entry(path, file.length(), file.lastModified());
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            entry.durationMs = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            entry.title = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
+            entry.artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
+            entry.album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
+            entry.mimeType = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_MIMETYPE);
+            entry.bitrate = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE));
+            if (artwork) {
+                byte[] picture = retriever.getEmbeddedPicture();
+                entry.artworkPath = saveArtwork(path, picture);
+                // 写文件失败的下次再试
+                entry.artworkChecked = picture == null || entry.artworkPath != null;
+            }
+        } catch (RuntimeException e) {
+            PlayerTrace.w(TAG, "retriever failed: ", path);
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException ignored) {
+            }
+        }
+        if (entry.durationMs <= 0) {
+            entry.durationMs = extractorDuration(path);
+        }
+        if (entry.durationMs > 0) {
+            index.put(entry);
+        } else {
+            failureCount.incrementAndGet();
+        }
+        extractedCount.incrementAndGet();
+        extractNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+        return entry;
+    }
+
+    /**
+     * 部分格式 MediaMetadataRetriever 读不到时长，从音轨格式中读取
+     */
+    private static long extractorDuration(String path) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(path);
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                    return format.getLong(MediaFormat.KEY_DURATION) / 1000;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            PlayerTrace.w(TAG, "extractor failed: ", path);
+        } finally {
+            extractor.release();
+        }
+        return 0;
+    }
+
+    /**
+     * 封面已提取过且没有被清理出缓存目录
+     */
+    private static boolean hasArtwork(MetadataIndex.Entry entry) {
+        if (!entry.artworkChecked) return false;
+        return entry.artworkPath == null || new File(entry.artworkPath).exists();
+    }
+
+    private String saveArtwork(String path, byte[] picture) {
+        if (picture == null) return null;
+        if (!artworkDir.exists() && !artworkDir.mkdirs()) return null;
+        File out = new File(artworkDir, HttpClient.hashKey(path) + "_" + picture.length);
+        if (out.exists()) return out.getPath();
+        try (FileOutputStream stream = new FileOutputStream(out)) {
+            stream.write(picture);
+            return out.getPath();
+        } catch (IOException e) {
+            out.delete();
+            return null;
+        }
+    }
+
+    /**
+     * 同一请求的批次按顺序投递，最后一批一定在 done 时投递
+     */
+    private void flush(Request request, boolean done) {
+        synchronized (request) {
+            flushLocked(request, done);
+        }
+    }
+
+    private void flushLocked(Request request, boolean done) {
+        List<Map<String, Object>> batch = new ArrayList<>();
+        Map<String, Object> item;
+        while ((item = request.pending.poll()) != null) {
+            batch.add(item);
+        }
+        request.lastFlushAt = SystemClock.elapsedRealtime();
+        if (done) {
+            synchronized (requests) {
+                requests.remove(request.id);
+            }
+            index.save();
+        }
+        if (batch.isEmpty() && !done) return;
+        mainHandler.post(() -> {
+            if (!request.cancelled) request.callback.onBatch(request.id, batch, done);
+        });
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return 0;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
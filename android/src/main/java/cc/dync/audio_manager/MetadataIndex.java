@@ -0,0 +1,185 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地媒体元数据的持久化索引
+ * <p>
+ * 以路径为键，文件大小和修改时间任一变化即视为失效。首次使用时整体读入内存，
+ * {@link #save()} 先写临时文件再重命名，写到一半被杀不会破坏已有索引；多个线程的 save 依次执行，
+ * 后取的快照总是后写入，旧快照不会覆盖新快照。
+ */
+final class MetadataIndex {
+    private static final String TAG = MetadataIndex.class.getSimpleName();
+    private static final String DIR_NAME = "audio_manager";
+    private static final String FILE_NAME = "metadata.index";
+    private static final int VERSION = 2;
+
+    static final class Entry {
+        final String path;
+        final long size;
+        final long mtime;
+        long durationMs;
+        String title;
+        String artist;
+        String album;
+        String mimeType;
+        int bitrate;
+        String artworkPath;
+        // 已经提取过封面，artworkPath 为 null 表示没有内嵌封面
+        boolean artworkChecked;
+
+        Entry(String path, long size, long mtime) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("path", path);
+            map.put("duration", durationMs);
+            map.put("title", title);
+            map.put("artist", artist);
+            map.put("album", album);
+            map.put("mimeType", mimeType);
+            map.put("bitrate", bitrate);
+            map.put("artwork", artworkPath);
+            return map;
+        }
+    }
+
+    private final File file;
+    // 串行化 save，取快照、写临时文件和重命名都在其中
+    private final Object saveLock = new Object();
+    private Map<String, Entry> entries;
+    private boolean dirty = false;
+
+    MetadataIndex(Context context) {
+        this(new File(new File(context.getFilesDir(), DIR_NAME), FILE_NAME));
+    }
+
+    MetadataIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return 大小和修改时间都匹配的记录，否则 null
+     */
+    synchronized Entry get(String path, long size, long mtime) {
+        Entry entry = entries().get(path);
+        if (entry == null || entry.size != size || entry.mtime != mtime) return null;
+        return entry;
+    }
+
+    synchronized void put(Entry entry) {
+        entries().put(entry.path, entry);
+        dirty = true;
+    }
+
+    synchronized int size() {
+        return entries().size();
+    }
+
+    /**
+     * 有改动时写回磁盘，在调用线程同步执行
+     */
+    void save() {
+        synchronized (saveLock) {
+            List<Entry> snapshot;
+            synchronized (this) {
+                if (!dirty) return;
+                snapshot = new ArrayList<>(entries.values());
+                dirty = false;
+            }
+            write(snapshot);
+        }
+    }
+
+    private void write(List<Entry> snapshot) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.durationMs);
+                writeString(out, entry.title);
+                writeString(out, entry.artist);
+                writeString(out, entry.album);
+                writeString(out, entry.mimeType);
+                out.writeInt(entry.bitrate);
+                writeString(out, entry.artworkPath);
+                out.writeBoolean(entry.artworkChecked);
+            }
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "index save: ", e);
+            tmp.delete();
+            synchronized (this) {
+                dirty = true;
+            }
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            PlayerTrace.w(TAG, "index rename failed");
+        }
+    }
+
+    private Map<String, Entry> entries() {
+        if (entries == null) entries = load();
+        return entries;
+    }
+
+    private Map<String, Entry> load() {
+        Map<String, Entry> map = new HashMap<>();
+        if (!file.exists()) return map;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) return map;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong());
+                entry.durationMs = in.readLong();
+                entry.title = readString(in);
+                entry.artist = readString(in);
+                entry.album = readString(in);
+                entry.mimeType = readString(in);
+                entry.bitrate = in.readInt();
+                entry.artworkPath = readString(in);
+                entry.artworkChecked = in.readBoolean();
+                map.put(entry.path, entry);
+            }
+        } catch (EOFException e) {
+            // 文件不完整，保留已读出的记录
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "index load: ", e);
+        }
+        return map;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
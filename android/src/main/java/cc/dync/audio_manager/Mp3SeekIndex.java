@@ -0,0 +1,356 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * VBR MP3 的时间 -> 字节偏移索引
+ * <p>
+ * 只读取每一帧的 4 字节帧头，按帧长跳到下一帧，每 {@link #RESOLUTION_MS} 记录一次第一个不早于该时间的帧的偏移。
+ * 误差不超过一帧（约 26ms）。索引按路径、大小和修改时间缓存在磁盘上，偏移以增量形式存储。
+ * CBR 和带 Xing/VBRI TOC 的文件 MediaPlayer 自己就能准确跳转，见 {@link #needsIndex()}。
+ */
+final class Mp3SeekIndex {
+    private static final String TAG = Mp3SeekIndex.class.getSimpleName();
+    static final int RESOLUTION_MS = 500;
+    private static final String CACHE_DIR = "audio_manager/mp3index";
+    private static final int MAGIC = 0x4D334958; // M3IX
+    private static final int VERSION = 2;
+    // infoFrame 的结果
+    private static final int INFO_NONE = 0;
+    private static final int INFO_NO_TOC = 1;
+    private static final int INFO_TOC = 2;
+    private static final int XING_FLAG_TOC = 0x4;
+    // 帧头失步后最多向后搜索的字节数
+    private static final int MAX_RESYNC_BYTES = 64 * 1024;
+
+    private static final int[] BITRATES_V1 = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] BITRATES_V2 = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+    private static final int[] SAMPLE_RATES_V1 = {44100, 48000, 32000};
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        r.run();
+    }, "audio_manager-mp3index"));
+
+    interface Callback {
+        /**
+         * 主线程调用，失败时 index 为 null
+         */
+        void onLoaded(Mp3SeekIndex index);
+    }
+
+    final String path;
+    private final long[] offsets;
+    private final long durationMs;
+    private final long frameCount;
+    private final boolean vbr;
+    private final boolean hasToc;
+    private long buildMs = -1;
+
+    private Mp3SeekIndex(String path, long[] offsets, long durationMs, long frameCount, boolean vbr, boolean hasToc) {
+        this.path = path;
+        this.offsets = offsets;
+        this.durationMs = durationMs;
+        this.frameCount = frameCount;
+        this.vbr = vbr;
+        this.hasToc = hasToc;
+    }
+
+    /**
+     * @return 路径是否可能是可以建立索引的本地 MP3 文件
+     */
+    static boolean isIndexable(String path) {
+        return path != null && path.toLowerCase(Locale.ROOT).endsWith(".mp3") && new File(path).isFile();
+    }
+
+    /**
+     * 在后台线程读取缓存或扫描文件建立索引
+     */
+    static void loadAsync(Context context, String path, Callback callback) {
+        Handler main = new Handler(Looper.getMainLooper());
+        executor.execute(() -> {
+            Mp3SeekIndex index = load(context, path);
+            main.post(() -> callback.onLoaded(index));
+        });
+    }
+
+    private static Mp3SeekIndex load(Context context, String path) {
+        File source = new File(path);
+        File cache = new File(new File(context.getCacheDir(), CACHE_DIR),
+                HttpClient.hashKey(path + "#" + source.length() + "#" + source.lastModified()) + ".idx");
+        Mp3SeekIndex index = read(path, cache);
+        if (index != null) return index;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            index = build(path);
+            index.buildMs = SystemClock.elapsedRealtime() - start;
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "build failed: ", e);
+            return null;
+        }
+        if (index.offsets.length > 0) write(index, cache);
+        return index;
+    }
+
+    /**
+     * 索引槽位：不晚于 position 的最后一个
+     */
+    int slotAt(int positionMs) {
+        int slot = Math.max(0, positionMs) / RESOLUTION_MS;
+        return Math.min(slot, offsets.length - 1);
+    }
+
+    long offsetAt(int slot) {
+        return offsets[slot];
+    }
+
+    int timeAt(int slot) {
+        return slot * RESOLUTION_MS;
+    }
+
+    int size() {
+        return offsets.length;
+    }
+
+    long durationMs() {
+        return durationMs;
+    }
+
+    /**
+     * @return 帧的码率是否不一致
+     */
+    boolean isVbr() {
+        return vbr;
+    }
+
+    /**
+     * @return 是否有 Xing 或 VBRI 的 TOC，MediaPlayer 会用它定位
+     */
+    boolean hasToc() {
+        return hasToc;
+    }
+
+    /**
+     * 只有没有 TOC 的 VBR 文件 MediaPlayer 会按平均码率估算偏移，需要用索引跳转
+     */
+    boolean needsIndex() {
+        return vbr && !hasToc && offsets.length > 0;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("entries", offsets.length);
+        map.put("frames", frameCount);
+        map.put("durationMs", durationMs);
+        map.put("buildMs", buildMs);
+        map.put("vbr", vbr);
+        map.put("hasToc", hasToc);
+        return map;
+    }
+
+    static Mp3SeekIndex build(String path) throws IOException {
+        try (FileChannel channel = new FileInputStream(path).getChannel()) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(4);
+            long position = skipId3v2(channel);
+            long[] offsets = new long[1024];
+            int count = 0;
+            long frames = 0;
+            long samples = 0;
+            int sampleRate = 0;
+            int bitrateIndex = -1;
+            boolean vbr = false;
+            boolean hasToc = false;
+            boolean first = true;
+
+            while (position + 4 <= size) {
+                int h = readInt(channel, header, position);
+                int frameLength = frameLength(h);
+                if (frameLength <= 0) {
+                    long synced = resync(channel, position + 1, size);
+                    if (synced < 0) break;
+                    position = synced;
+                    continue;
+                }
+                if (first) {
+                    first = false;
+                    sampleRate = sampleRate(h);
+                    // Xing/Info/VBRI 帧不含音频
+                    int info = infoFrame(channel, h, position);
+                    if (info != INFO_NONE) {
+                        hasToc = info == INFO_TOC;
+                        position += frameLength;
+                        continue;
+                    }
+                }
+                int frameBitrate = (h >>> 12) & 0xF;
+                if (bitrateIndex < 0) {
+                    bitrateIndex = frameBitrate;
+                } else if (frameBitrate != bitrateIndex) {
+                    vbr = true;
+                }
+                long timeMs = samples * 1000 / sampleRate;
+                while ((long) count * RESOLUTION_MS <= timeMs) {
+                    if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                    offsets[count++] = position;
+                }
+                samples += samplesPerFrame(h);
+                frames++;
+                position += frameLength;
+            }
+            long durationMs = sampleRate == 0 ? 0 : samples * 1000 / sampleRate;
+            return new Mp3SeekIndex(path, Arrays.copyOf(offsets, count), durationMs, frames, vbr, hasToc);
+        }
+    }
+
+    /**
+     * @return 帧长度（字节），不是有效的 Layer III 帧头时返回 -1
+     */
+    static int frameLength(int h) {
+        if ((h & 0xFFE00000) != 0xFFE00000) return -1;
+        int version = (h >>> 19) & 3;
+        int layer = (h >>> 17) & 3;
+        int bitrateIndex = (h >>> 12) & 0xF;
+        int sampleRateIndex = (h >>> 10) & 3;
+        if (version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) return -1;
+        int bitrate = (version == 3 ? BITRATES_V1 : BITRATES_V2)[bitrateIndex] * 1000;
+        int padding = (h >>> 9) & 1;
+        return samplesPerFrame(h) / 8 * bitrate / sampleRate(h) + padding;
+    }
+
+    private static int samplesPerFrame(int h) {
+        return ((h >>> 19) & 3) == 3 ? 1152 : 576;
+    }
+
+    private static int sampleRate(int h) {
+        int version = (h >>> 19) & 3;
+        int rate = SAMPLE_RATES_V1[(h >>> 10) & 3];
+        if (version == 2) return rate / 2;
+        if (version == 0) return rate / 4;
+        return rate;
+    }
+
+    /**
+     * @return 不是 Xing/Info/VBRI 帧时 {@link #INFO_NONE}，否则按是否带 TOC 返回 {@link #INFO_TOC} 或 {@link #INFO_NO_TOC}
+     */
+    private static int infoFrame(FileChannel channel, int h, long position) throws IOException {
+        boolean mpeg1 = ((h >>> 19) & 3) == 3;
+        boolean mono = ((h >>> 6) & 3) == 3;
+        int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        ByteBuffer tag = ByteBuffer.allocate(4);
+        long xingAt = position + 4 + sideInfo;
+        int xing = readInt(channel, tag, xingAt);
+        if (xing == 0x58696E67 || xing == 0x496E666F) {
+            int flags = readInt(channel, tag, xingAt + 4);
+            return (flags & XING_FLAG_TOC) != 0 ? INFO_TOC : INFO_NO_TOC;
+        }
+        // VBRI 总是带 TOC
+        return readInt(channel, tag, position + 4 + 32) == 0x56425249 ? INFO_TOC : INFO_NONE;
+    }
+
+    /**
+     * 向后搜索下一个帧头，要求紧随其后的也是有效帧头，避免误判
+     */
+    private static long resync(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_RESYNC_BYTES);
+        channel.read(buffer, from);
+        buffer.flip();
+        ByteBuffer next = ByteBuffer.allocate(4);
+        for (int i = 0; i + 4 <= buffer.limit(); i++) {
+            int h = buffer.getInt(i);
+            int length = frameLength(h);
+            if (length <= 0) continue;
+            long candidate = from + i;
+            if (candidate + length + 4 > size) return -1;
+            if (frameLength(readInt(channel, next, candidate + length)) > 0) return candidate;
+        }
+        return -1;
+    }
+
+    private static long skipId3v2(FileChannel channel) throws IOException {
+        ByteBuffer id3 = ByteBuffer.allocate(10);
+        if (channel.read(id3, 0) < 10) return 0;
+        if (id3.get(0) != 'I' || id3.get(1) != 'D' || id3.get(2) != '3') return 0;
+        int tagSize = ((id3.get(6) & 0x7F) << 21) | ((id3.get(7) & 0x7F) << 14)
+                | ((id3.get(8) & 0x7F) << 7) | (id3.get(9) & 0x7F);
+        boolean footer = (id3.get(5) & 0x10) != 0;
+        return 10 + tagSize + (footer ? 10 : 0);
+    }
+
+    private static int readInt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) return 0;
+        }
+        return buffer.getInt(0);
+    }
+
+    private static Mp3SeekIndex read(String path, File cache) {
+        if (!cache.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != RESOLUTION_MS) return null;
+            long durationMs = in.readLong();
+            long frames = in.readLong();
+            boolean vbr = in.readBoolean();
+            boolean hasToc = in.readBoolean();
+            int count = in.readInt();
+            long[] offsets = new long[count];
+            long offset = in.readLong();
+            offsets[0] = offset;
+            for (int i = 1; i < count; i++) {
+                offset += in.readInt();
+                offsets[i] = offset;
+            }
+            return new Mp3SeekIndex(path, offsets, durationMs, frames, vbr, hasToc);
+        } catch (IOException | RuntimeException e) {
+            cache.delete();
+            return null;
+        }
+    }
+
+    private static void write(Mp3SeekIndex index, File cache) {
+        File dir = cache.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) return;
+        File tmp = new File(cache.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(RESOLUTION_MS);
+            out.writeLong(index.durationMs);
+            out.writeLong(index.frameCount);
+            out.writeBoolean(index.vbr);
+            out.writeBoolean(index.hasToc);
+            out.writeInt(index.offsets.length);
+            out.writeLong(index.offsets[0]);
+            for (int i = 1; i < index.offsets.length; i++) {
+                out.writeInt((int) (index.offsets[i] - index.offsets[i - 1]));
+            }
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "index write: ", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(cache)) tmp.delete();
+    }
+}
@@ -0,0 +1,944 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 离线下载：大文件拆成多个 Range 分段并行下载，中断后从断点继续
+ * <p>
+ * 所有下载共用 {@link #MAX_CONNECTIONS} 个连接线程。进度在数据 fsync 之后写入状态文件，
+ * 续传时用 If-Range 确认服务器上的文件没有变化。下载完成后校验长度和（可选的）SHA-256 再改名为最终文件，
+ * 播放器通过 {@link #completedFile(Context, String)} 直接播放本地文件。
+ * 计费网络上默认等待，进度每 {@link #PROGRESS_INTERVAL_MS} 批量回调一次。
+ */
+final class OfflineDownloader {
+    private static final String TAG = OfflineDownloader.class.getSimpleName();
+    private static final String DIR_NAME = "audio_manager/downloads";
+    static final int MAX_CONNECTIONS = 4;
+    static final int MAX_CHUNKS = 4;
+    static final long MIN_CHUNK_BYTES = 1024 * 1024;
+    static final long PROGRESS_INTERVAL_MS = 500;
+    // 状态文件的最短写入间隔
+    private static final long STATE_SAVE_INTERVAL_MS = 2_000;
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_DELAY_MS = 1_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int STATE_MAGIC = 0x444C5354; // DLST
+    private static final int STATE_VERSION = 1;
+
+    enum State {
+        QUEUED, DOWNLOADING,
+        // 等待可用的（非计费）网络
+        WAITING,
+        PAUSED, COMPLETED, FAILED
+    }
+
+    // 停止原因
+    private static final int RUN = 0;
+    private static final int PAUSE = 1;
+    private static final int SUSPEND = 2;
+    private static final int REMOVE = 3;
+    private static final int FAIL = 4;
+
+    interface Listener {
+        /**
+         * 主线程调用，只包含上次回调之后有变化的下载
+         */
+        void onProgress(List<Map<String, Object>> items);
+    }
+
+    /**
+     * 当前网络是否允许下载，一般由 ConnectivityManager 判断，测试时替换
+     */
+    interface NetworkPolicy {
+        boolean allows(boolean allowMetered);
+    }
+
+    /**
+     * 续传时服务器返回了完整内容，说明文件已经变化
+     */
+    private static final class SourceChangedException extends IOException {
+        SourceChangedException(String url) {
+            super("source changed: " + url);
+        }
+    }
+
+    static final class Chunk {
+        final long start;
+        // 不含；长度未知时为 -1
+        volatile long end;
+        volatile long done;
+
+        Chunk(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        boolean isComplete() {
+            return end >= 0 && start + done >= end;
+        }
+    }
+
+    private final class Task {
+        final String url;
+        final File part;
+        final File state;
+        final File target;
+        final Object stateLock = new Object();
+
+        // 以下字段由 Task 自身的锁保护，volatile 的可以在主线程直接读取
+        volatile State status = State.QUEUED;
+        volatile int stop = RUN;
+        volatile IOException error;
+        volatile long total = -1;
+        volatile Chunk[] chunks;
+        String sha256;
+        boolean allowMetered;
+        boolean ranges;
+        String validator;
+        boolean resumeWhenIdle;
+        boolean restarted;
+        int activeJobs;
+        FileChannel channel;
+        long lastSavedAt;
+        long sessionStartedAt;
+        long sessionStartBytes;
+        volatile boolean dirty;
+
+        Task(String url) {
+            this.url = url;
+            String key = HttpClient.hashKey(url);
+            this.part = new File(dir, key + ".part");
+            this.state = new File(dir, key + ".state");
+            this.target = new File(dir, fileName(url));
+        }
+
+        long downloaded() {
+            Chunk[] current = chunks;
+            if (current == null) return 0;
+            long sum = 0;
+            for (Chunk chunk : current) sum += chunk.done;
+            return sum;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            State current = status;
+            map.put("url", url);
+            map.put("state", current.name().toLowerCase(Locale.ROOT));
+            map.put("downloaded", downloaded());
+            map.put("total", total);
+            if (current == State.COMPLETED) map.put("path", target.getPath());
+            if (current == State.DOWNLOADING) {
+                long elapsed = SystemClock.elapsedRealtime() - sessionStartedAt;
+                map.put("bytesPerSecond", elapsed <= 0 ? 0 : (downloaded() - sessionStartBytes) * 1000 / elapsed);
+            }
+            IOException e = error;
+            if (current == State.FAILED) map.put("error", e == null ? "incomplete" : e.getMessage());
+            return map;
+        }
+    }
+
+    private static OfflineDownloader instance;
+    private static final AtomicLong cacheHitCount = new AtomicLong();
+
+    private final File dir;
+    private final HttpClient http;
+    private final NetworkPolicy network;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private Listener listener;
+    // 上次的下载在后台读取，第一次操作前等它完成
+    private Future<?> restored;
+
+    // 统计
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong resumeCount = new AtomicLong();
+    private final AtomicLong restartCount = new AtomicLong();
+    private final AtomicLong checksumFailures = new AtomicLong();
+    private final AtomicLong completedBytes = new AtomicLong();
+    private final AtomicLong completedMillis = new AtomicLong();
+
+    static synchronized OfflineDownloader getInstance(Context context) {
+        if (instance == null) {
+            instance = new OfflineDownloader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private OfflineDownloader(Context context) {
+        this(context, (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE));
+    }
+
+    private OfflineDownloader(Context context, ConnectivityManager connectivity) {
+        this(new File(context.getFilesDir(), DIR_NAME), HttpClient.getInstance(context), connectivityPolicy(connectivity));
+        connectivity.registerNetworkCallback(new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build(), networkCallback);
+    }
+
+    /**
+     * 不监听网络变化，测试用
+     */
+    OfflineDownloader(File dir, HttpClient http, NetworkPolicy network) {
+        this.dir = dir;
+        this.http = http;
+        this.network = network;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CONNECTIONS, MAX_CONNECTIONS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "audio_manager-download"));
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+        restored = executor.submit(this::restore);
+    }
+
+    private static NetworkPolicy connectivityPolicy(ConnectivityManager connectivity) {
+        return allowMetered -> {
+            Network network = connectivity.getActiveNetwork();
+            NetworkCapabilities capabilities = network == null ? null : connectivity.getNetworkCapabilities(network);
+            if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) return false;
+            return allowMetered || capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        };
+    }
+
+    /**
+     * @return 已下载完成的本地文件，没有时返回 null。不会创建下载器
+     */
+    static File completedFile(Context context, String url) {
+        File file = new File(new File(context.getFilesDir(), DIR_NAME), fileName(url));
+        if (!file.isFile()) return null;
+        cacheHitCount.incrementAndGet();
+        return file;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 开始或继续下载，已完成的只重新报告一次状态
+     *
+     * @param sha256       期望的 SHA-256（十六进制），null 时只校验长度
+     * @param allowMetered 是否允许在计费网络上下载
+     */
+    void download(String url, String sha256, boolean allowMetered) {
+        awaitRestore();
+        Task task;
+        synchronized (tasks) {
+            task = tasks.get(url);
+            if (task == null) {
+                task = new Task(url);
+                tasks.put(url, task);
+            }
+        }
+        synchronized (task) {
+            if (sha256 != null) task.sha256 = sha256;
+            task.allowMetered = allowMetered;
+            task.restarted = false;
+            task.dirty = true;
+            if (task.activeJobs > 0) {
+                // 正在停止的等停下后再开始
+                if (task.stop != RUN) task.resumeWhenIdle = true;
+            } else if (task.status != State.COMPLETED) {
+                startLocked(task);
+            } else if (!task.target.isFile()) {
+                // 完成的文件被外部删除，重新下载
+                resetLocked(task);
+                startLocked(task);
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * 暂停，保留已下载的部分
+     */
+    void pause(String url) {
+        awaitRestore();
+        Task task = get(url);
+        if (task == null) return;
+        synchronized (task) {
+            task.resumeWhenIdle = false;
+            if (task.activeJobs > 0) {
+                task.stop = PAUSE;
+            } else if (task.status == State.WAITING || task.status == State.QUEUED) {
+                task.status = State.PAUSED;
+                task.dirty = true;
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * 删除下载（包括已完成的文件），正在下载的在所有分段停下后删除
+     */
+    void remove(String url) {
+        awaitRestore();
+        Task task;
+        synchronized (tasks) {
+            task = tasks.remove(url);
+        }
+        if (task == null) task = new Task(url);
+        synchronized (task) {
+            task.resumeWhenIdle = false;
+            if (task.activeJobs > 0) {
+                task.stop = REMOVE;
+                return;
+            }
+        }
+        deleteFiles(task);
+    }
+
+    List<Map<String, Object>> list() {
+        awaitRestore();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (Task task : snapshot()) items.add(task.toMap());
+        return items;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        int active = 0;
+        int waiting = 0;
+        for (Task task : snapshot()) {
+            State state = task.status;
+            if (state == State.QUEUED || state == State.DOWNLOADING) active++;
+            if (state == State.WAITING) waiting++;
+        }
+        map.put("active", active);
+        map.put("waiting", waiting);
+        map.put("completed", completedCount.get());
+        map.put("failed", failedCount.get());
+        map.put("bytesDownloaded", bytesDownloaded.get());
+        map.put("retries", retryCount.get());
+        map.put("resumes", resumeCount.get());
+        map.put("restarts", restartCount.get());
+        map.put("checksumFailures", checksumFailures.get());
+        map.put("cacheHits", cacheHitCount.get());
+        long millis = completedMillis.get();
+        map.put("throughputBps", millis == 0 ? 0 : completedBytes.get() * 1000 / millis);
+        return map;
+    }
+
+    private Task get(String url) {
+        synchronized (tasks) {
+            return tasks.get(url);
+        }
+    }
+
+    private List<Task> snapshot() {
+        synchronized (tasks) {
+            return new ArrayList<>(tasks.values());
+        }
+    }
+
+    private boolean networkAllows(Task task) {
+        return network.allows(task.allowMetered);
+    }
+
+    /**
+     * 主线程调用，通常早已读完，不会阻塞
+     */
+    private void awaitRestore() {
+        Future<?> pending = restored;
+        if (pending == null) return;
+        try {
+            pending.get();
+        } catch (ExecutionException | InterruptedException e) {
+            PlayerTrace.w(TAG, "restore: ", e);
+        }
+        restored = null;
+    }
+
+    /**
+     * 丢弃已完成的记录，下次从头探测
+     */
+    private void resetLocked(Task task) {
+        closeChannel(task);
+        task.part.delete();
+        task.chunks = null;
+        task.total = -1;
+        task.ranges = false;
+        task.validator = null;
+    }
+
+    private void startLocked(Task task) {
+        task.resumeWhenIdle = false;
+        task.error = null;
+        task.dirty = true;
+        if (!networkAllows(task)) {
+            task.status = State.WAITING;
+            return;
+        }
+        task.status = State.QUEUED;
+        task.stop = RUN;
+        task.activeJobs = 1;
+        executor.execute(() -> prepare(task));
+    }
+
+    /**
+     * 新下载先探测长度和是否支持 Range 再分段，续传直接用保存的分段
+     */
+    private void prepare(Task task) {
+        try {
+            if (task.chunks == null) {
+                probe(task);
+            } else {
+                resumeCount.incrementAndGet();
+            }
+            openPart(task);
+        } catch (IOException e) {
+            onJobEnded(task, e);
+            return;
+        }
+        synchronized (task) {
+            if (task.stop == RUN) {
+                task.status = State.DOWNLOADING;
+                task.sessionStartedAt = SystemClock.elapsedRealtime();
+                task.sessionStartBytes = task.downloaded();
+                task.dirty = true;
+                for (Chunk chunk : task.chunks) {
+                    if (chunk.isComplete()) continue;
+                    task.activeJobs++;
+                    executor.execute(() -> runChunk(task, chunk));
+                }
+            }
+        }
+        scheduleFlush();
+        onJobEnded(task, null);
+    }
+
+    private void probe(Task task) throws IOException {
+        HttpURLConnection connection = http.openRange(task.url, 0, 0, null);
+        long total = -1;
+        boolean ranges = false;
+        String validator;
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                total = parseTotal(connection.getHeaderField("Content-Range"));
+                ranges = total > 0;
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                total = parseLong(connection.getHeaderField("Content-Length"));
+            } else {
+                throw new IOException("HTTP " + code + " " + task.url);
+            }
+            validator = validator(connection);
+        } finally {
+            connection.disconnect();
+        }
+        Chunk[] chunks = split(total, ranges);
+        synchronized (task) {
+            task.total = total;
+            task.ranges = ranges;
+            task.validator = validator;
+            task.chunks = chunks;
+        }
+    }
+
+    /**
+     * 支持 Range 时按 {@link #MIN_CHUNK_BYTES} 拆成最多 {@link #MAX_CHUNKS} 段，最后一段包含余数；
+     * 否则只有一段，长度未知时 end 为 -1
+     */
+    static Chunk[] split(long total, boolean ranges) {
+        int count = ranges ? (int) Math.max(1, Math.min(MAX_CHUNKS, total / MIN_CHUNK_BYTES)) : 1;
+        Chunk[] chunks = new Chunk[count];
+        long size = ranges ? total / count : 0;
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            chunks[i] = new Chunk(start, i == count - 1 ? total : start + size, 0);
+        }
+        return chunks;
+    }
+
+    private void openPart(Task task) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+        // 分段文件丢失时从头开始
+        if (!task.part.exists()) {
+            for (Chunk chunk : task.chunks) chunk.done = 0;
+        }
+        RandomAccessFile file = new RandomAccessFile(task.part, "rw");
+        if (task.total > 0 && file.length() != task.total) file.setLength(task.total);
+        task.channel = file.getChannel();
+        saveState(task);
+    }
+
+    private void runChunk(Task task, Chunk chunk) {
+        IOException error = null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int attempt = 0;
+        while (!chunk.isComplete() && task.stop == RUN) {
+            long before = chunk.done;
+            try {
+                if (transfer(task, chunk, buffer)) break;
+            } catch (SourceChangedException e) {
+                error = e;
+                break;
+            } catch (IOException e) {
+                if (task.stop != RUN) break;
+                if (chunk.done > before) attempt = 0;
+                if (++attempt > MAX_RETRIES) {
+                    error = e;
+                    break;
+                }
+                retryCount.incrementAndGet();
+                PlayerTrace.w(TAG, "retry " + attempt + ": ", e);
+                SystemClock.sleep(RETRY_DELAY_MS * attempt);
+            }
+        }
+        onJobEnded(task, error);
+    }
+
+    /**
+     * 下载分段的剩余部分，写入分段文件的对应位置
+     *
+     * @return 长度未知的下载读到了结尾
+     */
+    private boolean transfer(Task task, Chunk chunk, byte[] buffer) throws IOException {
+        HttpURLConnection connection;
+        if (task.ranges) {
+            connection = http.openRange(task.url, chunk.start + chunk.done, chunk.end - 1, task.validator);
+        } else {
+            // 不支持 Range 只能从头下载
+            chunk.done = 0;
+            task.channel.truncate(0);
+            connection = http.open(task.url, 0);
+        }
+        long read = 0;
+        boolean eof = false;
+        try {
+            int code = connection.getResponseCode();
+            if (task.ranges && code == HttpURLConnection.HTTP_OK) throw new SourceChangedException(task.url);
+            int expected = task.ranges ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK;
+            if (code != expected) throw new IOException("HTTP " + code + " " + task.url);
+            try (InputStream in = connection.getInputStream()) {
+                while (task.stop == RUN && !chunk.isComplete()) {
+                    int n = in.read(buffer);
+                    if (n == -1) {
+                        eof = true;
+                        break;
+                    }
+                    long position = chunk.start + chunk.done;
+                    if (chunk.end >= 0) n = (int) Math.min(n, chunk.end - position);
+                    ByteBuffer src = ByteBuffer.wrap(buffer, 0, n);
+                    while (src.hasRemaining()) {
+                        task.channel.write(src, position + src.position());
+                    }
+                    chunk.done += n;
+                    read += n;
+                    bytesDownloaded.addAndGet(n);
+                    task.dirty = true;
+                    maybeSaveState(task);
+                }
+            }
+        } finally {
+            http.onBytesRead(read);
+            connection.disconnect();
+        }
+        if (eof && chunk.end < 0) {
+            synchronized (task) {
+                chunk.end = chunk.done;
+                task.total = chunk.done;
+            }
+            return true;
+        }
+        if (eof && !chunk.isComplete()) throw new EOFException("unexpected end of " + task.url);
+        return false;
+    }
+
+    /**
+     * 分段或准备任务结束，最后一个结束时决定下载的状态
+     */
+    private void onJobEnded(Task task, IOException error) {
+        boolean finish;
+        synchronized (task) {
+            if (error != null && task.error == null) {
+                task.error = error;
+                if (task.stop == RUN) task.stop = FAIL;
+            }
+            if (--task.activeJobs > 0) return;
+            finish = task.stop == RUN && task.chunks != null && isComplete(task.chunks);
+            if (finish) {
+                // 校验期间仍算作进行中，避免再次开始
+                task.activeJobs = 1;
+            } else {
+                saveState(task);
+                closeChannel(task);
+                settleLocked(task);
+            }
+        }
+        // 校验可能很久，不占用锁
+        if (finish) finish(task);
+        scheduleFlush();
+    }
+
+    private void settleLocked(Task task) {
+        task.dirty = true;
+        if (task.stop == REMOVE) {
+            deleteFiles(task);
+        } else if (task.error instanceof SourceChangedException && !task.restarted) {
+            PlayerTrace.w(TAG, "restart: ", task.error);
+            task.restarted = true;
+            restartCount.incrementAndGet();
+            task.chunks = null;
+            task.part.delete();
+            task.state.delete();
+            startLocked(task);
+        } else if (task.resumeWhenIdle) {
+            startLocked(task);
+        } else if (task.stop == SUSPEND) {
+            task.status = State.WAITING;
+        } else if (task.stop == PAUSE) {
+            task.status = State.PAUSED;
+        } else {
+            task.status = State.FAILED;
+            failedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 校验长度和 SHA-256，通过后改名为最终文件
+     */
+    private void finish(Task task) {
+        IOException error = null;
+        try {
+            task.channel.force(true);
+            closeChannel(task);
+            long length = task.part.length();
+            if (task.total >= 0 && length != task.total) {
+                discard(task);
+                throw new IOException("length " + length + " != " + task.total);
+            }
+            if (task.sha256 != null && !task.sha256.equalsIgnoreCase(sha256(task.part))) {
+                checksumFailures.incrementAndGet();
+                discard(task);
+                throw new IOException("checksum mismatch: " + task.url);
+            }
+            if (!task.part.renameTo(task.target)) throw new IOException("rename failed: " + task.target);
+            writeState(task, true);
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "finish failed: ", e);
+            error = e;
+        }
+        synchronized (task) {
+            task.activeJobs = 0;
+            task.dirty = true;
+            if (task.stop == REMOVE) {
+                deleteFiles(task);
+            } else if (error == null) {
+                task.status = State.COMPLETED;
+                completedCount.incrementAndGet();
+                completedBytes.addAndGet(task.downloaded() - task.sessionStartBytes);
+                completedMillis.addAndGet(SystemClock.elapsedRealtime() - task.sessionStartedAt);
+            } else {
+                task.error = error;
+                task.status = State.FAILED;
+                failedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 校验失败的数据不能续传，下次从头下载
+     */
+    private void discard(Task task) {
+        task.part.delete();
+        task.state.delete();
+        task.chunks = null;
+    }
+
+    private static boolean isComplete(Chunk[] chunks) {
+        for (Chunk chunk : chunks) {
+            if (!chunk.isComplete()) return false;
+        }
+        return true;
+    }
+
+    private void maybeSaveState(Task task) {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (task.stateLock) {
+            if (now - task.lastSavedAt < STATE_SAVE_INTERVAL_MS) return;
+            task.lastSavedAt = now;
+        }
+        saveState(task);
+        scheduleFlush();
+    }
+
+    /**
+     * 先 fsync 数据再写进度，状态文件记录的进度不会超过磁盘上实际写入的数据
+     */
+    private void saveState(Task task) {
+        synchronized (task.stateLock) {
+            Chunk[] chunks = task.chunks;
+            if (chunks == null) return;
+            long[] done = new long[chunks.length];
+            for (int i = 0; i < chunks.length; i++) done[i] = chunks[i].done;
+            try {
+                if (task.channel != null) task.channel.force(false);
+                writeState(task, chunks, done, false);
+            } catch (IOException e) {
+                PlayerTrace.w(TAG, "state write failed: ", e);
+            }
+        }
+    }
+
+    private void writeState(Task task, boolean completed) throws IOException {
+        synchronized (task.stateLock) {
+            Chunk[] chunks = task.chunks;
+            long[] done = new long[chunks.length];
+            for (int i = 0; i < chunks.length; i++) done[i] = chunks[i].done;
+            writeState(task, chunks, done, completed);
+        }
+    }
+
+    private void writeState(Task task, Chunk[] chunks, long[] done, boolean completed) throws IOException {
+        File tmp = new File(task.state.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(STATE_MAGIC);
+            out.writeInt(STATE_VERSION);
+            out.writeUTF(task.url);
+            out.writeUTF(task.sha256 == null ? "" : task.sha256);
+            out.writeBoolean(task.allowMetered);
+            out.writeBoolean(completed);
+            out.writeLong(task.total);
+            out.writeBoolean(task.ranges);
+            out.writeUTF(task.validator == null ? "" : task.validator);
+            out.writeInt(chunks.length);
+            for (int i = 0; i < chunks.length; i++) {
+                out.writeLong(chunks[i].start);
+                out.writeLong(chunks[i].end);
+                out.writeLong(done[i]);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(task.state)) {
+            tmp.delete();
+            throw new IOException("rename failed: " + task.state);
+        }
+    }
+
+    /**
+     * 在下载线程读取上次的下载，未完成的恢复为暂停状态，等再次调用 {@link #download} 时续传
+     */
+    private void restore() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".state"));
+        if (files == null) return;
+        for (File file : files) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != STATE_MAGIC || in.readInt() != STATE_VERSION) throw new IOException("bad header");
+                Task task = new Task(in.readUTF());
+                String sha256 = in.readUTF();
+                task.sha256 = sha256.isEmpty() ? null : sha256;
+                task.allowMetered = in.readBoolean();
+                boolean completed = in.readBoolean();
+                task.total = in.readLong();
+                task.ranges = in.readBoolean();
+                String validator = in.readUTF();
+                task.validator = validator.isEmpty() ? null : validator;
+                Chunk[] chunks = new Chunk[in.readInt()];
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i] = new Chunk(in.readLong(), in.readLong(), in.readLong());
+                }
+                task.chunks = chunks;
+                if (completed && !task.target.isFile()) throw new IOException("missing " + task.target);
+                task.status = completed ? State.COMPLETED : State.PAUSED;
+                synchronized (tasks) {
+                    tasks.put(task.url, task);
+                }
+            } catch (IOException | RuntimeException e) {
+                PlayerTrace.w(TAG, "restore failed: ", e);
+                file.delete();
+            }
+        }
+    }
+
+    private void closeChannel(Task task) {
+        if (task.channel == null) return;
+        try {
+            task.channel.close();
+        } catch (IOException ignored) {
+        }
+        task.channel = null;
+    }
+
+    private void deleteFiles(Task task) {
+        closeChannel(task);
+        task.part.delete();
+        task.state.delete();
+        task.target.delete();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            mainHandler.postDelayed(flushProgress, PROGRESS_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * 合并这段时间内所有下载的变化，一次回调
+     */
+    private final Runnable flushProgress = () -> {
+        flushScheduled.set(false);
+        List<Map<String, Object>> items = new ArrayList<>();
+        boolean active = false;
+        for (Task task : snapshot()) {
+            if (task.dirty) {
+                task.dirty = false;
+                items.add(task.toMap());
+            }
+            State state = task.status;
+            if (state == State.QUEUED || state == State.DOWNLOADING) active = true;
+        }
+        if (!items.isEmpty() && listener != null) listener.onProgress(items);
+        if (active) scheduleFlush();
+    };
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            mainHandler.post(OfflineDownloader.this::onNetworkChanged);
+        }
+
+        @Override
+        public void onLost(Network network) {
+            mainHandler.post(OfflineDownloader.this::onNetworkChanged);
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            mainHandler.post(OfflineDownloader.this::onNetworkChanged);
+        }
+    };
+
+    /**
+     * 网络变化：不允许下载时让正在下载的停下等待，允许时继续等待中的
+     */
+    private void onNetworkChanged() {
+        for (Task task : snapshot()) {
+            synchronized (task) {
+                boolean allowed = networkAllows(task);
+                if (allowed && task.status == State.WAITING && task.activeJobs == 0) {
+                    startLocked(task);
+                } else if (!allowed && task.activeJobs > 0 && task.stop == RUN) {
+                    task.stop = SUSPEND;
+                }
+            }
+        }
+        scheduleFlush();
+    }
+
+    private static String validator(HttpURLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        // If-Range 不接受弱 ETag
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Content-Range: bytes 0-0/12345
+     */
+    static long parseTotal(String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        return slash < 0 ? -1 : parseLong(contentRange.substring(slash + 1).trim());
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 保留扩展名，按扩展名判断格式的地方（如 MP3 索引）照常工作
+     */
+    static String fileName(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) end = query;
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) end = fragment;
+        int slash = url.lastIndexOf('/', end - 1);
+        int dot = url.lastIndexOf('.', end - 1);
+        String extension = "";
+        if (dot > slash && end - dot <= 6) {
+            extension = url.substring(dot, end).toLowerCase(Locale.ROOT);
+            for (int i = 1; i < extension.length(); i++) {
+                if (!Character.isLetterOrDigit(extension.charAt(i))) {
+                    extension = "";
+                    break;
+                }
+            }
+        }
+        return HttpClient.hashKey(url) + extension;
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) digest.update(buffer, 0, n);
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package cc.dync.audio_manager;
+
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 从指定字节偏移开始的本地文件视图，配合 {@link Mp3SeekIndex} 从某一帧开始播放
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+final class OffsetFileDataSource extends MediaDataSource {
+    private final FileChannel channel;
+    private final long offset;
+    private final long size;
+
+    OffsetFileDataSource(String path, long offset) throws IOException {
+        this.channel = new FileInputStream(path).getChannel();
+        this.offset = offset;
+        this.size = Math.max(0, channel.size() - offset);
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (position >= this.size) {
+            return -1; // -1 indicates EOF
+        }
+        int length = (int) Math.min(size, this.size - position);
+        return channel.read(ByteBuffer.wrap(buffer, offset, length), this.offset + position);
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,208 @@
+package cc.dync.audio_manager;
+
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * MediaExtractor + MediaCodec 同步解码，把 16 位交错 PCM 分块交给 {@link Sink}
+ * <p>
+ * 每块 PCM 写入同一个复用的数组，回调返回后即被覆盖，整段 PCM 从不驻留内存。
+ * 波形、响度分析和静音检测共用。{@link #decode} 在调用线程阻塞执行，可以从其他线程 {@link #cancel()}。
+ */
+final class PcmDecoder {
+    private static final long TIMEOUT_US = 10_000;
+
+    interface Sink {
+        /**
+         * 在第一块 PCM 之前调用
+         *
+         * @param durationUs 时长，未知时为 0
+         */
+        void onFormat(int sampleRate, int channelCount, long durationUs);
+
+        /**
+         * @param samples        交错的 16 位采样，只在回调内有效
+         * @param count          有效采样数（所有声道合计）
+         * @param presentationUs 本块第一帧的时间戳
+         * @return false 停止解码
+         */
+        boolean onPcm(short[] samples, int count, long presentationUs);
+    }
+
+    private final String path;
+    private final AssetFileDescriptor assetDescriptor;
+    private volatile boolean cancelled = false;
+    private short[] samples = new short[0];
+
+    // 解码统计
+    private long decodedFrames;
+    private long decodeNanos;
+
+    /**
+     * @param path 本地路径或网络地址
+     */
+    PcmDecoder(String path) {
+        this.path = path;
+        this.assetDescriptor = null;
+    }
+
+    /**
+     * @param assetDescriptor 由调用方负责关闭
+     */
+    PcmDecoder(AssetFileDescriptor assetDescriptor) {
+        this.path = null;
+        this.assetDescriptor = assetDescriptor;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    long decodedFrames() {
+        return decodedFrames;
+    }
+
+    long decodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * 解码第一条音轨
+     *
+     * @param startUs 起始位置，从它之前最近的同步帧开始
+     */
+    void decode(Sink sink, long startUs) throws IOException {
+        long start = SystemClock.elapsedRealtimeNanos();
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            if (assetDescriptor != null) {
+                extractor.setDataSource(assetDescriptor.getFileDescriptor(), assetDescriptor.getStartOffset(), assetDescriptor.getLength());
+            } else {
+                extractor.setDataSource(path);
+            }
+            int track = audioTrack(extractor);
+            if (track < 0) throw new IOException("no audio track");
+            MediaFormat format = extractor.getTrackFormat(track);
+            extractor.selectTrack(track);
+            if (startUs > 0) extractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            int encoding = AudioFormat.ENCODING_PCM_16BIT;
+            boolean formatSent = false;
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone && !cancelled) {
+                if (!inputDone) {
+                    int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inIndex);
+                        int size = input == null ? -1 : extractor.readSampleData(input, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    if (outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
+                        encoding = outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING);
+                    }
+                } else if (outIndex >= 0) {
+                    ByteBuffer output = codec.getOutputBuffer(outIndex);
+                    if (output != null && info.size > 0) {
+                        output.position(info.offset);
+                        output.limit(info.offset + info.size);
+                        int count = toShorts(output, encoding);
+                        if (!formatSent) {
+                            sink.onFormat(sampleRate, channelCount, durationUs);
+                            formatSent = true;
+                        }
+                        decodedFrames += count / Math.max(1, channelCount);
+                        if (!sink.onPcm(samples, count, info.presentationTimeUs)) outputDone = true;
+                    }
+                    codec.releaseOutputBuffer(outIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) outputDone = true;
+                }
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("decode failed", e);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException ignored) {
+                }
+                codec.release();
+            }
+            extractor.release();
+            decodeNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+    }
+
+    private static int audioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 转换为 16 位采样写入复用数组
+     *
+     * @return 采样数
+     */
+    private int toShorts(ByteBuffer buffer, int encoding) {
+        buffer.order(ByteOrder.nativeOrder());
+        if (encoding == AudioFormat.ENCODING_PCM_FLOAT) {
+            FloatBuffer floats = buffer.asFloatBuffer();
+            int count = floats.remaining();
+            ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                float v = floats.get(i);
+                samples[i] = (short) (Math.max(-1f, Math.min(1f, v)) * Short.MAX_VALUE);
+            }
+            return count;
+        }
+        ShortBuffer shorts = buffer.asShortBuffer();
+        int count = shorts.remaining();
+        ensureCapacity(count);
+        shorts.get(samples, 0, count);
+        return count;
+    }
+
+    private void ensureCapacity(int count) {
+        if (samples.length < count) samples = new short[count];
+    }
+}
@@ -0,0 +1,112 @@
+package cc.dync.audio_manager;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 没有 Flutter 引擎时暂存的播放事件，重新连接后按顺序补发
+ * <p>
+ * 表示状态的事件（进度、缓冲、播放状态等）只保留最新一条；其他事件按发生顺序保留，
+ * 超出 {@link #CAPACITY} 时丢弃最旧的。只在主线程使用。
+ */
+final class PendingEvents {
+    static final int CAPACITY = 64;
+
+    /**
+     * 补发的目标，一般是 MethodChannel::invokeMethod
+     */
+    interface Sink {
+        void send(String method, Object arguments);
+    }
+
+    private static final class Event {
+        final String method;
+        final Object arguments;
+
+        Event(String method, Object arguments) {
+            this.method = method;
+            this.arguments = arguments;
+        }
+    }
+
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+
+    // 统计
+    private long bufferedCount;
+    private long coalescedCount;
+    private long droppedCount;
+    private long replayedCount;
+    private long detachedAt = -1;
+    private long detachedMs;
+
+    void onDetached() {
+        if (detachedAt < 0) detachedAt = SystemClock.elapsedRealtime();
+    }
+
+    void onAttached() {
+        if (detachedAt >= 0) {
+            detachedMs += SystemClock.elapsedRealtime() - detachedAt;
+            detachedAt = -1;
+        }
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    void add(String method, Object arguments) {
+        bufferedCount++;
+        if (isState(method)) {
+            Iterator<Event> iterator = events.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().method.equals(method)) {
+                    iterator.remove();
+                    coalescedCount++;
+                    break;
+                }
+            }
+        }
+        if (events.size() == CAPACITY) {
+            events.removeFirst();
+            droppedCount++;
+        }
+        events.addLast(new Event(method, arguments));
+    }
+
+    void replay(Sink sink) {
+        Event event;
+        while ((event = events.pollFirst()) != null) {
+            sink.send(event.method, event.arguments);
+            replayedCount++;
+        }
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("pending", events.size());
+        map.put("buffered", bufferedCount);
+        map.put("coalesced", coalescedCount);
+        map.put("dropped", droppedCount);
+        map.put("replayed", replayedCount);
+        map.put("detached", detachedAt >= 0);
+        map.put("detachedMs", detachedMs + (detachedAt < 0 ? 0 : SystemClock.elapsedRealtime() - detachedAt));
+        return map;
+    }
+
+    private static boolean isState(String method) {
+        switch (method) {
+            case "timeupdate":
+            case "buffering":
+            case "playstatus":
+            case "volumeChange":
+            case "bitrateChange":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
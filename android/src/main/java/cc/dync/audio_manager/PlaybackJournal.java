@@ -0,0 +1,357 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * 播放状态日志，用于进程被杀后恢复当前曲目和进度
+ * <p>
+ * 只追加写入的二进制文件，每条记录为 [长度][类型][内容][CRC32]，读取时遇到不完整或校验失败的记录即停止，
+ * 因此写到一半被杀也不会破坏之前的状态。每条记录立即写入系统，fsync 按 {@link #SYNC_INTERVAL_MS} 批量进行，
+ * 切歌和暂停时立即 fsync。文件超过 {@link #COMPACT_THRESHOLD} 后压缩为最新的一条曲目和一条进度。
+ * 所有文件操作都在单独的线程中执行。
+ */
+final class PlaybackJournal {
+    private static final String TAG = PlaybackJournal.class.getSimpleName();
+    private static final String DIR_NAME = "audio_manager";
+    private static final String FILE_NAME = "playback.journal";
+    private static final byte RECORD_ITEM = 1;
+    private static final byte RECORD_POSITION = 2;
+
+    static final long SYNC_INTERVAL_MS = 10_000;
+    static final long COMPACT_THRESHOLD = 64 * 1024;
+    // 单条记录的最大长度，超过视为损坏
+    static final int MAX_RECORD_LENGTH = 16 * 1024;
+    // 标题、描述、封面写入时的最大字符数，超过截断
+    static final int MAX_TEXT_LENGTH = 1024;
+
+    /**
+     * 恢复出来的播放状态
+     */
+    static final class Snapshot {
+        final MediaPlayerHelper.MediaInfo info;
+        int position;
+        float rate = 1f;
+
+        Snapshot(MediaPlayerHelper.MediaInfo info) {
+            this.info = info;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("url", info.url);
+            map.put("title", info.title);
+            map.put("desc", info.desc);
+            map.put("cover", info.cover);
+            map.put("index", info.queueIndex);
+            map.put("position", position);
+            map.put("rate", (double) rate);
+            return map;
+        }
+    }
+
+    private final File file;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "audio_manager-journal"));
+
+    // 以下字段只在 executor 线程访问
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+    private FileOutputStream out;
+    private long fileLength;
+    private long lastSyncAt;
+    private boolean unsynced;
+    private Snapshot current;
+
+    // 写入开销统计
+    private volatile long bytesWritten;
+    private volatile long positionRecords;
+    private volatile long syncCount;
+    private volatile long syncNanos;
+    private volatile long compactions;
+
+    PlaybackJournal(Context context) {
+        this(new File(new File(context.getFilesDir(), DIR_NAME), FILE_NAME));
+    }
+
+    PlaybackJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 读取上次保存的状态，在调用线程同步执行
+     *
+     * @return 没有可恢复的状态时返回 null
+     */
+    Snapshot load() {
+        if (!file.exists()) return null;
+        Snapshot snapshot = null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) break;
+                byte[] record = new byte[length];
+                in.readFully(record);
+                int checksum = in.readInt();
+                CRC32 check = new CRC32();
+                check.update(record, 0, length);
+                if ((int) check.getValue() != checksum) break;
+                snapshot = apply(snapshot, record);
+            }
+        } catch (EOFException e) {
+            // 最后一条记录不完整，忽略
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "journal load: ", e);
+        }
+        if (snapshot != null && snapshot.info.url == null) return null;
+        return snapshot;
+    }
+
+    /**
+     * 在 journal 线程读取上次保存的状态，排在之后的写入之前
+     */
+    Future<Snapshot> loadAsync() {
+        return executor.submit(this::load);
+    }
+
+    private static Snapshot apply(Snapshot snapshot, byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        if (type == RECORD_ITEM) {
+            MediaPlayerHelper.MediaInfo info = new MediaPlayerHelper.MediaInfo(readString(in), readString(in));
+            info.desc = readString(in);
+            info.cover = readString(in);
+            info.isAsset = in.readBoolean();
+            info.isVideo = in.readBoolean();
+            info.queueIndex = in.readInt();
+            info.isAuto = false;
+            return new Snapshot(info);
+        }
+        if (type == RECORD_POSITION && snapshot != null) {
+            snapshot.position = in.readInt();
+            snapshot.rate = in.readFloat();
+        }
+        return snapshot;
+    }
+
+    /**
+     * 切换到新的曲目
+     */
+    void recordItem(MediaPlayerHelper.MediaInfo info) {
+        MediaPlayerHelper.MediaInfo copy = new MediaPlayerHelper.MediaInfo(info.title, info.url);
+        copy.desc = info.desc;
+        copy.cover = info.cover;
+        copy.isAsset = info.isAsset;
+        copy.isVideo = info.isVideo;
+        copy.queueIndex = info.queueIndex;
+        executor.execute(() -> {
+            current = new Snapshot(copy);
+            append(encodeItem(copy));
+            sync();
+        });
+    }
+
+    /**
+     * 记录当前进度
+     *
+     * @param sync 是否立即 fsync，否则按时间间隔批量
+     */
+    void recordPosition(int position, float rate, boolean sync) {
+        executor.execute(() -> {
+            if (current == null) return;
+            current.position = position;
+            current.rate = rate;
+            positionRecords++;
+            append(encodePosition(position, rate));
+            if (sync || SystemClock.elapsedRealtime() - lastSyncAt >= SYNC_INTERVAL_MS) {
+                sync();
+            }
+            if (fileLength > COMPACT_THRESHOLD) {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * 写入剩余数据并关闭文件
+     */
+    void flush() {
+        executor.execute(() -> {
+            sync();
+            closeOutput();
+        });
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bytesWritten", bytesWritten);
+        map.put("positionRecords", positionRecords);
+        map.put("syncCount", syncCount);
+        map.put("syncTimeMs", syncNanos / 1_000_000);
+        map.put("compactions", compactions);
+        return map;
+    }
+
+    /**
+     * 超长的 url 无法写入时写一条空曲目，读取时不恢复，而不是把之后的进度记到上一首上
+     */
+    private byte[] encodeItem(MediaPlayerHelper.MediaInfo info) {
+        byte[] record = encodeItem(info.title, info.url, info.desc, info.cover, info);
+        if (record == null) {
+            PlayerTrace.w(TAG, "journal item too long, url length=" + (info.url == null ? 0 : info.url.length()));
+            record = encodeItem(null, null, null, null, info);
+        }
+        return record;
+    }
+
+    private byte[] encodeItem(String title, String url, String desc, String cover, MediaPlayerHelper.MediaInfo info) {
+        try {
+            beginRecord(RECORD_ITEM);
+            writeString(recordOut, truncate(title));
+            writeString(recordOut, url);
+            writeString(recordOut, truncate(desc));
+            writeString(recordOut, truncate(cover));
+            recordOut.writeBoolean(info.isAsset);
+            recordOut.writeBoolean(info.isVideo);
+            recordOut.writeInt(info.queueIndex);
+            return endRecord();
+        } catch (IOException e) {
+            // writeUTF 超过 64K 字节
+            return null;
+        }
+    }
+
+    private byte[] encodePosition(int position, float rate) {
+        try {
+            beginRecord(RECORD_POSITION);
+            recordOut.writeInt(position);
+            recordOut.writeFloat(rate);
+            return endRecord();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void beginRecord(byte type) throws IOException {
+        recordBuffer.reset();
+        // 长度占位
+        recordOut.writeInt(0);
+        recordOut.writeByte(type);
+    }
+
+    /**
+     * @return 超过 {@link #MAX_RECORD_LENGTH} 时返回 null，否则读取时会在这里停止
+     */
+    private byte[] endRecord() throws IOException {
+        byte[] bytes = recordBuffer.toByteArray();
+        int length = bytes.length - 4;
+        if (length > MAX_RECORD_LENGTH) return null;
+        crc.reset();
+        crc.update(bytes, 4, length);
+        recordOut.writeInt((int) crc.getValue());
+        bytes = recordBuffer.toByteArray();
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+        return bytes;
+    }
+
+    private void append(byte[] record) {
+        if (record == null) return;
+        try {
+            if (out == null) {
+                File dir = file.getParentFile();
+                if (dir != null && !dir.exists() && !dir.mkdirs()) return;
+                out = new FileOutputStream(file, true);
+                fileLength = file.length();
+            }
+            out.write(record);
+            fileLength += record.length;
+            bytesWritten += record.length;
+            unsynced = true;
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "journal write: ", e);
+            closeOutput();
+        }
+    }
+
+    private void sync() {
+        lastSyncAt = SystemClock.elapsedRealtime();
+        if (out == null || !unsynced) return;
+        long start = System.nanoTime();
+        try {
+            out.getFD().sync();
+            unsynced = false;
+            syncCount++;
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "journal sync: ", e);
+        }
+        syncNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * 把当前状态写入临时文件后替换原文件
+     */
+    private void compact() {
+        if (current == null) return;
+        closeOutput();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpOut = new FileOutputStream(tmp, false)) {
+            byte[] item = encodeItem(current.info);
+            byte[] position = encodePosition(current.position, current.rate);
+            if (item == null || position == null) return;
+            tmpOut.write(item);
+            tmpOut.write(position);
+            tmpOut.getFD().sync();
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "journal compact: ", e);
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            compactions++;
+        }
+    }
+
+    private void closeOutput() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    static String truncate(String value) {
+        if (value == null || value.length() <= MAX_TEXT_LENGTH) return value;
+        int end = MAX_TEXT_LENGTH;
+        // 不要截断代理对
+        if (Character.isHighSurrogate(value.charAt(end - 1))) end--;
+        return value.substring(0, end);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
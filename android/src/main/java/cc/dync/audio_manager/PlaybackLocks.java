@@ -0,0 +1,142 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 播放期间的 CPU 锁和 WiFi 锁
+ * <p>
+ * CPU 锁在准备、播放和暂停后的 {@link #PAUSE_RELEASE_MS} 内持有；WiFi 锁只有一个，
+ * 按网络加载的引用计数持有，同样在长时间暂停后释放。只在主线程调用。
+ */
+final class PlaybackLocks {
+    private static final String TAG = "audio_manager:playback";
+    // 暂停超过这个时间释放全部锁
+    static final long PAUSE_RELEASE_MS = 30_000;
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private PowerManager.WakeLock wakeLock;
+    private WifiManager.WifiLock wifiLock;
+    private boolean busy;
+    private int networkRefs;
+
+    // 统计
+    private long cpuSince = -1;
+    private long wifiSince = -1;
+    private long cpuHeldMs;
+    private long wifiHeldMs;
+    private long cpuAcquireCount;
+    private long wifiAcquireCount;
+
+    private final Runnable releaseAfterPause = () -> {
+        busy = false;
+        update();
+    };
+
+    PlaybackLocks(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * 开始准备或播放
+     */
+    void onActive() {
+        handler.removeCallbacks(releaseAfterPause);
+        busy = true;
+        update();
+    }
+
+    /**
+     * 暂停或播放完毕，一段时间内没有恢复就释放
+     */
+    void onPaused() {
+        handler.removeCallbacks(releaseAfterPause);
+        handler.postDelayed(releaseAfterPause, PAUSE_RELEASE_MS);
+    }
+
+    /**
+     * 停止，释放全部锁
+     */
+    void onStopped() {
+        handler.removeCallbacks(releaseAfterPause);
+        busy = false;
+        networkRefs = 0;
+        update();
+    }
+
+    /**
+     * 网络数据源开始加载
+     */
+    void acquireNetwork() {
+        networkRefs++;
+        update();
+    }
+
+    /**
+     * 网络数据源加载完毕
+     */
+    void releaseNetwork() {
+        if (networkRefs == 0) return;
+        networkRefs--;
+        update();
+    }
+
+    Map<String, Object> toMap() {
+        long now = SystemClock.elapsedRealtime();
+        Map<String, Object> map = new HashMap<>();
+        map.put("cpuHeldMs", cpuHeldMs + (cpuSince < 0 ? 0 : now - cpuSince));
+        map.put("wifiHeldMs", wifiHeldMs + (wifiSince < 0 ? 0 : now - wifiSince));
+        map.put("cpuAcquires", cpuAcquireCount);
+        map.put("wifiAcquires", wifiAcquireCount);
+        map.put("cpuHeld", cpuSince >= 0);
+        map.put("wifiHeld", wifiSince >= 0);
+        map.put("networkRefs", networkRefs);
+        return map;
+    }
+
+    private void update() {
+        long now = SystemClock.elapsedRealtime();
+        boolean wantCpu = busy;
+        boolean wantWifi = busy && networkRefs > 0;
+
+        if (wantCpu && cpuSince < 0) {
+            if (wakeLock == null) {
+                PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                if (powerManager == null) return;
+                wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+                wakeLock.setReferenceCounted(false);
+            }
+            wakeLock.acquire();
+            cpuSince = now;
+            cpuAcquireCount++;
+        } else if (!wantCpu && cpuSince >= 0) {
+            wakeLock.release();
+            cpuHeldMs += now - cpuSince;
+            cpuSince = -1;
+        }
+
+        if (wantWifi && wifiSince < 0) {
+            if (wifiLock == null) {
+                WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+                if (wifiManager == null) return;
+                wifiLock = wifiManager.createWifiLock(WifiManager.WIFI_MODE_FULL, TAG);
+                wifiLock.setReferenceCounted(false);
+            }
+            wifiLock.acquire();
+            wifiSince = now;
+            wifiAcquireCount++;
+        } else if (!wantWifi && wifiSince >= 0) {
+            wifiLock.release();
+            wifiHeldMs += now - wifiSince;
+            wifiSince = -1;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package cc.dync.audio_manager;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 播放质量统计：起播耗时、缓冲、拖动耗时和错误码
+ * <p>
+ * 所有 on* 方法都在播放器回调线程（主线程）调用，只修改基本类型和预先分配的数组，不产生对象。
+ * {@link #toMap()} 只在查询时调用。
+ */
+final class PlaybackMetrics {
+    private static final long NONE = -1;
+    // 保留最近的错误码个数
+    private static final int RECENT_ERRORS = 16;
+
+    private final LatencyHistogram timeToPrepared = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstAudio = new LatencyHistogram();
+    private final LatencyHistogram rebufferDuration = new LatencyHistogram();
+    private final LatencyHistogram seekLatency = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstFrame = new LatencyHistogram();
+
+    private long startRequestedAt = NONE;
+    private boolean awaitingFirstAudio = false;
+    private boolean awaitingFirstFrame = false;
+    private long bufferingStartedAt = NONE;
+    private long seekRequestedAt = NONE;
+
+    private long starts;
+    private long rebufferCount;
+    private long errorCount;
+    private final int[] recentErrorWhat = new int[RECENT_ERRORS];
+    private final int[] recentErrorExtra = new int[RECENT_ERRORS];
+
+    private static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 开始加载一个新的资源
+     */
+    void onStartRequested() {
+        starts++;
+        startRequestedAt = now();
+        awaitingFirstAudio = true;
+        awaitingFirstFrame = true;
+        bufferingStartedAt = NONE;
+        seekRequestedAt = NONE;
+    }
+
+    void onPrepared() {
+        if (startRequestedAt != NONE) {
+            timeToPrepared.record(now() - startRequestedAt);
+        }
+    }
+
+    /**
+     * 播放器被启动，只有加载后的第一次会计入起播耗时
+     */
+    void onPlaybackStarted() {
+        if (!awaitingFirstAudio || startRequestedAt == NONE) return;
+        awaitingFirstAudio = false;
+        timeToFirstAudio.record(now() - startRequestedAt);
+    }
+
+    /**
+     * 第一帧视频画面已渲染（MEDIA_INFO_VIDEO_RENDERING_START）
+     */
+    void onFirstVideoFrame() {
+        if (!awaitingFirstFrame || startRequestedAt == NONE) return;
+        awaitingFirstFrame = false;
+        timeToFirstFrame.record(now() - startRequestedAt);
+    }
+
+    /**
+     * MEDIA_INFO_BUFFERING_START
+     */
+    void onBufferingStart() {
+        if (bufferingStartedAt != NONE) return;
+        rebufferCount++;
+        bufferingStartedAt = now();
+    }
+
+    /**
+     * MEDIA_INFO_BUFFERING_END
+     */
+    void onBufferingEnd() {
+        if (bufferingStartedAt == NONE) return;
+        rebufferDuration.record(now() - bufferingStartedAt);
+        bufferingStartedAt = NONE;
+    }
+
+    void onSeekRequested() {
+        seekRequestedAt = now();
+    }
+
+    void onSeekComplete() {
+        if (seekRequestedAt == NONE) return;
+        seekLatency.record(now() - seekRequestedAt);
+        seekRequestedAt = NONE;
+    }
+
+    void onError(int what, int extra) {
+        int slot = (int) (errorCount % RECENT_ERRORS);
+        recentErrorWhat[slot] = what;
+        recentErrorExtra[slot] = extra;
+        errorCount++;
+    }
+
+    /**
+     * 当前资源被停止，未完成的计时作废
+     */
+    void onStop() {
+        onBufferingEnd();
+        startRequestedAt = NONE;
+        awaitingFirstAudio = false;
+        awaitingFirstFrame = false;
+        seekRequestedAt = NONE;
+    }
+
+    void reset() {
+        onStop();
+        timeToPrepared.reset();
+        timeToFirstAudio.reset();
+        rebufferDuration.reset();
+        seekLatency.reset();
+        timeToFirstFrame.reset();
+        starts = 0;
+        rebufferCount = 0;
+        errorCount = 0;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("starts", starts);
+        map.put("timeToPrepared", timeToPrepared.toMap());
+        map.put("timeToFirstAudio", timeToFirstAudio.toMap());
+        map.put("rebufferCount", rebufferCount);
+        map.put("rebufferDuration", rebufferDuration.toMap());
+        map.put("seekLatency", seekLatency.toMap());
+        map.put("timeToFirstFrame", timeToFirstFrame.toMap());
+        map.put("errorCount", errorCount);
+
+        List<Map<String, Object>> errors = new ArrayList<>();
+        long first = Math.max(0, errorCount - RECENT_ERRORS);
+        for (long i = first; i < errorCount; i++) {
+            int slot = (int) (i % RECENT_ERRORS);
+            Map<String, Object> error = new HashMap<>();
+            error.put("what", recentErrorWhat[slot]);
+            error.put("extra", recentErrorExtra[slot]);
+            errors.add(error);
+        }
+        map.put("recentErrors", errors);
+        return map;
+    }
+}
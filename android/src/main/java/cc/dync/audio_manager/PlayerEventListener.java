@@ -0,0 +1,102 @@
+package cc.dync.audio_manager;
+
+/**
+ * 播放器事件监听，每种事件一个方法，参数都是基本类型
+ * <p>
+ * 所有方法都有空的默认实现，只需覆盖关心的事件。通过 {@link MediaPlayerHelper#addPlayerEventListener} 注册，
+ * 可以同时注册多个。
+ */
+public interface PlayerEventListener {
+    /**
+     * 准备完毕
+     *
+     * @param duration 总时长(ms)
+     */
+    default void onReady(int duration) {
+    }
+
+    /**
+     * 拖动完成
+     *
+     * @param position 当前位置(ms)
+     */
+    default void onSeekComplete(int position) {
+    }
+
+    /**
+     * 更新流媒体缓存状态
+     *
+     * @param percent 已缓冲百分比
+     */
+    default void onBuffering(int percent) {
+    }
+
+    /**
+     * 播放/暂停状态变化
+     */
+    default void onPlayStatus(boolean playing) {
+    }
+
+    /**
+     * 播放进度回调
+     *
+     * @param position 当前位置(ms)
+     * @param duration 总时长(ms)
+     */
+    default void onProgress(int position, int duration) {
+    }
+
+    default void onError(String message) {
+    }
+
+    default void onNext() {
+    }
+
+    default void onPrevious() {
+    }
+
+    default void onEnded() {
+    }
+
+    default void onStop() {
+    }
+
+    /**
+     * 音视频格式可能不支持
+     */
+    default void onFormatNotSupported(String url) {
+    }
+
+    /**
+     * MediaPlayer.OnInfoListener
+     */
+    default void onInfo(int what, int extra) {
+    }
+
+    default void onVideoSizeChanged(int width, int height) {
+    }
+
+    /**
+     * HLS/DASH 切换了码率
+     *
+     * @param bitrate           新码率(bps)
+     * @param bandwidthEstimate 当前带宽估计(bps)
+     */
+    default void onBitrateChanged(int bitrate, long bandwidthEstimate) {
+    }
+
+    default void onSurfaceCreated() {
+    }
+
+    default void onSurfaceChanged(int format, int width, int height) {
+    }
+
+    default void onSurfaceDestroyed() {
+    }
+
+    /**
+     * SurfaceView 还没初始化
+     */
+    default void onSurfaceNull() {
+    }
+}
@@ -0,0 +1,52 @@
+package cc.dync.audio_manager;
+
+/**
+ * 写时复制的 {@link PlayerEventListener} 数组
+ * <p>
+ * 注册/注销时替换整个数组，分发时直接遍历 {@link #get()} 返回的数组，不加锁也不分配对象。
+ */
+final class PlayerEventListeners {
+    private static final PlayerEventListener[] EMPTY = new PlayerEventListener[0];
+
+    private volatile PlayerEventListener[] listeners = EMPTY;
+
+    /**
+     * @return 是否新注册，重复注册同一个监听返回 false
+     */
+    synchronized boolean add(PlayerEventListener listener) {
+        if (listener == null) return false;
+        PlayerEventListener[] old = listeners;
+        for (PlayerEventListener l : old) {
+            if (l == listener) return false;
+        }
+        PlayerEventListener[] copy = new PlayerEventListener[old.length + 1];
+        System.arraycopy(old, 0, copy, 0, old.length);
+        copy[old.length] = listener;
+        listeners = copy;
+        return true;
+    }
+
+    synchronized boolean remove(PlayerEventListener listener) {
+        PlayerEventListener[] old = listeners;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] != listener) continue;
+            if (old.length == 1) {
+                listeners = EMPTY;
+            } else {
+                PlayerEventListener[] copy = new PlayerEventListener[old.length - 1];
+                System.arraycopy(old, 0, copy, 0, i);
+                System.arraycopy(old, i + 1, copy, i, old.length - i - 1);
+                listeners = copy;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 当前的监听数组，调用方不能修改
+     */
+    PlayerEventListener[] get() {
+        return listeners;
+    }
+}
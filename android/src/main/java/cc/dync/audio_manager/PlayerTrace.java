@@ -0,0 +1,88 @@
+package cc.dync.audio_manager;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 播放器日志与 systrace 封装
+ * <p>
+ * 日志先做级别判断再拼接字符串，release 包只输出 warn 及以上；参数使用基本类型重载，关闭时不会装箱。
+ * section 对应 systrace / Perfetto 中的区间，只在抓取 trace 时有开销。
+ */
+final class PlayerTrace {
+    /**
+     * 最低输出级别
+     */
+    static final int LEVEL = BuildConfig.DEBUG ? Log.VERBOSE : Log.WARN;
+
+    static final String SECTION_PREPARE = "AudioManager#prepare";
+    static final String SECTION_SEEK = "AudioManager#seek";
+    static final String SECTION_START = "AudioManager#start";
+    // 异步区间的 cookie，每次开始都不同，重叠的同名区间不会互相结束
+    private static final AtomicInteger nextCookie = new AtomicInteger(1);
+
+    private PlayerTrace() {
+    }
+
+    static boolean isLoggable(int level) {
+        return level >= LEVEL;
+    }
+
+    static void v(String tag, String msg) {
+        if (isLoggable(Log.VERBOSE)) Log.v(tag, msg);
+    }
+
+    static void v(String tag, String prefix, int value) {
+        if (isLoggable(Log.VERBOSE)) Log.v(tag, prefix + value);
+    }
+
+    static void v(String tag, String prefix, Object value) {
+        if (isLoggable(Log.VERBOSE)) Log.v(tag, prefix + value);
+    }
+
+    static void w(String tag, String msg) {
+        if (isLoggable(Log.WARN)) Log.w(tag, msg);
+    }
+
+    static void w(String tag, String prefix, Object value) {
+        if (isLoggable(Log.WARN)) Log.w(tag, prefix + value);
+    }
+
+    static void e(String tag, String msg, Throwable tr) {
+        if (isLoggable(Log.ERROR)) Log.e(tag, msg, tr);
+    }
+
+    /**
+     * 同步区间，必须在同一线程上与 {@link #endSection()} 成对调用
+     */
+    static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    static void endSection() {
+        Trace.endSection();
+    }
+
+    /**
+     * 跨回调的异步区间，例如 prepareAsync 到 onPrepared，仅 Android Q 及以上有效
+     *
+     * @return 传给 {@link #endAsyncSection(String, int)} 的 cookie，不为 0
+     */
+    static int beginAsyncSection(String name) {
+        int cookie = nextCookie.getAndIncrement();
+        if (cookie == 0) cookie = nextCookie.getAndIncrement();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+        return cookie;
+    }
+
+    static void endAsyncSection(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    }
+}
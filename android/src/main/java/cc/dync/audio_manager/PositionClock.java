@@ -0,0 +1,140 @@
+package cc.dync.audio_manager;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 播放位置时钟
+ * <p>
+ * 在播放、暂停、拖动完成、倍速变化等事件时以播放器的真实位置为锚点，之后用 elapsedRealtime × 倍速推算当前位置，
+ * 只有距上次同步超过 {@link #RESYNC_INTERVAL_MS} 才需要再次读取播放器，避免每次进度回调都走 JNI。
+ */
+final class PositionClock {
+    /**
+     * 与播放器重新同步的间隔
+     */
+    static final long RESYNC_INTERVAL_MS = 5000;
+
+    /**
+     * 毫秒时钟。java.util.function.LongSupplier 需要 API 24，这里自定义一个
+     */
+    interface TimeSource {
+        long now();
+    }
+
+    private final TimeSource timeSource;
+    private long anchorPosition = 0;
+    private long anchorTime = 0;
+    private float speed = 1f;
+    private boolean running = false;
+    private int duration = 0;
+    private long lastSyncAt = 0;
+
+    private long resyncCount = 0;
+    private long lastDrift = 0;
+    private long maxDrift = 0;
+
+    PositionClock() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    PositionClock(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    private long now() {
+        return timeSource.now();
+    }
+
+    void reset() {
+        anchorPosition = 0;
+        anchorTime = now();
+        running = false;
+        duration = 0;
+        lastSyncAt = 0;
+    }
+
+    void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    int duration() {
+        return duration;
+    }
+
+    float speed() {
+        return speed;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 以播放器的真实位置为锚点
+     *
+     * @param position 播放器当前位置(ms)
+     * @param running  之后位置是否随时间前进
+     */
+    void anchor(int position, boolean running) {
+        long now = now();
+        this.anchorPosition = position;
+        this.anchorTime = now;
+        this.running = running;
+        this.lastSyncAt = now;
+    }
+
+    /**
+     * 倍速变化，以当前推算位置为新的锚点
+     */
+    void setSpeed(float speed) {
+        long now = now();
+        anchorPosition = extrapolate(now);
+        anchorTime = now;
+        this.speed = speed;
+    }
+
+    /**
+     * @return 推算出的当前位置(ms)
+     */
+    int position() {
+        return (int) extrapolate(now());
+    }
+
+    /**
+     * @return 是否需要读取播放器位置重新同步
+     */
+    boolean needsResync() {
+        return running && now() - lastSyncAt >= RESYNC_INTERVAL_MS;
+    }
+
+    /**
+     * 用播放器的真实位置校正时钟，并记录校正前的误差
+     */
+    void resync(int position) {
+        long drift = Math.abs(extrapolate(now()) - position);
+        lastDrift = drift;
+        if (drift > maxDrift) maxDrift = drift;
+        resyncCount++;
+        anchor(position, running);
+    }
+
+    private long extrapolate(long now) {
+        long position = anchorPosition;
+        if (running) {
+            position += (long) ((now - anchorTime) * speed);
+        }
+        if (duration > 0 && position > duration) position = duration;
+        return position < 0 ? 0 : position;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("resyncCount", resyncCount);
+        map.put("lastDrift", lastDrift);
+        map.put("maxDrift", maxDrift);
+        return map;
+    }
+}
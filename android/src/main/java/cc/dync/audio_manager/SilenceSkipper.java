@@ -0,0 +1,264 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 跳过静音：在后台从播放位置开始提前解码，按 {@link #WINDOW_MS} 窗口计算 RMS，
+ * 连续低于阈值超过 {@link #MIN_SILENCE_MS} 的片段记为静音段，由播放器在到达时跳过
+ * <p>
+ * 分析最多领先播放位置 {@link #LOOKAHEAD_MS}，之后解码线程等待，不与播放抢资源。
+ * 播放位置跳出已分析范围（拖动）时从新位置重新分析。只分析本地文件和 assets，网络流不会为此再下载一遍。
+ */
+final class SilenceSkipper {
+    private static final String TAG = SilenceSkipper.class.getSimpleName();
+    static final int WINDOW_MS = 20;
+    // -40dBFS
+    private static final double SILENCE_RMS = 32768 * 0.01;
+    static final int MIN_SILENCE_MS = 600;
+    // 静音段两端保留的长度，避免切掉语音的起止
+    private static final int PADDING_MS = 150;
+    static final long LOOKAHEAD_MS = 30_000;
+    // 播放位置超出已分析范围这么多时重新分析
+    private static final int RESTART_GAP_MS = 1000;
+
+    interface Listener {
+        /**
+         * 发现新的静音段，在分析线程调用
+         */
+        void onSilenceFound();
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final Object lock = new Object();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        r.run();
+    }, "audio_manager-silence"));
+
+    // 以下字段由 lock 保护
+    private final TreeMap<Integer, Integer> silences = new TreeMap<>();
+    private String url;
+    private boolean isAsset;
+    private PcmDecoder decoder;
+    private int generation;
+    private long analyzedFromMs;
+    private long analyzedUntilMs;
+    private long playbackMs;
+
+    // 统计
+    private volatile long skippedCount;
+    private volatile long timeSavedMs;
+
+    SilenceSkipper(Context context, Listener listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    /**
+     * 从 positionMs 开始分析，取代之前的分析。网络地址不分析
+     */
+    void start(String url, boolean isAsset, int positionMs) {
+        if (!isAsset && MediaPlayerHelper.isNetworkUrl(url)) {
+            stop();
+            return;
+        }
+        synchronized (lock) {
+            this.url = url;
+            this.isAsset = isAsset;
+            restartLocked(positionMs);
+        }
+    }
+
+    void stop() {
+        synchronized (lock) {
+            url = null;
+            generation++;
+            if (decoder != null) decoder.cancel();
+            decoder = null;
+            silences.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 更新播放位置，跳出已分析范围时重新分析
+     */
+    void onPosition(int positionMs) {
+        synchronized (lock) {
+            if (url == null) return;
+            playbackMs = positionMs;
+            if (positionMs < analyzedFromMs || positionMs > analyzedUntilMs + RESTART_GAP_MS) {
+                restartLocked(positionMs);
+            } else {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return 包含或在 positionMs 之后的第一个静音段 {start, end}，没有时返回 null
+     */
+    int[] nextSilence(int positionMs) {
+        synchronized (lock) {
+            Map.Entry<Integer, Integer> entry = silences.floorEntry(positionMs);
+            if (entry == null || entry.getValue() <= positionMs) {
+                entry = silences.ceilingEntry(positionMs);
+            }
+            return entry == null ? null : new int[]{entry.getKey(), entry.getValue()};
+        }
+    }
+
+    void onSkipped(int skippedMs) {
+        skippedCount++;
+        timeSavedMs += skippedMs;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("silencesSkipped", skippedCount);
+        map.put("timeSavedMs", timeSavedMs);
+        synchronized (lock) {
+            map.put("silencesFound", silences.size());
+            map.put("analyzedAheadMs", Math.max(0, analyzedUntilMs - playbackMs));
+        }
+        return map;
+    }
+
+    private void restartLocked(int positionMs) {
+        generation++;
+        if (decoder != null) decoder.cancel();
+        silences.clear();
+        analyzedFromMs = positionMs;
+        analyzedUntilMs = positionMs;
+        playbackMs = positionMs;
+        lock.notifyAll();
+
+        int gen = generation;
+        String source = url;
+        boolean asset = isAsset;
+        PcmDecoder pcmDecoder;
+        AssetFileDescriptor descriptor = null;
+        try {
+            if (asset) {
+                descriptor = context.getAssets().openFd(source);
+                pcmDecoder = new PcmDecoder(descriptor);
+            } else {
+                pcmDecoder = new PcmDecoder(source);
+            }
+        } catch (IOException e) {
+            PlayerTrace.w(TAG, "open failed: ", e);
+            return;
+        }
+        decoder = pcmDecoder;
+        AssetFileDescriptor assetDescriptor = descriptor;
+        executor.execute(() -> {
+            try {
+                Analyzer analyzer = new Analyzer(gen);
+                pcmDecoder.decode(analyzer, positionMs * 1000L);
+                analyzer.finish();
+            } catch (IOException e) {
+                PlayerTrace.w(TAG, "analyze failed: ", e);
+            } finally {
+                if (assetDescriptor != null) {
+                    try {
+                        assetDescriptor.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 在分析线程中逐窗口计算 RMS
+     */
+    private final class Analyzer implements PcmDecoder.Sink {
+        private final int gen;
+        private int channelCount = 1;
+        private int sampleRate;
+        private int windowFrames;
+        private int framesInWindow;
+        private double sumSquares;
+        private long silenceStartMs = -1;
+        private long lastWindowEndMs;
+
+        Analyzer(int gen) {
+            this.gen = gen;
+        }
+
+        @Override
+        public void onFormat(int sampleRate, int channelCount, long durationUs) {
+            this.sampleRate = sampleRate;
+            this.channelCount = Math.max(1, channelCount);
+            this.windowFrames = Math.max(1, sampleRate * WINDOW_MS / 1000);
+        }
+
+        @Override
+        public boolean onPcm(short[] samples, int count, long presentationUs) {
+            long chunkStartMs = presentationUs / 1000;
+            int frames = count / channelCount;
+            for (int f = 0; f < frames; f++) {
+                int base = f * channelCount;
+                for (int c = 0; c < channelCount; c++) {
+                    double v = samples[base + c];
+                    sumSquares += v * v;
+                }
+                if (++framesInWindow < windowFrames) continue;
+                double rms = Math.sqrt(sumSquares / (windowFrames * channelCount));
+                long windowEndMs = chunkStartMs + (f + 1) * 1000L / sampleRate;
+                lastWindowEndMs = windowEndMs;
+                if (rms < SILENCE_RMS) {
+                    if (silenceStartMs < 0) silenceStartMs = windowEndMs - WINDOW_MS;
+                } else if (silenceStartMs >= 0) {
+                    addSilence(silenceStartMs, windowEndMs - WINDOW_MS);
+                    silenceStartMs = -1;
+                }
+                framesInWindow = 0;
+                sumSquares = 0;
+            }
+            long chunkEndMs = chunkStartMs + frames * 1000L / Math.max(1, sampleRate);
+            synchronized (lock) {
+                if (gen != generation) return false;
+                analyzedUntilMs = chunkEndMs;
+                // 领先足够多时等待播放追上
+                while (gen == generation && analyzedUntilMs - playbackMs > LOOKAHEAD_MS) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+                return gen == generation;
+            }
+        }
+
+        /**
+         * 解码结束，一直持续到结尾的静音段也要记录
+         */
+        void finish() {
+            if (silenceStartMs >= 0) {
+                addSilence(silenceStartMs, lastWindowEndMs);
+                silenceStartMs = -1;
+            }
+        }
+
+        private void addSilence(long startMs, long endMs) {
+            if (endMs - startMs < MIN_SILENCE_MS) return;
+            synchronized (lock) {
+                if (gen != generation) return;
+                silences.put((int) (startMs + PADDING_MS), (int) (endMs - PADDING_MS));
+            }
+            listener.onSilenceFound();
+        }
+    }
+}
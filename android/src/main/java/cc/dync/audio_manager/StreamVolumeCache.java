@@ -0,0 +1,111 @@
+package cc.dync.audio_manager;
+
+import android.media.AudioManager;
+
+/**
+ * 媒体音量缓存
+ * <p>
+ * 读取优先走内存，只有在被音量变化或音频路由变化事件置为失效后才会重新调用 {@link AudioManager}。
+ */
+final class StreamVolumeCache {
+    private static final int INVALID = -1;
+    // 没有 AudioManager 时的默认最大音量
+    private static final int DEFAULT_MAX_VOLUME = 15;
+
+    /**
+     * 实际的音量读写，一般是 {@link #of(AudioManager, int)}，测试时替换
+     */
+    interface Stream {
+        int getVolume();
+
+        int getMaxVolume();
+
+        void setVolume(int volume);
+    }
+
+    private final Stream stream;
+    private int volume = INVALID;
+    private int maxVolume = INVALID;
+    private int binderReads = 0;
+
+    StreamVolumeCache(Stream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * @return audioManager 为 null 时返回 null
+     */
+    static Stream of(AudioManager audioManager, int streamType) {
+        if (audioManager == null) return null;
+        return new Stream() {
+            @Override
+            public int getVolume() {
+                return audioManager.getStreamVolume(streamType);
+            }
+
+            @Override
+            public int getMaxVolume() {
+                return audioManager.getStreamMaxVolume(streamType);
+            }
+
+            @Override
+            public void setVolume(int volume) {
+                audioManager.setStreamVolume(streamType, volume, 0);
+                if (volume < 1) {
+                    audioManager.adjustStreamVolume(streamType, AudioManager.ADJUST_LOWER, 0);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return 当前音量，没有 AudioManager 时返回 -1
+     */
+    int volume() {
+        if (volume == INVALID && stream != null) {
+            binderReads++;
+            volume = stream.getVolume();
+        }
+        return volume;
+    }
+
+    int maxVolume() {
+        if (maxVolume == INVALID) {
+            if (stream != null) {
+                binderReads++;
+                maxVolume = stream.getMaxVolume();
+            }
+            if (maxVolume <= 0) maxVolume = DEFAULT_MAX_VOLUME;
+        }
+        return maxVolume;
+    }
+
+    /**
+     * @return 当前音量占最大音量的比例，0~1，未知时返回负数
+     */
+    double ratio() {
+        return ((double) volume()) / maxVolume();
+    }
+
+    /**
+     * 音量变化后调用
+     */
+    void invalidateVolume() {
+        volume = INVALID;
+    }
+
+    /**
+     * 音频路由变化（蓝牙、耳机等）后调用，最大音量也可能改变
+     */
+    void invalidateRoute() {
+        volume = INVALID;
+        maxVolume = INVALID;
+    }
+
+    /**
+     * 实际发生的 AudioManager 调用次数
+     */
+    int binderReadCount() {
+        return binderReads;
+    }
+}
@@ -0,0 +1,420 @@
+package cc.dync.audio_manager;
+
+import android.media.MediaDataSource;
+import android.os.Build;
+import android.os.SystemClock;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 {@link BufferingPolicy} 控制下载的网络数据源
+ * <p>
+ * 后台线程通过 HTTP Range 请求把数据写入环形缓冲区，缓冲超过 maxBuffer 时暂停下载，低于 minBuffer 时恢复。
+ * MediaPlayer 读取的数据还没下载到时，{@link #readAt} 会阻塞直到缓冲达到起播/卡顿恢复阈值，并通过 {@link Listener} 报告卡顿。
+ * 读取位置超出缓冲区（拖动）时从新位置重新请求。
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+final class StreamingDataSource extends MediaDataSource {
+    private static final String TAG = StreamingDataSource.class.getSimpleName();
+
+    interface Listener {
+        /**
+         * 读取被阻塞 / 恢复，在读取线程调用
+         */
+        void onStallChanged(boolean stalled);
+
+        /**
+         * 已下载百分比变化，在下载线程调用
+         */
+        void onBufferedPercent(int percent);
+    }
+
+    // 时长未知时假设的码率：128kbps
+    private static final double DEFAULT_BYTES_PER_MS = 16;
+    // 计算环形缓冲区大小时假设的最大码率：320kbps
+    private static final double MAX_BYTES_PER_MS = 40;
+    // 已播放数据保留的大小，用于 MediaPlayer 回读
+    private static final int BACK_BUFFER_BYTES = 512 * 1024;
+    private static final int MAX_CAPACITY = 16 * 1024 * 1024;
+    // 读取位置超出已下载数据这么多时直接从新位置请求，而不是等待下载
+    static final int SEEK_AHEAD_BYTES = 256 * 1024;
+    static final int CHUNK_SIZE = 16 * 1024;
+    // readAt 最长阻塞时间
+    private static final long STALL_TIMEOUT_MS = 30_000;
+    private static final int MAX_RETRIES = 5;
+
+    private final String url;
+    private final HttpClient client;
+    private final BufferingPolicy policy;
+    private final Listener listener;
+    private final byte[] ring;
+    private final Object lock = new Object();
+    private final Thread loader;
+
+    // 以下字段由 lock 保护
+    private long windowStart = 0;
+    private long windowEnd = 0;
+    private long readPosition = 0;
+    private long contentLength = -1;
+    private boolean headersReceived = false;
+    private boolean eof = false;
+    private boolean closed = false;
+    private boolean prepared = false;
+    // 准备前只下载文件头，见构造方法
+    private boolean headOnly;
+    private int generation = 0;
+    private IOException error;
+    private double bytesPerMs = DEFAULT_BYTES_PER_MS;
+
+    // 统计
+    private volatile long bytesFetched = 0;
+    private volatile long stallCount = 0;
+    private volatile long requestCount = 0;
+    private volatile double throughputBytesPerMs = 0;
+
+    /**
+     * @param headOnly 起播位置不在开头时为 true：准备完成前只下载播放器探测文件头所需的数据，
+     *                 避免把随后会被跳过的开头部分缓冲满。在下载线程启动前设置，第一次请求就受限制
+     */
+    StreamingDataSource(HttpClient client, String url, BufferingPolicy policy, boolean headOnly, Listener listener) {
+        this.client = client;
+        this.url = url;
+        this.policy = policy;
+        this.headOnly = headOnly;
+        this.listener = listener;
+        long capacity = (long) (policy.maxBufferMs * MAX_BYTES_PER_MS) + BACK_BUFFER_BYTES;
+        this.ring = new byte[(int) Math.min(capacity, MAX_CAPACITY)];
+        this.loader = new Thread(this::loadLoop, "audio_manager-loader");
+        this.loader.start();
+    }
+
+    /**
+     * 准备完毕后用真实时长校正码率估计，此后卡顿使用 bufferForPlaybackAfterRebuffer 阈值
+     */
+    void onPrepared(int durationMs) {
+        synchronized (lock) {
+            prepared = true;
+            headOnly = false;
+            if (durationMs > 0 && contentLength > 0) {
+                bytesPerMs = (double) contentLength / durationMs;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size <= 0) return 0;
+        boolean stalled = false;
+        try {
+            synchronized (lock) {
+                awaitHeaders();
+                if (contentLength >= 0 && position >= contentLength) return -1;
+                readPosition = position;
+                if (position < windowStart || position > windowEnd + SEEK_AHEAD_BYTES) {
+                    restartAt(position);
+                }
+                if (position >= windowEnd) {
+                    stalled = true;
+                    stallCount++;
+                    if (listener != null) listener.onStallChanged(true);
+                    long thresholdMs = headOnly ? 0 : prepared ? policy.bufferForPlaybackAfterRebufferMs() : policy.bufferForPlaybackMs();
+                    long target = stallTarget(position, Math.max(size, (long) (thresholdMs * bytesPerMs)), maxBufferedBytes(), contentLength);
+                    long deadline = SystemClock.elapsedRealtime() + STALL_TIMEOUT_MS;
+                    // 唤醒可能因缓冲已满而暂停的下载线程
+                    lock.notifyAll();
+                    while (windowEnd < target && !eof && !closed && error == null) {
+                        if (windowStart > position) restartAt(position);
+                        long wait = deadline - SystemClock.elapsedRealtime();
+                        if (wait <= 0) throw new IOException("buffering timeout");
+                        lock.wait(wait);
+                    }
+                    if (closed) throw new IOException("closed");
+                    if (windowEnd <= position) {
+                        if (error != null) throw error;
+                        return -1;
+                    }
+                }
+                int length = (int) Math.min(size, windowEnd - position);
+                int start = (int) (position % ring.length);
+                int first = Math.min(length, ring.length - start);
+                System.arraycopy(ring, start, buffer, offset, first);
+                if (first < length) {
+                    System.arraycopy(ring, 0, buffer, offset + first, length - first);
+                }
+                readPosition = position + length;
+                // 下载线程可能在等待缓冲被消耗
+                lock.notifyAll();
+                return length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            if (stalled && listener != null) listener.onStallChanged(false);
+        }
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        synchronized (lock) {
+            try {
+                awaitHeaders();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            return contentLength;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        loader.interrupt();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bytesFetched", bytesFetched);
+        map.put("requests", requestCount);
+        map.put("stalls", stallCount);
+        map.put("throughputKbps", (long) (throughputBytesPerMs * 8));
+        map.put("policy", policy.toMap());
+        return map;
+    }
+
+    /**
+     * 需要持有 lock
+     */
+    private void awaitHeaders() throws InterruptedException, IOException {
+        long deadline = SystemClock.elapsedRealtime() + STALL_TIMEOUT_MS;
+        while (!headersReceived && !closed && error == null) {
+            long wait = deadline - SystemClock.elapsedRealtime();
+            if (wait <= 0) throw new IOException("connect timeout");
+            lock.wait(wait);
+        }
+        if (error != null && !headersReceived) throw error;
+    }
+
+    /**
+     * 需要持有 lock
+     */
+    private void restartAt(long position) {
+        windowStart = position;
+        windowEnd = position;
+        eof = false;
+        error = null;
+        generation++;
+        lock.notifyAll();
+    }
+
+    /**
+     * 需要持有 lock
+     */
+    private boolean shouldPause() {
+        long buffered = windowEnd - readPosition;
+        if (headOnly) return buffered >= SEEK_AHEAD_BYTES;
+        return buffered >= maxBufferedBytes();
+    }
+
+    /**
+     * 需要持有 lock
+     *
+     * @return 下载线程最多领先读取位置的字节数，码率高于环形缓冲设计值时受缓冲大小限制
+     */
+    private long maxBufferedBytes() {
+        return Math.min((long) (policy.maxBufferMs * bytesPerMs), ring.length - BACK_BUFFER_BYTES);
+    }
+
+    /**
+     * 卡顿后需要等到的缓冲位置。不能超过下载线程暂停的位置，否则永远等不到
+     *
+     * @param wantedBytes 按策略希望缓冲的字节数
+     * @param maxBytes    {@link #maxBufferedBytes()}
+     */
+    static long stallTarget(long position, long wantedBytes, long maxBytes, long contentLength) {
+        long target = position + Math.max(1, Math.min(wantedBytes, maxBytes));
+        if (contentLength >= 0) target = Math.min(target, contentLength);
+        return target;
+    }
+
+    /**
+     * 需要持有 lock
+     */
+    private boolean shouldResume() {
+        long buffered = windowEnd - readPosition;
+        if (headOnly) return buffered < SEEK_AHEAD_BYTES / 2;
+        return buffered < (long) (policy.minBufferMs() * bytesPerMs);
+    }
+
+    private void loadLoop() {
+        int retries = 0;
+        byte[] chunk = new byte[CHUNK_SIZE];
+        while (true) {
+            long offset;
+            int gen;
+            synchronized (lock) {
+                try {
+                    while (!closed && (eof || shouldPause())) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) return;
+                offset = windowEnd;
+                gen = generation;
+            }
+
+            HttpURLConnection connection = null;
+            long fetchedBefore = bytesFetched;
+            try {
+                requestCount++;
+                connection = client.open(url, offset);
+                int code = connection.getResponseCode();
+                if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("HTTP " + code);
+                }
+                long length = connection.getContentLength();
+                InputStream in = connection.getInputStream();
+                if (code == HttpURLConnection.HTTP_OK && offset > 0) {
+                    // 服务器不支持 Range，跳过已有数据
+                    long skipped = 0;
+                    while (skipped < offset) {
+                        long n = in.skip(offset - skipped);
+                        if (n <= 0) throw new IOException("skip failed");
+                        skipped += n;
+                    }
+                }
+                synchronized (lock) {
+                    if (!headersReceived) {
+                        contentLength = length < 0 ? -1 : (code == HttpURLConnection.HTTP_PARTIAL ? offset + length : length);
+                        headersReceived = true;
+                        lock.notifyAll();
+                    }
+                }
+                retries = 0;
+                if (!readBody(in, chunk, gen)) continue;
+            } catch (IOException e) {
+                synchronized (lock) {
+                    if (closed) return;
+                    if (gen != generation) continue;
+                    if (++retries > MAX_RETRIES) {
+                        PlayerTrace.w(TAG, "load failed: ", e);
+                        error = e;
+                        lock.notifyAll();
+                        try {
+                            // 等待下一次拖动重新请求
+                            while (!closed && gen == generation) lock.wait();
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                        retries = 0;
+                        continue;
+                    }
+                }
+                SystemClock.sleep(500L * retries);
+            } finally {
+                client.onBytesRead(bytesFetched - fetchedBefore);
+                if (connection != null) connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return false 表示请求被新的拖动位置取代
+     */
+    private boolean readBody(InputStream in, byte[] chunk, int gen) throws IOException {
+        long activeStart = SystemClock.elapsedRealtime();
+        long activeBytes = 0;
+        while (true) {
+            int n = in.read(chunk);
+            synchronized (lock) {
+                if (closed || gen != generation) return false;
+                if (n < 0) {
+                    eof = true;
+                    if (contentLength < 0) contentLength = windowEnd;
+                    lock.notifyAll();
+                    break;
+                }
+                write(chunk, n);
+                bytesFetched += n;
+                activeBytes += n;
+                long elapsed = SystemClock.elapsedRealtime() - activeStart;
+                if (elapsed >= 1_000) {
+                    updateThroughput(activeBytes, elapsed);
+                    activeStart = SystemClock.elapsedRealtime();
+                    activeBytes = 0;
+                }
+                lock.notifyAll();
+                if (shouldPause()) {
+                    // 缓冲已满，等待播放消耗到 minBuffer 以下再继续
+                    try {
+                        while (!closed && gen == generation && !shouldResume()) {
+                            lock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                    activeStart = SystemClock.elapsedRealtime();
+                    activeBytes = 0;
+                    if (closed || gen != generation) return false;
+                }
+            }
+            notifyPercent();
+        }
+        notifyPercent();
+        return true;
+    }
+
+    /**
+     * 需要持有 lock
+     */
+    private void write(byte[] chunk, int n) {
+        int start = (int) (windowEnd % ring.length);
+        int first = Math.min(n, ring.length - start);
+        System.arraycopy(chunk, 0, ring, start, first);
+        if (first < n) {
+            System.arraycopy(chunk, first, ring, 0, n - first);
+        }
+        windowEnd += n;
+        if (windowEnd - windowStart > ring.length) {
+            windowStart = windowEnd - ring.length;
+        }
+    }
+
+    /**
+     * 需要持有 lock
+     */
+    private void updateThroughput(long bytes, long elapsedMs) {
+        double sample = (double) bytes / elapsedMs;
+        // 指数加权平均
+        throughputBytesPerMs = throughputBytesPerMs == 0 ? sample : throughputBytesPerMs * 0.7 + sample * 0.3;
+        policy.adapt(throughputBytesPerMs, bytesPerMs);
+    }
+
+    private int lastPercent = -1;
+
+    private void notifyPercent() {
+        if (listener == null) return;
+        int percent;
+        synchronized (lock) {
+            if (contentLength <= 0) return;
+            percent = (int) (100 * windowEnd / contentLength);
+        }
+        if (percent != lastPercent) {
+            lastPercent = percent;
+            listener.onBufferedPercent(percent);
+        }
+    }
+}
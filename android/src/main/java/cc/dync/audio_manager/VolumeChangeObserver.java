@@ -1,10 +1,13 @@
 package cc.dync.audio_manager;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.media.AudioDeviceCallback;
+import android.media.AudioDeviceInfo;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
@@ -12,11 +15,26 @@ import java.lang.ref.WeakReference;
 
 /**
  * 系统音量监听
+ * <p>
+ * 通过 {@link ContentObserver} 监听系统音量设置。同一帧窗口内的多次变化会被合并为一次，
+ * 且只有音量值真正变化时才会通知 {@link VolumeChangeListener}。{@link #setVolume(double)} 同样按帧窗口合并。
+ * 注册后音量读取走 {@link StreamVolumeCache}，由音量变化和音频路由变化事件使缓存失效。
  */
 public class VolumeChangeObserver {
     public final static String TAG = "volume_watcher";
-    private static final String VOLUME_CHANGED_ACTION = "android.media.VOLUME_CHANGED_ACTION";
-    private static final String EXTRA_VOLUME_STREAM_TYPE = "android.media.EXTRA_VOLUME_STREAM_TYPE";
+    /**
+     * 事件合并的时间窗口（约一帧）
+     */
+    static final long FRAME_WINDOW_MS = 16;
+
+    /**
+     * 延迟执行，一般是主线程的 Handler，测试时替换
+     */
+    interface Scheduler {
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+    }
 
     public interface VolumeChangeListener {
         /**
@@ -28,27 +46,67 @@ public class VolumeChangeObserver {
     }
 
     private VolumeChangeListener mVolumeChangeListener;
-    private VolumeBroadcastReceiver mVolumeBroadcastReceiver;
+    private VolumeContentObserver mVolumeContentObserver;
     private Context mContext;
     private AudioManager mAudioManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Scheduler mScheduler;
     private boolean mRegistered = false;
-    // 最大音量
-    private int mMaxVolume;
+    private final StreamVolumeCache.Stream mStream;
+    private final StreamVolumeCache mVolumeCache;
+    private RouteCallback mRouteCallback;
+
+    // 最近一次通知出去的音量和最大音量，-1 表示还未通知过
+    private int mLastDeliveredVolume = -1;
+    private int mLastDeliveredMax = -1;
+    private boolean mDispatchScheduled = false;
+    // 等待写入的音量，-1 表示没有
+    private int mPendingVolume = -1;
+
+    // 事件计数，便于测试
+    private int mReceivedEvents = 0;
+    private int mDeliveredEvents = 0;
+    private int mVolumeRequests = 0;
+    private int mVolumeWrites = 0;
 
     public VolumeChangeObserver(Context context) {
         mContext = context;
         mAudioManager = (AudioManager) context.getApplicationContext().getSystemService(Context.AUDIO_SERVICE);
-        mMaxVolume = mAudioManager != null ? mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC) : 15;
+        mStream = StreamVolumeCache.of(mAudioManager, AudioManager.STREAM_MUSIC);
+        mVolumeCache = new StreamVolumeCache(mStream);
+        mScheduler = new Scheduler() {
+            @Override
+            public void postDelayed(Runnable task, long delayMs) {
+                mHandler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable task) {
+                mHandler.removeCallbacks(task);
+            }
+        };
+    }
+
+    /**
+     * 不注册系统监听，直接驱动 {@link #onSettingsChanged()} 等方法，测试用
+     */
+    VolumeChangeObserver(StreamVolumeCache.Stream stream, Scheduler scheduler) {
+        mStream = stream;
+        mVolumeCache = new StreamVolumeCache(stream);
+        mScheduler = scheduler;
     }
 
     /**
-     * 获取当前媒体音量
+     * 获取当前媒体音量，注册监听后直接读取缓存
      *
      * @return
      */
     public double getCurrentMusicVolume() {
-        int currentVolume = mAudioManager != null ? mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC) : -1;
-        return ((double) currentVolume) / mMaxVolume;
+        if (!mRegistered) {
+            // 没有监听时无法得知音量是否过期，最大音量只随路由变化，仍用缓存
+            mVolumeCache.invalidateVolume();
+        }
+        return mVolumeCache.ratio();
     }
 
     /**
@@ -61,7 +119,7 @@ public class VolumeChangeObserver {
     }
 
     /**
-     * 设置音量
+     * 设置音量，同一帧窗口内的多次调用只会写入最后一次的值
      *
      * @param value
      */
@@ -74,19 +132,30 @@ public class VolumeChangeObserver {
         } else {
             actualValue = value;
         }
-        int volume = (int) Math.round(actualValue * mMaxVolume);
-        if (mAudioManager != null) {
+        mVolumeRequests++;
+        boolean scheduled = mPendingVolume >= 0;
+        mPendingVolume = (int) Math.round(actualValue * mVolumeCache.maxVolume());
+        if (!scheduled) {
+            mScheduler.postDelayed(mApplyVolume, FRAME_WINDOW_MS);
+        }
+    }
+
+    private final Runnable mApplyVolume = new Runnable() {
+        @Override
+        public void run() {
+            int volume = mPendingVolume;
+            mPendingVolume = -1;
+            if (volume < 0 || mStream == null) return;
+            mVolumeWrites++;
+            mVolumeCache.invalidateVolume();
             try {
                 // 设置音量
-                mAudioManager.setStreamVolume(AudioManager.STREAM_MUSIC, volume, 0);
-                if (volume < 1) {
-                    mAudioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_LOWER, 0);
-                }
+                mStream.setVolume(volume);
             } catch (Exception ex) {
                 //禁止日志
             }
         }
-    }
+    };
 
     public VolumeChangeListener getVolumeChangeListener() {
         return mVolumeChangeListener;
@@ -97,61 +166,162 @@ public class VolumeChangeObserver {
     }
 
     /**
-     * 注册音量广播接收器
-     *
-     * @return
+     * 注册系统音量设置监听
      */
-    public void registerReceiver() {
-        mVolumeBroadcastReceiver = new VolumeBroadcastReceiver(this);
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(VOLUME_CHANGED_ACTION);
-        mContext.registerReceiver(mVolumeBroadcastReceiver, filter);
+    public void registerObserver() {
+        if (mRegistered) return;
+        mVolumeContentObserver = new VolumeContentObserver(this, mHandler);
+        mContext.getContentResolver().registerContentObserver(Settings.System.CONTENT_URI, true, mVolumeContentObserver);
+        if (mAudioManager != null) {
+            mRouteCallback = new RouteCallback(this);
+            mAudioManager.registerAudioDeviceCallback(mRouteCallback, mHandler);
+        }
+        mVolumeCache.invalidateRoute();
         mRegistered = true;
     }
 
     /**
-     * 解注册音量广播监听器，需要与 registerReceiver 成对使用
+     * 解注册系统音量设置监听，需要与 registerObserver 成对使用
      */
-    public void unregisterReceiver() {
+    public void unregisterObserver() {
         if (mRegistered) {
             try {
-                mContext.unregisterReceiver(mVolumeBroadcastReceiver);
+                mContext.getContentResolver().unregisterContentObserver(mVolumeContentObserver);
+                if (mRouteCallback != null) {
+                    mAudioManager.unregisterAudioDeviceCallback(mRouteCallback);
+                    mRouteCallback = null;
+                }
+                mScheduler.removeCallbacks(mDispatchVolume);
+                mDispatchScheduled = false;
                 mVolumeChangeListener = null;
                 mRegistered = false;
             } catch (Exception e) {
-                Log.e(TAG, "unregisterReceiver: ", e);
+                Log.e(TAG, "unregisterObserver: ", e);
             }
         }
     }
 
-    private static class VolumeBroadcastReceiver extends BroadcastReceiver {
+    /**
+     * 收到一次系统设置变化，在帧窗口结束时统一读取音量
+     */
+    void onSettingsChanged() {
+        mReceivedEvents++;
+        mVolumeCache.invalidateVolume();
+        scheduleDispatch();
+    }
+
+    /**
+     * 音频输出设备变化，音量和最大音量都可能改变
+     */
+    void onRouteChanged() {
+        mReceivedEvents++;
+        mVolumeCache.invalidateRoute();
+        scheduleDispatch();
+    }
+
+    private void scheduleDispatch() {
+        if (mDispatchScheduled) return;
+        mDispatchScheduled = true;
+        mScheduler.postDelayed(mDispatchVolume, FRAME_WINDOW_MS);
+    }
+
+    private final Runnable mDispatchVolume = new Runnable() {
+        @Override
+        public void run() {
+            mDispatchScheduled = false;
+            VolumeChangeListener listener = mVolumeChangeListener;
+            if (listener == null || mStream == null) return;
+
+            int volume = mVolumeCache.volume();
+            if (volume < 0) return;
+            int max = mVolumeCache.maxVolume();
+            //音量比例没有变化则不通知，路由变化时 index 不变但最大音量可能改变
+            if (volume == mLastDeliveredVolume && max == mLastDeliveredMax) return;
+            mLastDeliveredVolume = volume;
+            mLastDeliveredMax = max;
+            mDeliveredEvents++;
+            listener.onVolumeChanged(((double) volume) / max);
+
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "volume=" + volume);
+            }
+        }
+    };
+
+    /**
+     * 收到的原始变化事件数
+     */
+    int getReceivedEventCount() {
+        return mReceivedEvents;
+    }
+
+    /**
+     * 实际通知给 listener 的事件数
+     */
+    int getDeliveredEventCount() {
+        return mDeliveredEvents;
+    }
+
+    /**
+     * {@link #setVolume(double)} 的调用次数
+     */
+    int getVolumeRequestCount() {
+        return mVolumeRequests;
+    }
+
+    /**
+     * 实际写入系统的音量次数
+     */
+    int getVolumeWriteCount() {
+        return mVolumeWrites;
+    }
+
+    /**
+     * 实际发生的 AudioManager 音量读取次数
+     */
+    int getVolumeReadCount() {
+        return mVolumeCache.binderReadCount();
+    }
+
+    private static class VolumeContentObserver extends ContentObserver {
         private WeakReference<VolumeChangeObserver> mObserverWeakReference;
 
-        public VolumeBroadcastReceiver(VolumeChangeObserver volumeChangeObserver) {
+        VolumeContentObserver(VolumeChangeObserver volumeChangeObserver, Handler handler) {
+            super(handler);
             mObserverWeakReference = new WeakReference<>(volumeChangeObserver);
         }
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            //媒体音量改变才通知
-            if (VOLUME_CHANGED_ACTION.equals(intent.getAction()) && (intent.getIntExtra(EXTRA_VOLUME_STREAM_TYPE, -1) == AudioManager.STREAM_MUSIC)) {
-                VolumeChangeObserver observer = mObserverWeakReference.get();
-                if (observer != null) {
-                    VolumeChangeListener listener = observer.getVolumeChangeListener();
-                    if (listener != null) {
-                        double volume = observer.getCurrentMusicVolume();
-                        if (volume >= 0) {
-                            listener.onVolumeChanged(volume);
-                        }
-
-                        if (BuildConfig.DEBUG) {
-                            Log.d(TAG, "volume=" + volume);
-                        }
-                    }
-                }
+        public void onChange(boolean selfChange) {
+            VolumeChangeObserver observer = mObserverWeakReference.get();
+            if (observer != null) {
+                observer.onSettingsChanged();
             }
+        }
+    }
+
+    private static class RouteCallback extends AudioDeviceCallback {
+        private WeakReference<VolumeChangeObserver> mObserverWeakReference;
 
+        RouteCallback(VolumeChangeObserver volumeChangeObserver) {
+            mObserverWeakReference = new WeakReference<>(volumeChangeObserver);
+        }
+
+        @Override
+        public void onAudioDevicesAdded(AudioDeviceInfo[] addedDevices) {
+            VolumeChangeObserver observer = mObserverWeakReference.get();
+            if (observer != null) {
+                observer.onRouteChanged();
+            }
+        }
+
+        @Override
+        public void onAudioDevicesRemoved(AudioDeviceInfo[] removedDevices) {
+            VolumeChangeObserver observer = mObserverWeakReference.get();
+            if (observer != null) {
+                observer.onRouteChanged();
+            }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,229 @@
+package cc.dync.audio_manager;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 生成用于进度条绘制的波形峰值
+ * <p>
+ * PCM 经 {@link PcmDecoder} 分块流过 {@link PeakReducer}，每个桶只保留最小值和最大值，
+ * 结果为 N 个桶的 [min, max] 16 位小端序字节数组，按 url 缓存在磁盘上。同一时间只解码一个文件。
+ */
+final class WaveformGenerator {
+    private static final String TAG = WaveformGenerator.class.getSimpleName();
+    private static final String CACHE_DIR = "audio_manager/waveform";
+    static final int MAX_BUCKETS = 8192;
+
+    interface Callback {
+        /**
+         * 主线程调用
+         *
+         * @param peaks 失败时为 null
+         */
+        void onWaveform(byte[] peaks, String error);
+    }
+
+    private final Context context;
+    private final File cacheDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        r.run();
+    }, "audio_manager-waveform"));
+
+    // 统计，只在 executor 线程写入
+    private volatile long generatedCount;
+    private volatile long cacheHitCount;
+    private volatile long lastDecodeMs;
+    private volatile double lastRealtimeFactor;
+
+    WaveformGenerator(Context context) {
+        this.context = context;
+        this.cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * @param url     本地路径、网络地址或 asset 名
+     * @param isAsset 是否是 asset
+     * @param buckets 桶数量
+     */
+    void generate(String url, boolean isAsset, int buckets, Callback callback) {
+        int count = Math.max(1, Math.min(buckets, MAX_BUCKETS));
+        executor.execute(() -> {
+            try {
+                byte[] peaks = load(url, isAsset, count);
+                mainHandler.post(() -> callback.onWaveform(peaks, null));
+            } catch (IOException | RuntimeException e) {
+                PlayerTrace.w(TAG, "waveform failed: ", e);
+                mainHandler.post(() -> callback.onWaveform(null, e.toString()));
+            }
+        });
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("generated", generatedCount);
+        map.put("cacheHits", cacheHitCount);
+        map.put("lastDecodeMs", lastDecodeMs);
+        map.put("lastRealtimeFactor", lastRealtimeFactor);
+        return map;
+    }
+
+    private byte[] load(String url, boolean isAsset, int buckets) throws IOException {
+        File cache = cacheFile(url, isAsset, buckets);
+        if (cache.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(cache))) {
+                byte[] peaks = new byte[(int) cache.length()];
+                in.readFully(peaks);
+                cacheHitCount++;
+                return peaks;
+            } catch (IOException e) {
+                cache.delete();
+            }
+        }
+
+        PeakReducer reducer = new PeakReducer(buckets);
+        long start = SystemClock.elapsedRealtime();
+        if (isAsset) {
+            try (AssetFileDescriptor descriptor = context.getAssets().openFd(url)) {
+                new PcmDecoder(descriptor).decode(reducer, 0);
+            }
+        } else {
+            new PcmDecoder(url).decode(reducer, 0);
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        byte[] peaks = reducer.toBytes();
+
+        generatedCount++;
+        lastDecodeMs = elapsed;
+        lastRealtimeFactor = elapsed == 0 ? 0 : reducer.durationMs() / (double) elapsed;
+
+        if (cacheDir.exists() || cacheDir.mkdirs()) {
+            try (FileOutputStream out = new FileOutputStream(cache)) {
+                out.write(peaks);
+            } catch (IOException e) {
+                cache.delete();
+            }
+        }
+        return peaks;
+    }
+
+    /**
+     * 本地文件的缓存键包含大小和修改时间，文件变化后重新生成
+     */
+    private File cacheFile(String url, boolean isAsset, int buckets) {
+        String key = url + "#" + buckets;
+        if (!isAsset) {
+            File file = new File(url);
+            if (file.isFile()) key += "#" + file.length() + "#" + file.lastModified();
+        }
+        return new File(cacheDir, HttpClient.hashKey(key) + ".peaks");
+    }
+
+    /**
+     * 按帧号把 PCM 归入桶中，记录各声道合并后的最小、最大值。
+     * 时长未知时每填满一次就把相邻两个桶合并、每桶帧数翻倍。
+     */
+    static final class PeakReducer implements PcmDecoder.Sink {
+        private final int buckets;
+        private final short[] min;
+        private final short[] max;
+        private int channelCount = 1;
+        private int sampleRate;
+        private long totalFrames;
+        private long framesPerBucket = 1;
+        private long frame;
+        private int used;
+
+        PeakReducer(int buckets) {
+            this.buckets = buckets;
+            this.min = new short[buckets];
+            this.max = new short[buckets];
+        }
+
+        @Override
+        public void onFormat(int sampleRate, int channelCount, long durationUs) {
+            this.sampleRate = sampleRate;
+            this.channelCount = Math.max(1, channelCount);
+            this.totalFrames = durationUs * sampleRate / 1_000_000;
+            if (totalFrames <= 0) framesPerBucket = Math.max(1, sampleRate / 100);
+        }
+
+        @Override
+        public boolean onPcm(short[] samples, int count, long presentationUs) {
+            for (int i = 0; i + channelCount <= count; i += channelCount) {
+                int bucket = bucketOf(frame++);
+                for (int c = 0; c < channelCount; c++) {
+                    short v = samples[i + c];
+                    if (v < min[bucket]) min[bucket] = v;
+                    if (v > max[bucket]) max[bucket] = v;
+                }
+            }
+            return true;
+        }
+
+        private int bucketOf(long frame) {
+            if (totalFrames > 0) {
+                int bucket = (int) (frame * buckets / totalFrames);
+                if (bucket >= buckets) bucket = buckets - 1;
+                used = Math.max(used, bucket + 1);
+                return bucket;
+            }
+            int bucket = (int) (frame / framesPerBucket);
+            while (bucket >= buckets) {
+                merge();
+                bucket = (int) (frame / framesPerBucket);
+            }
+            used = Math.max(used, bucket + 1);
+            return bucket;
+        }
+
+        private void merge() {
+            int half = (buckets + 1) / 2;
+            for (int i = 0; i < half; i++) {
+                int a = 2 * i;
+                int b = Math.min(a + 1, buckets - 1);
+                min[i] = (short) Math.min(min[a], min[b]);
+                max[i] = (short) Math.max(max[a], max[b]);
+            }
+            for (int i = half; i < buckets; i++) {
+                min[i] = 0;
+                max[i] = 0;
+            }
+            framesPerBucket *= 2;
+            used = (used + 1) / 2;
+        }
+
+        long durationMs() {
+            return sampleRate == 0 ? 0 : frame * 1000 / sampleRate;
+        }
+
+        /**
+         * @return 每桶 4 字节：min、max，16 位小端序
+         */
+        byte[] toBytes() {
+            byte[] bytes = new byte[used * 4];
+            for (int i = 0; i < used; i++) {
+                bytes[4 * i] = (byte) min[i];
+                bytes[4 * i + 1] = (byte) (min[i] >> 8);
+                bytes[4 * i + 2] = (byte) max[i];
+                bytes[4 * i + 3] = (byte) (max[i] >> 8);
+            }
+            return bytes;
+        }
+    }
+}
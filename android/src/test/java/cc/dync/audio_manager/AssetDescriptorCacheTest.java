@@ -0,0 +1,94 @@
+package cc.dync.audio_manager;
+
+import android.content.res.AssetFileDescriptor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class AssetDescriptorCacheTest {
+
+    static final class FakeDescriptor extends AssetFileDescriptor {
+        final String name;
+        int closeCount;
+
+        FakeDescriptor(String name) {
+            super(null, 0, 0);
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
+    }
+
+    private final List<FakeDescriptor> opened = new ArrayList<>();
+    private AssetDescriptorCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new AssetDescriptorCache(name -> {
+            FakeDescriptor descriptor = new FakeDescriptor(name);
+            opened.add(descriptor);
+            return descriptor;
+        });
+    }
+
+    @Test
+    public void repeatedOpenReusesTheDescriptor() throws Exception {
+        AssetFileDescriptor first = cache.open("a.mp3");
+        assertSame(first, cache.open("a.mp3"));
+        assertEquals(1, opened.size());
+        assertEquals(1L, cache.toMap().get("hits"));
+        assertEquals(1L, cache.toMap().get("misses"));
+    }
+
+    @Test
+    public void evictionClosesLeastRecentlyUsed() throws Exception {
+        for (int i = 0; i < AssetDescriptorCache.MAX_OPEN; i++) cache.open(i + ".mp3");
+        // 访问 0 后，1 成为最久未用
+        cache.open("0.mp3");
+        cache.open("new.mp3");
+
+        assertEquals(AssetDescriptorCache.MAX_OPEN, cache.size());
+        assertEquals(1, cache.closedCount());
+        assertEquals(1, opened.get(1).closeCount);
+        assertEquals(0, opened.get(0).closeCount);
+    }
+
+    @Test
+    public void everyOpenedDescriptorIsClosedExactlyOnce() throws Exception {
+        for (int i = 0; i < 10; i++) cache.open(i + ".mp3");
+        assertEquals(10 - AssetDescriptorCache.MAX_OPEN, cache.closedCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(10, cache.closedCount());
+        for (FakeDescriptor descriptor : opened) {
+            assertEquals(descriptor.name, 1, descriptor.closeCount);
+        }
+        cache.clear();
+        assertEquals(10, cache.closedCount());
+    }
+
+    @Test
+    public void failedOpenIsNotCached() throws Exception {
+        AssetDescriptorCache failing = new AssetDescriptorCache(name -> {
+            throw new FileNotFoundException(name);
+        });
+        try {
+            failing.open("missing.mp3");
+            fail();
+        } catch (FileNotFoundException expected) {
+            // 预期
+        }
+        assertEquals(0, failing.size());
+    }
+}
@@ -0,0 +1,74 @@
+package cc.dync.audio_manager;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BufferingPolicyTest {
+    // 128 kbps
+    private static final double MEDIA_BYTES_PER_MS = 16;
+
+    @Test
+    public void constructorClampsToMaxBuffer() {
+        BufferingPolicy policy = new BufferingPolicy(80_000, 500, 90_000, -1);
+        assertEquals(1_000, policy.maxBufferMs);
+        assertEquals(1_000, policy.minBufferMs);
+        assertEquals(1_000, policy.bufferForPlaybackMs);
+        assertEquals(0, policy.bufferForPlaybackAfterRebufferMs);
+    }
+
+    @Test
+    public void fromMapFillsMissingFields() {
+        assertNull(BufferingPolicy.fromMap(null));
+        Map<String, Object> map = new HashMap<>();
+        map.put("minBufferMs", 20_000);
+        map.put("bufferForPlaybackMs", "bad");
+        BufferingPolicy policy = BufferingPolicy.fromMap(map);
+        assertEquals(20_000, policy.minBufferMs);
+        assertEquals(BufferingPolicy.DEFAULT_MAX_BUFFER_MS, policy.maxBufferMs);
+        assertEquals(BufferingPolicy.DEFAULT_BUFFER_FOR_PLAYBACK_MS, policy.bufferForPlaybackMs);
+    }
+
+    @Test
+    public void slowNetworkBuffersMore() {
+        BufferingPolicy policy = BufferingPolicy.defaults();
+        policy.adapt(MEDIA_BYTES_PER_MS * 1.2, MEDIA_BYTES_PER_MS);
+        assertEquals(BufferingPolicy.DEFAULT_MAX_BUFFER_MS, policy.minBufferMs());
+        assertEquals(BufferingPolicy.DEFAULT_BUFFER_FOR_PLAYBACK_MS * 2, policy.bufferForPlaybackMs());
+        assertEquals(BufferingPolicy.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS * 2, policy.bufferForPlaybackAfterRebufferMs());
+    }
+
+    @Test
+    public void fastNetworkRestoresConfiguredValues() {
+        BufferingPolicy policy = BufferingPolicy.defaults();
+        policy.adapt(MEDIA_BYTES_PER_MS, MEDIA_BYTES_PER_MS);
+        policy.adapt(MEDIA_BYTES_PER_MS * 10, MEDIA_BYTES_PER_MS);
+        assertEquals(BufferingPolicy.DEFAULT_MIN_BUFFER_MS, policy.minBufferMs());
+        assertEquals(BufferingPolicy.DEFAULT_BUFFER_FOR_PLAYBACK_MS, policy.bufferForPlaybackMs());
+    }
+
+    @Test
+    public void middleRatioKeepsCurrentValues() {
+        BufferingPolicy policy = BufferingPolicy.defaults();
+        policy.adapt(MEDIA_BYTES_PER_MS, MEDIA_BYTES_PER_MS);
+        policy.adapt(MEDIA_BYTES_PER_MS * 2, MEDIA_BYTES_PER_MS);
+        assertEquals(BufferingPolicy.DEFAULT_MAX_BUFFER_MS, policy.minBufferMs());
+        policy.adapt(0, MEDIA_BYTES_PER_MS);
+        assertEquals(BufferingPolicy.DEFAULT_MAX_BUFFER_MS, policy.minBufferMs());
+    }
+
+    @Test
+    public void stallTargetNeverExceedsPauseCap() {
+        // 高码率文件：策略希望的缓冲量超过环形缓冲能容纳的量
+        long wanted = (long) (BufferingPolicy.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS * 200.0);
+        long cap = 400_000;
+        assertEquals(1_000 + cap, StreamingDataSource.stallTarget(1_000, wanted, cap, -1));
+        assertEquals(1_000 + 8_192, StreamingDataSource.stallTarget(1_000, 8_192, cap, -1));
+        assertEquals(5_000, StreamingDataSource.stallTarget(1_000, wanted, cap, 5_000));
+        assertEquals(1_001, StreamingDataSource.stallTarget(1_000, wanted, 0, -1));
+    }
+}
@@ -0,0 +1,139 @@
+package cc.dync.audio_manager;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FormatSnifferTest {
+    private static final int N = FormatSniffer.HEADER_BYTES;
+
+    private final Random random = new Random(42);
+
+    /**
+     * 固定开头，其余填充随机字节，和实际文件一样
+     */
+    private byte[] header(int offset, byte... prefix) {
+        byte[] b = new byte[N];
+        random.nextBytes(b);
+        System.arraycopy(prefix, 0, b, offset, prefix.length);
+        return b;
+    }
+
+    private byte[] header(int offset, String prefix) {
+        return header(offset, prefix.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] text(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static FormatSniffer.Format sniff(byte[] b) {
+        return FormatSniffer.sniff(b, b.length);
+    }
+
+    @Test
+    public void recognizesContainerMagic() {
+        assertEquals(FormatSniffer.Format.MP3, sniff(header(0, "ID3")));
+        assertEquals(FormatSniffer.Format.MP4, sniff(header(4, "ftypM4A ")));
+        assertEquals(FormatSniffer.Format.OGG, sniff(header(0, "OggS")));
+        assertEquals(FormatSniffer.Format.FLAC, sniff(header(0, "fLaC")));
+        byte[] wav = header(0, "RIFF");
+        System.arraycopy("WAVE".getBytes(StandardCharsets.US_ASCII), 0, wav, 8, 4);
+        assertEquals(FormatSniffer.Format.WAV, sniff(wav));
+        assertEquals(FormatSniffer.Format.AMR, sniff(header(0, "#!AMR\n")));
+        assertEquals(FormatSniffer.Format.MIDI, sniff(header(0, "MThd")));
+        assertEquals(FormatSniffer.Format.MATROSKA, sniff(header(0, (byte) 0x1A, (byte) 0x45, (byte) 0xDF, (byte) 0xA3)));
+        byte[] ts = new byte[N];
+        ts[0] = 0x47;
+        ts[188] = 0x47;
+        assertEquals(FormatSniffer.Format.MPEG_TS, sniff(ts));
+    }
+
+    @Test
+    public void findsFrameSyncAfterPadding() {
+        byte[] mp3 = new byte[N];
+        byte[] frame = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00};
+        System.arraycopy(frame, 0, mp3, 100, frame.length);
+        assertEquals(FormatSniffer.Format.MP3, sniff(mp3));
+        byte[] adts = new byte[N];
+        byte[] adtsHeader = {(byte) 0xFF, (byte) 0xF1, (byte) 0x50, (byte) 0x80};
+        System.arraycopy(adtsHeader, 0, adts, 10, adtsHeader.length);
+        assertEquals(FormatSniffer.Format.AAC, sniff(adts));
+    }
+
+    @Test
+    public void unknownHeadersAreNotRejected() {
+        // 帧同步在读到的范围之后
+        assertEquals(FormatSniffer.Format.UNKNOWN, sniff(new byte[N]));
+        assertEquals(FormatSniffer.Format.UNKNOWN, sniff(new byte[2]));
+        assertFalse(FormatSniffer.Format.UNKNOWN.isRejected());
+        // 播放列表交给 MediaPlayer
+        byte[] m3u = text("#EXTM3U\n#EXT-X-VERSION:3\n#EXTINF:10.0,\nsegment0.ts\n#EXTINF:10.0,\nsegment1.ts\n");
+        assertFalse(sniff(m3u).isRejected());
+    }
+
+    @Test
+    public void rejectsTextBodies() {
+        assertEquals(FormatSniffer.Format.TEXT, sniff(text("<!DOCTYPE html><html><body>404 Not Found</body></html>")));
+        assertEquals(FormatSniffer.Format.TEXT, sniff(text("\r\n  <html>\n<head><title>Error</title>")));
+        assertEquals(FormatSniffer.Format.TEXT, sniff(text("﻿<?xml version=\"1.0\"?><Error><Code>AccessDenied</Code></Error>")));
+        assertEquals(FormatSniffer.Format.TEXT, sniff(text("{\"error\":\"token expired\"}")));
+        assertEquals(FormatSniffer.Format.TEXT, sniff(text("Forbidden: you do not have access to this resource.\n")));
+        // 太短的纯文本不足以判断
+        assertEquals(FormatSniffer.Format.UNKNOWN, sniff(text("Forbidden")));
+        assertTrue(FormatSniffer.Format.TEXT.isRejected());
+    }
+
+    @Test
+    public void rejectsKnownNonMediaMagic() {
+        assertEquals(FormatSniffer.Format.UNSUPPORTED, sniff(header(0, (byte) 0x89, (byte) 'P', (byte) 'N', (byte) 'G')));
+        assertEquals(FormatSniffer.Format.UNSUPPORTED, sniff(header(0, (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0)));
+        assertEquals(FormatSniffer.Format.UNSUPPORTED, sniff(header(0, "GIF89a")));
+        assertEquals(FormatSniffer.Format.UNSUPPORTED, sniff(header(0, "%PDF-1.7")));
+        assertEquals(FormatSniffer.Format.UNSUPPORTED, sniff(header(0, (byte) 'P', (byte) 'K', (byte) 3, (byte) 4)));
+    }
+
+    @Test
+    public void randomHeadersAreNeverText() {
+        // 压缩后的媒体数据看起来是随机字节，不能被误判为文本
+        for (int i = 0; i < 1_000; i++) {
+            byte[] b = header(0);
+            assertFalse(sniff(b) == FormatSniffer.Format.TEXT);
+        }
+    }
+
+    @Test
+    public void sniffIsCheapOverCorpus() {
+        List<byte[]> corpus = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            corpus.add(header(0, "ID3"));
+            corpus.add(header(4, "ftypisom"));
+            corpus.add(new byte[N]);
+            corpus.add(header(0));
+            corpus.add(text("<html><body>Service Unavailable, please retry later</body></html>"));
+        }
+        // 预热
+        for (int round = 0; round < 20; round++) {
+            for (byte[] b : corpus) sniff(b);
+        }
+        int rounds = 200;
+        long start = System.nanoTime();
+        int rejected = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (byte[] b : corpus) {
+                if (sniff(b).isRejected()) rejected++;
+            }
+        }
+        long perSniffNanos = (System.nanoTime() - start) / ((long) rounds * corpus.size());
+        assertEquals(rounds * 64, rejected);
+        // 每次识别只扫描 192 字节，远低于一次文件读取的开销
+        assertTrue("sniff took " + perSniffNanos + "ns", perSniffNanos < 50_000);
+    }
+}
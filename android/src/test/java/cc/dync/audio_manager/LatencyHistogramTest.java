@@ -0,0 +1,62 @@
+package cc.dync.audio_manager;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.valueAtPercentile(50));
+        Map<String, Object> map = histogram.toMap();
+        assertEquals(0L, map.get("min"));
+        assertEquals(0.0, map.get("mean"));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) histogram.record(i);
+        assertEquals(100, histogram.count());
+        assertEquals(50, histogram.valueAtPercentile(50));
+        assertEquals(90, histogram.valueAtPercentile(90));
+        assertEquals(100, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    public void largeValuesStayWithinRelativeError() {
+        for (long value = 128; value < 10_000_000; value = value * 3 / 2 + 7) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            long reported = histogram.valueAtPercentile(50);
+            assertTrue(value + " -> " + reported, reported <= value);
+            assertTrue(value + " -> " + reported, reported >= value - value / 64);
+        }
+    }
+
+    @Test
+    public void negativeValuesClampToZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0L, histogram.toMap().get("min"));
+        assertEquals(0L, histogram.toMap().get("max"));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(5000);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0L, histogram.toMap().get("max"));
+        histogram.record(3);
+        assertEquals(3L, histogram.toMap().get("min"));
+    }
+}
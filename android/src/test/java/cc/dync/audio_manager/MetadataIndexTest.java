@@ -0,0 +1,75 @@
+package cc.dync.audio_manager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MetadataIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MetadataIndex.Entry entry(String path, long size) {
+        MetadataIndex.Entry entry = new MetadataIndex.Entry(path, size, 1L);
+        entry.title = path;
+        entry.artworkChecked = true;
+        return entry;
+    }
+
+    @Test
+    public void savedEntriesAreReloaded() {
+        File file = new File(folder.getRoot(), "metadata.index");
+        MetadataIndex index = new MetadataIndex(file);
+        index.put(entry("/a.mp3", 10));
+        index.save();
+
+        MetadataIndex reloaded = new MetadataIndex(file);
+        MetadataIndex.Entry entry = reloaded.get("/a.mp3", 10, 1L);
+        assertNotNull(entry);
+        assertEquals("/a.mp3", entry.title);
+        // 大小变化视为失效
+        assertNull(reloaded.get("/a.mp3", 11, 1L));
+    }
+
+    @Test
+    public void concurrentSavesKeepTheNewestSnapshot() throws Exception {
+        File file = new File(folder.getRoot(), "metadata.index");
+        MetadataIndex index = new MetadataIndex(file);
+        int threads = 8;
+        int perThread = 50;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    index.put(entry("/" + id + "/" + i + ".mp3", i));
+                    index.save();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+        index.save();
+
+        MetadataIndex reloaded = new MetadataIndex(file);
+        assertEquals(threads * perThread, reloaded.size());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,168 @@
+package cc.dync.audio_manager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Mp3SeekIndexTest {
+    // MPEG-1 Layer III, 44.1kHz, 立体声，无 CRC
+    private static final int HEADER_128K = 0xFFFB9000;
+    private static final int HEADER_128K_PADDED = 0xFFFB9200;
+    private static final int HEADER_320K = 0xFFFBE000;
+    // MPEG-2 Layer III, 22.05kHz, 64kbps
+    private static final int HEADER_V2_64K = 0xFFF38000;
+    private static final int FRAME_128K = 417;
+    private static final int FRAME_320K = 1044;
+    private static final int FLAG_TOC = 0x4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void frameLengthOfValidHeaders() {
+        assertEquals(FRAME_128K, Mp3SeekIndex.frameLength(HEADER_128K));
+        assertEquals(FRAME_128K + 1, Mp3SeekIndex.frameLength(HEADER_128K_PADDED));
+        assertEquals(FRAME_320K, Mp3SeekIndex.frameLength(HEADER_320K));
+        assertEquals(208, Mp3SeekIndex.frameLength(HEADER_V2_64K));
+    }
+
+    @Test
+    public void frameLengthRejectsInvalidHeaders() {
+        assertEquals(-1, Mp3SeekIndex.frameLength(0x12345678));
+        // 空闲码率、保留码率
+        assertEquals(-1, Mp3SeekIndex.frameLength(0xFFFB0000));
+        assertEquals(-1, Mp3SeekIndex.frameLength(0xFFFBF000));
+        // 保留采样率
+        assertEquals(-1, Mp3SeekIndex.frameLength(0xFFFB9C00));
+        // Layer II
+        assertEquals(-1, Mp3SeekIndex.frameLength(0xFFFD9000));
+        // 保留版本
+        assertEquals(-1, Mp3SeekIndex.frameLength(0xFFEB9000));
+    }
+
+    @Test
+    public void cbrFileDoesNotNeedIndex() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeId3(out, 100);
+        for (int i = 0; i < 100; i++) writeFrame(out, HEADER_128K);
+        Mp3SeekIndex index = Mp3SeekIndex.build(write(out).getPath());
+
+        assertFalse(index.isVbr());
+        assertFalse(index.hasToc());
+        assertFalse(index.needsIndex());
+        assertEquals(100 * 1152 * 1000L / 44100, index.durationMs());
+        assertEquals(6, index.size());
+        assertEquals(110, index.offsetAt(0));
+        // 第 20 帧是第一个不早于 500ms 的帧
+        assertEquals(110 + 20 * FRAME_128K, index.offsetAt(1));
+        assertEquals(1, index.slotAt(999));
+        assertEquals(5, index.slotAt(60_000));
+    }
+
+    @Test
+    public void vbrFileWithoutTocNeedsIndex() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) writeFrame(out, i % 2 == 0 ? HEADER_128K : HEADER_320K);
+        Mp3SeekIndex index = Mp3SeekIndex.build(write(out).getPath());
+
+        assertTrue(index.isVbr());
+        assertFalse(index.hasToc());
+        assertTrue(index.needsIndex());
+        assertEquals(10 * (FRAME_128K + FRAME_320K), index.offsetAt(1));
+    }
+
+    @Test
+    public void xingTocMakesIndexUnnecessary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeXingFrame(out, 0x58696E67, 0xF);
+        for (int i = 0; i < 50; i++) writeFrame(out, i % 2 == 0 ? HEADER_128K : HEADER_320K);
+        Mp3SeekIndex index = Mp3SeekIndex.build(write(out).getPath());
+
+        assertTrue(index.isVbr());
+        assertTrue(index.hasToc());
+        assertFalse(index.needsIndex());
+        // Xing 帧不计入
+        assertEquals(FRAME_128K, index.offsetAt(0));
+        assertEquals(50L, index.toMap().get("frames"));
+    }
+
+    @Test
+    public void infoTagWithoutTocStillNeedsIndex() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeXingFrame(out, 0x496E666F, 0xF & ~FLAG_TOC);
+        for (int i = 0; i < 50; i++) writeFrame(out, i % 3 == 0 ? HEADER_320K : HEADER_128K);
+        Mp3SeekIndex index = Mp3SeekIndex.build(write(out).getPath());
+
+        assertFalse(index.hasToc());
+        assertTrue(index.needsIndex());
+    }
+
+    @Test
+    public void resyncsAfterGarbage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 30; i++) writeFrame(out, HEADER_128K);
+        out.write(new byte[123], 0, 123);
+        for (int i = 0; i < 30; i++) writeFrame(out, HEADER_128K);
+        Mp3SeekIndex index = Mp3SeekIndex.build(write(out).getPath());
+
+        assertEquals(60L, index.toMap().get("frames"));
+        assertEquals(60 * 1152 * 1000L / 44100, index.durationMs());
+    }
+
+    @Test
+    public void isIndexableChecksExtensionAndFile() throws IOException {
+        File file = folder.newFile("SONG.MP3");
+        assertTrue(Mp3SeekIndex.isIndexable(file.getPath()));
+        assertFalse(Mp3SeekIndex.isIndexable(folder.newFile("song.m4a").getPath()));
+        assertFalse(Mp3SeekIndex.isIndexable(new File(folder.getRoot(), "missing.mp3").getPath()));
+        assertFalse(Mp3SeekIndex.isIndexable(null));
+    }
+
+    private File write(ByteArrayOutputStream out) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            out.writeTo(stream);
+        }
+        return file;
+    }
+
+    private static void writeId3(ByteArrayOutputStream out, int size) {
+        byte[] tag = new byte[10 + size];
+        tag[0] = 'I';
+        tag[1] = 'D';
+        tag[2] = '3';
+        tag[3] = 4;
+        // synchsafe，size 小于 128
+        tag[9] = (byte) size;
+        out.write(tag, 0, tag.length);
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int header) {
+        byte[] frame = new byte[Mp3SeekIndex.frameLength(header)];
+        ByteBuffer.wrap(frame).putInt(header);
+        out.write(frame, 0, frame.length);
+    }
+
+    /**
+     * 128kbps 立体声帧，32 字节 side info 之后是 Xing/Info 标记和 flags
+     */
+    private static void writeXingFrame(ByteArrayOutputStream out, int tag, int flags) {
+        byte[] frame = new byte[FRAME_128K];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(HEADER_128K);
+        buffer.position(4 + 32);
+        buffer.putInt(tag);
+        buffer.putInt(flags);
+        out.write(frame, 0, frame.length);
+    }
+}
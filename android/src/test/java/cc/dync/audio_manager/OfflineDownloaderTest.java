@@ -0,0 +1,212 @@
+package cc.dync.audio_manager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineDownloaderTest {
+    private static final long TIMEOUT_MS = 20_000;
+    private static final int FILE_SIZE = (int) (4 * OfflineDownloader.MIN_CHUNK_BYTES + 12_345);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private HttpClient http;
+    private byte[] body;
+    private RangeServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("downloads");
+        http = new HttpClient(folder.newFolder("http"));
+        body = RangeServer.bytes(FILE_SIZE);
+        server = new RangeServer(body);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private OfflineDownloader newDownloader() {
+        return new OfflineDownloader(dir, http, allowMetered -> true);
+    }
+
+    private static Map<String, Object> item(OfflineDownloader downloader, String url) {
+        for (Map<String, Object> item : downloader.list()) {
+            if (url.equals(item.get("url"))) return item;
+        }
+        return null;
+    }
+
+    private static Map<String, Object> awaitState(OfflineDownloader downloader, String url, String state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        Map<String, Object> item = null;
+        while (System.currentTimeMillis() < deadline) {
+            item = item(downloader, url);
+            if (item != null && state.equals(item.get("state"))) return item;
+            Thread.sleep(20);
+        }
+        throw new AssertionError("expected " + state + " but was " + item);
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    @Test
+    public void splitUsesUpToMaxChunksWithTheRemainderInTheLast() {
+        OfflineDownloader.Chunk[] chunks = OfflineDownloader.split(FILE_SIZE, true);
+        assertEquals(OfflineDownloader.MAX_CHUNKS, chunks.length);
+        assertEquals(0, chunks[0].start);
+        for (int i = 1; i < chunks.length; i++) assertEquals(chunks[i - 1].end, chunks[i].start);
+        assertEquals(FILE_SIZE, chunks[chunks.length - 1].end);
+
+        // 小文件只有一段
+        assertEquals(1, OfflineDownloader.split(OfflineDownloader.MIN_CHUNK_BYTES - 1, true).length);
+        assertEquals(2, OfflineDownloader.split(2 * OfflineDownloader.MIN_CHUNK_BYTES + 1, true).length);
+        // 不支持 Range 时整段下载
+        OfflineDownloader.Chunk[] single = OfflineDownloader.split(-1, false);
+        assertEquals(1, single.length);
+        assertEquals(-1, single[0].end);
+        assertFalse(single[0].isComplete());
+    }
+
+    @Test
+    public void parseTotalReadsTheCompleteLength() {
+        assertEquals(12345, OfflineDownloader.parseTotal("bytes 0-0/12345"));
+        assertEquals(-1, OfflineDownloader.parseTotal("bytes 0-0/*"));
+        assertEquals(-1, OfflineDownloader.parseTotal("bytes 0-0"));
+        assertEquals(-1, OfflineDownloader.parseTotal(null));
+    }
+
+    @Test
+    public void fileNameKeepsShortExtensions() {
+        String name = OfflineDownloader.fileName("https://a.com/b/Song.MP3?token=1#t=2");
+        assertTrue(name, name.endsWith(".mp3"));
+        assertEquals(HttpClient.hashKey("https://a.com/b/Song.MP3?token=1#t=2") + ".mp3", name);
+        // 目录中的点、过长或非字母数字的扩展名都不保留
+        assertFalse(OfflineDownloader.fileName("https://a.com/v1.2/stream").contains("."));
+        assertFalse(OfflineDownloader.fileName("https://a.com/file.verylongext").contains("."));
+        assertFalse(OfflineDownloader.fileName("https://a.com/file.m-3").contains("."));
+        assertNotEquals(OfflineDownloader.fileName("https://a.com/1.mp3"), OfflineDownloader.fileName("https://a.com/2.mp3"));
+    }
+
+    @Test
+    public void downloadsInParallelRangesAndVerifiesChecksum() throws Exception {
+        String url = server.url("/song.mp3");
+        OfflineDownloader downloader = newDownloader();
+        downloader.download(url, sha256(body), false);
+        Map<String, Object> item = awaitState(downloader, url, "completed");
+
+        File file = new File((String) item.get("path"));
+        assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+        assertEquals((long) FILE_SIZE, item.get("total"));
+        // 一个探测请求加上每段一个请求
+        assertEquals(1 + OfflineDownloader.MAX_CHUNKS, server.ranges.size());
+        assertEquals("bytes=0-0", server.ranges.get(0));
+    }
+
+    @Test
+    public void checksumMismatchFails() throws Exception {
+        String url = server.url("/bad.mp3");
+        OfflineDownloader downloader = newDownloader();
+        downloader.download(url, sha256(new byte[1]), false);
+        Map<String, Object> item = awaitState(downloader, url, "failed");
+        assertTrue(String.valueOf(item.get("error")), String.valueOf(item.get("error")).contains("checksum"));
+        assertEquals(1L, downloader.toMap().get("checksumFailures"));
+    }
+
+    @Test
+    public void pausedDownloadIsRestoredAndResumedWithIfRange() throws Exception {
+        String url = server.url("/resume.mp3");
+        server.blockDelayMs = 5;
+        OfflineDownloader first = newDownloader();
+        first.download(url, null, false);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while ((Long) item(first, url).get("downloaded") < FILE_SIZE / 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        first.pause(url);
+        Map<String, Object> paused = awaitState(first, url, "paused");
+        long downloaded = (Long) paused.get("downloaded");
+        assertTrue(downloaded > 0 && downloaded < FILE_SIZE);
+
+        // 状态文件读回：新的下载器从保存的分段继续
+        server.blockDelayMs = 0;
+        server.ranges.clear();
+        server.ifRanges.clear();
+        OfflineDownloader second = newDownloader();
+        Map<String, Object> restored = item(second, url);
+        assertNotNull(restored);
+        assertEquals("paused", restored.get("state"));
+        assertEquals((long) FILE_SIZE, restored.get("total"));
+        assertTrue((Long) restored.get("downloaded") <= downloaded);
+
+        second.download(url, sha256(body), false);
+        Map<String, Object> item = awaitState(second, url, "completed");
+        assertArrayEquals(body, Files.readAllBytes(new File((String) item.get("path")).toPath()));
+        assertEquals(1L, second.toMap().get("resumes"));
+        // 没有再探测，每个续传请求都带上 If-Range
+        assertFalse(server.ranges.contains("bytes=0-0"));
+        assertFalse(server.ifRanges.isEmpty());
+        for (String ifRange : server.ifRanges) assertEquals(server.etag, ifRange);
+    }
+
+    @Test
+    public void changedSourceRestartsFromScratch() throws Exception {
+        String url = server.url("/changed.mp3");
+        server.blockDelayMs = 5;
+        OfflineDownloader downloader = newDownloader();
+        downloader.download(url, null, false);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while ((Long) item(downloader, url).get("downloaded") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        downloader.pause(url);
+        awaitState(downloader, url, "paused");
+
+        // 服务器上的文件变了，If-Range 不匹配时返回 200 和完整内容
+        byte[] changed = RangeServer.bytes(FILE_SIZE + 100);
+        changed[0] ^= 1;
+        server.body = changed;
+        server.etag = "\"v2\"";
+        server.blockDelayMs = 0;
+        downloader.download(url, null, false);
+        Map<String, Object> item = awaitState(downloader, url, "completed");
+        assertArrayEquals(changed, Files.readAllBytes(new File((String) item.get("path")).toPath()));
+        assertEquals(1L, downloader.toMap().get("restarts"));
+    }
+
+    @Test
+    public void removedCompletedFileIsDownloadedAgain() throws Exception {
+        String url = server.url("/again.mp3");
+        OfflineDownloader downloader = newDownloader();
+        downloader.download(url, null, false);
+        File file = new File((String) awaitState(downloader, url, "completed").get("path"));
+        assertTrue(file.delete());
+
+        server.ranges.clear();
+        downloader.download(url, null, false);
+        awaitState(downloader, url, "completed");
+        assertTrue(file.isFile());
+        assertEquals("bytes=0-0", server.ranges.get(0));
+    }
+}
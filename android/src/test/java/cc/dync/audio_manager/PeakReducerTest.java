@@ -0,0 +1,74 @@
+package cc.dync.audio_manager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PeakReducerTest {
+
+    /**
+     * 每帧交替 +amplitude / -amplitude
+     */
+    private static void feed(WaveformGenerator.PeakReducer reducer, int frames, int channels, short amplitude) {
+        short[] samples = new short[frames * channels];
+        for (int f = 0; f < frames; f++) {
+            for (int c = 0; c < channels; c++) {
+                samples[f * channels + c] = (short) (f % 2 == 0 ? amplitude : -amplitude);
+            }
+        }
+        reducer.onPcm(samples, samples.length, 0);
+    }
+
+    private static short minAt(byte[] bytes, int bucket) {
+        return (short) ((bytes[4 * bucket] & 0xFF) | (bytes[4 * bucket + 1] << 8));
+    }
+
+    private static short maxAt(byte[] bytes, int bucket) {
+        return (short) ((bytes[4 * bucket + 2] & 0xFF) | (bytes[4 * bucket + 3] << 8));
+    }
+
+    @Test
+    public void knownDurationFillsEveryBucket() {
+        WaveformGenerator.PeakReducer reducer = new WaveformGenerator.PeakReducer(10);
+        reducer.onFormat(1_000, 2, 1_000_000);
+        feed(reducer, 1_000, 2, (short) 1_000);
+        byte[] bytes = reducer.toBytes();
+        assertEquals(10 * 4, bytes.length);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(-1_000, minAt(bytes, i));
+            assertEquals(1_000, maxAt(bytes, i));
+        }
+        assertEquals(1_000, reducer.durationMs());
+    }
+
+    @Test
+    public void unknownDurationMergeDropsTrailingBuckets() {
+        // 未知时长：每桶 10 帧，8 个桶装满后逐次合并
+        WaveformGenerator.PeakReducer reducer = new WaveformGenerator.PeakReducer(8);
+        reducer.onFormat(1_000, 1, 0);
+        feed(reducer, 200, 1, (short) 500);
+        byte[] bytes = reducer.toBytes();
+        // 合并两次后每桶 40 帧，200 帧只占 5 个桶
+        assertEquals(5 * 4, bytes.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(-500, minAt(bytes, i));
+            assertEquals(500, maxAt(bytes, i));
+        }
+    }
+
+    @Test
+    public void mergeKeepsPeaks() {
+        WaveformGenerator.PeakReducer reducer = new WaveformGenerator.PeakReducer(4);
+        reducer.onFormat(1_000, 1, 0);
+        feed(reducer, 40, 1, (short) 100);
+        short[] spike = {30_000, -30_000};
+        reducer.onPcm(spike, spike.length, 0);
+        byte[] bytes = reducer.toBytes();
+        // 42 帧，合并一次后每桶 20 帧，占 3 个桶
+        assertEquals(3 * 4, bytes.length);
+        assertEquals(30_000, maxAt(bytes, 2));
+        assertEquals(-30_000, minAt(bytes, 2));
+        assertTrue(maxAt(bytes, 0) < 30_000);
+    }
+}
@@ -0,0 +1,73 @@
+package cc.dync.audio_manager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PendingEventsTest {
+    private final List<String> methods = new ArrayList<>();
+    private final List<Object> arguments = new ArrayList<>();
+
+    private void replay(PendingEvents events) {
+        events.replay((method, args) -> {
+            methods.add(method);
+            arguments.add(args);
+        });
+    }
+
+    @Test
+    public void replaysInOrderAndEmpties() {
+        PendingEvents events = new PendingEvents();
+        events.add("ready", 1000);
+        events.add("next", null);
+        events.add("ended", null);
+        replay(events);
+        assertEquals(Arrays.asList("ready", "next", "ended"), methods);
+        assertEquals(1000, arguments.get(0));
+        assertTrue(events.isEmpty());
+        assertEquals(3L, events.toMap().get("replayed"));
+    }
+
+    @Test
+    public void stateEventsKeepOnlyTheLatest() {
+        PendingEvents events = new PendingEvents();
+        events.add("timeupdate", 1);
+        events.add("ready", 1000);
+        events.add("timeupdate", 2);
+        events.add("playstatus", true);
+        events.add("timeupdate", 3);
+        events.add("playstatus", false);
+        replay(events);
+        assertEquals(Arrays.asList("ready", "timeupdate", "playstatus"), methods);
+        assertEquals(Arrays.asList(1000, 3, false), arguments);
+        assertEquals(3L, events.toMap().get("coalesced"));
+    }
+
+    @Test
+    public void dropsOldestBeyondCapacity() {
+        PendingEvents events = new PendingEvents();
+        for (int i = 0; i < PendingEvents.CAPACITY + 10; i++) {
+            events.add("next", i);
+        }
+        assertEquals(PendingEvents.CAPACITY, events.toMap().get("pending"));
+        assertEquals(10L, events.toMap().get("dropped"));
+        replay(events);
+        assertEquals(PendingEvents.CAPACITY, methods.size());
+        assertEquals(10, arguments.get(0));
+    }
+
+    @Test
+    public void tracksDetachedState() {
+        PendingEvents events = new PendingEvents();
+        assertEquals(false, events.toMap().get("detached"));
+        events.onDetached();
+        assertEquals(true, events.toMap().get("detached"));
+        events.onAttached();
+        assertEquals(false, events.toMap().get("detached"));
+    }
+}
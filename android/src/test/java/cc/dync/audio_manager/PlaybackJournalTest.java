@@ -0,0 +1,83 @@
+package cc.dync.audio_manager;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PlaybackJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private PlaybackJournal journal;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "playback.journal");
+        journal = new PlaybackJournal(file);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) builder.append(c);
+        return builder.toString();
+    }
+
+    private static MediaPlayerHelper.MediaInfo info(String title, String url) {
+        return new MediaPlayerHelper.MediaInfo(title, url);
+    }
+
+    @Test
+    public void restoresItemAndLatestPosition() throws Exception {
+        journal.recordItem(info("a", "https://a/1.mp3"));
+        journal.recordPosition(1000, 1f, false);
+        journal.recordPosition(2000, 1.5f, true);
+        PlaybackJournal.Snapshot snapshot = journal.loadAsync().get();
+        assertEquals("https://a/1.mp3", snapshot.info.url);
+        assertEquals(2000, snapshot.position);
+        assertEquals(1.5f, snapshot.rate, 0f);
+    }
+
+    @Test
+    public void longTextFieldsAreTruncatedAndLaterRecordsSurvive() throws Exception {
+        // 每个字符 3 字节，不截断会超过单条记录上限
+        MediaPlayerHelper.MediaInfo item = info(repeat('中', 20_000), "https://a/2.mp3");
+        item.desc = repeat('x', 70_000);
+        journal.recordItem(item);
+        journal.recordPosition(3000, 1f, true);
+        PlaybackJournal.Snapshot snapshot = journal.loadAsync().get();
+        assertEquals("https://a/2.mp3", snapshot.info.url);
+        assertEquals(PlaybackJournal.MAX_TEXT_LENGTH, snapshot.info.title.length());
+        assertEquals(PlaybackJournal.MAX_TEXT_LENGTH, snapshot.info.desc.length());
+        assertEquals(3000, snapshot.position);
+    }
+
+    @Test
+    public void oversizedUrlDoesNotRestoreThePreviousItem() throws Exception {
+        journal.recordItem(info("a", "https://a/1.mp3"));
+        journal.recordPosition(1000, 1f, true);
+        journal.recordItem(info("b", "https://b/" + repeat('x', PlaybackJournal.MAX_RECORD_LENGTH)));
+        journal.recordPosition(5000, 1f, true);
+        assertNull(journal.loadAsync().get());
+
+        // 之后的曲目仍然可以恢复
+        journal.recordItem(info("c", "https://c/1.mp3"));
+        journal.recordPosition(7000, 1f, true);
+        PlaybackJournal.Snapshot snapshot = journal.loadAsync().get();
+        assertEquals("https://c/1.mp3", snapshot.info.url);
+        assertEquals(7000, snapshot.position);
+    }
+
+    @Test
+    public void truncateKeepsSurrogatePairsWhole() {
+        String value = repeat('a', PlaybackJournal.MAX_TEXT_LENGTH - 1) + "🎵";
+        String truncated = PlaybackJournal.truncate(value);
+        assertEquals(PlaybackJournal.MAX_TEXT_LENGTH - 1, truncated.length());
+    }
+}
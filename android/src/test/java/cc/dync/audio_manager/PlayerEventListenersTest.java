@@ -0,0 +1,97 @@
+package cc.dync.audio_manager;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerEventListenersTest {
+
+    private static final class Counter implements PlayerEventListener {
+        long positions;
+        int events;
+
+        @Override
+        public void onProgress(int position, int duration) {
+            positions += position;
+            events++;
+        }
+    }
+
+    @Test
+    public void addKeepsOrderAndIgnoresDuplicates() {
+        PlayerEventListeners listeners = new PlayerEventListeners();
+        Counter a = new Counter();
+        Counter b = new Counter();
+        assertTrue(listeners.add(a));
+        assertTrue(listeners.add(b));
+        assertFalse(listeners.add(a));
+        assertFalse(listeners.add(null));
+        assertArrayEquals(new PlayerEventListener[]{a, b}, listeners.get());
+    }
+
+    @Test
+    public void removeFromMiddle() {
+        PlayerEventListeners listeners = new PlayerEventListeners();
+        Counter a = new Counter();
+        Counter b = new Counter();
+        Counter c = new Counter();
+        listeners.add(a);
+        listeners.add(b);
+        listeners.add(c);
+        assertTrue(listeners.remove(b));
+        assertFalse(listeners.remove(b));
+        assertArrayEquals(new PlayerEventListener[]{a, c}, listeners.get());
+        listeners.remove(a);
+        listeners.remove(c);
+        assertEquals(0, listeners.get().length);
+    }
+
+    @Test
+    public void dispatchSnapshotIsNotAffectedByLaterChanges() {
+        PlayerEventListeners listeners = new PlayerEventListeners();
+        Counter a = new Counter();
+        listeners.add(a);
+        PlayerEventListener[] snapshot = listeners.get();
+        listeners.add(new Counter());
+        listeners.remove(a);
+        assertArrayEquals(new PlayerEventListener[]{a}, snapshot);
+    }
+
+    @Test
+    public void progressDispatchDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        PlayerEventListeners listeners = new PlayerEventListeners();
+        Counter a = new Counter();
+        Counter b = new Counter();
+        listeners.add(a);
+        listeners.add(b);
+        // 预热，排除类加载和 JIT 的分配
+        dispatch(listeners, 20_000);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        dispatch(listeners, 10_000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(30_000, a.events);
+        assertEquals(30_000, b.events);
+        // 只允许测量本身的少量开销
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void dispatch(PlayerEventListeners listeners, int count) {
+        for (int i = 0; i < count; i++) {
+            for (PlayerEventListener l : listeners.get()) l.onProgress(i, count);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cc.dync.audio_manager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PositionClockTest {
+    private long now;
+    private PositionClock clock;
+
+    @Before
+    public void setUp() {
+        now = 1_000_000;
+        clock = new PositionClock(() -> now);
+    }
+
+    @Test
+    public void extrapolatesWhileRunning() {
+        clock.anchor(10_000, true);
+        now += 2_500;
+        assertEquals(12_500, clock.position());
+    }
+
+    @Test
+    public void holdsPositionWhilePaused() {
+        clock.anchor(10_000, false);
+        now += 60_000;
+        assertEquals(10_000, clock.position());
+        assertFalse(clock.needsResync());
+    }
+
+    @Test
+    public void speedChangeReanchorsAtCurrentPosition() {
+        clock.anchor(0, true);
+        now += 1_000;
+        clock.setSpeed(2f);
+        now += 1_000;
+        // 1s × 1 + 1s × 2
+        assertEquals(3_000, clock.position());
+        clock.setSpeed(0.5f);
+        now += 2_000;
+        assertEquals(4_000, clock.position());
+    }
+
+    @Test
+    public void clampsToDurationAndZero() {
+        clock.setDuration(5_000);
+        clock.anchor(4_000, true);
+        now += 10_000;
+        assertEquals(5_000, clock.position());
+        clock.anchor(-200, false);
+        assertEquals(0, clock.position());
+    }
+
+    @Test
+    public void resyncRecordsDriftAgainstPlayer() {
+        clock.anchor(0, true);
+        now += PositionClock.RESYNC_INTERVAL_MS - 1;
+        assertFalse(clock.needsResync());
+        now += 1;
+        assertTrue(clock.needsResync());
+        // 播放器实际落后 120ms（例如缓冲卡顿）
+        clock.resync((int) PositionClock.RESYNC_INTERVAL_MS - 120);
+        assertEquals(120L, clock.toMap().get("lastDrift"));
+        assertEquals(1L, clock.toMap().get("resyncCount"));
+        assertFalse(clock.needsResync());
+        assertEquals(PositionClock.RESYNC_INTERVAL_MS - 120, clock.position());
+    }
+
+    @Test
+    public void driftStaysBoundedBetweenResyncs() {
+        // 播放器比墙上时钟快 1%，每个同步间隔校正一次
+        clock.anchor(0, true);
+        double player = 0;
+        long maxDrift = 0;
+        for (int i = 0; i < 100; i++) {
+            now += 250;
+            player += 250 * 1.01;
+            maxDrift = Math.max(maxDrift, Math.abs(clock.position() - (long) player));
+            if (clock.needsResync()) clock.resync((int) player);
+        }
+        assertTrue("drift " + maxDrift, maxDrift <= PositionClock.RESYNC_INTERVAL_MS / 100 + 1);
+    }
+}
@@ -0,0 +1,94 @@
+package cc.dync.audio_manager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 测试用的 HTTP 文件服务，支持 Range 和 If-Range，记录每个请求的 Range 头
+ */
+final class RangeServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "range-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    final List<String> ranges = new CopyOnWriteArrayList<>();
+    final List<String> ifRanges = new CopyOnWriteArrayList<>();
+    volatile byte[] body;
+    volatile String etag = "\"v1\"";
+    // false 时忽略 Range，总是返回 200
+    volatile boolean acceptRanges = true;
+    // 每写一块后的等待，用于模拟慢速下载
+    volatile long blockDelayMs = 0;
+
+    RangeServer(byte[] body) throws IOException {
+        this.body = body;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (i * 31 + (i >>> 8));
+        return data;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] data = body;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        ranges.add(range == null ? "" : range);
+        ifRanges.add(ifRange == null ? "" : ifRange);
+        exchange.getResponseHeaders().set("ETag", etag);
+        long from = 0;
+        long to = data.length - 1;
+        boolean partial = acceptRanges && range != null && range.startsWith("bytes=")
+                && (ifRange == null || ifRange.equals(etag));
+        if (partial) {
+            String[] parts = range.substring("bytes=".length()).split("-", -1);
+            from = Long.parseLong(parts[0]);
+            if (!parts[1].isEmpty()) to = Math.min(to, Long.parseLong(parts[1]));
+            if (from >= data.length) {
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+        }
+        int length = (int) (to - from + 1);
+        exchange.sendResponseHeaders(partial ? 206 : 200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            // 分块写，客户端暂停读取时在这里阻塞
+            for (int offset = 0; offset < length; offset += 8 * 1024) {
+                out.write(data, (int) from + offset, Math.min(8 * 1024, length - offset));
+                if (blockDelayMs > 0) Thread.sleep(blockDelayMs);
+            }
+        } catch (IOException e) {
+            // 客户端提前断开
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
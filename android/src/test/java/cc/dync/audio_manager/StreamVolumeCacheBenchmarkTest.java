@@ -0,0 +1,92 @@
+package cc.dync.audio_manager;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缓存读取与每次都走 AudioManager 的对比
+ * <p>
+ * 用忙等模拟一次 binder 调用的开销，只断言调用次数，耗时打印出来供参考。
+ */
+public class StreamVolumeCacheBenchmarkTest {
+    private static final int WARMUP = 1_000;
+    private static final int CALLS = 20_000;
+    // 一次 binder 调用的大致开销
+    private static final long BINDER_COST_NS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    static final class SlowStream implements StreamVolumeCache.Stream {
+        int calls;
+
+        private void binder() {
+            calls++;
+            long end = System.nanoTime() + BINDER_COST_NS;
+            while (System.nanoTime() < end) {
+                // 模拟跨进程调用
+            }
+        }
+
+        @Override
+        public int getVolume() {
+            binder();
+            return 7;
+        }
+
+        @Override
+        public int getMaxVolume() {
+            binder();
+            return 15;
+        }
+
+        @Override
+        public void setVolume(int volume) {
+            binder();
+        }
+    }
+
+    private interface Read {
+        void run(StreamVolumeCache cache);
+    }
+
+    private static long measure(String name, SlowStream stream, Read read) {
+        StreamVolumeCache cache = new StreamVolumeCache(stream);
+        // 预热
+        loop(cache, read, WARMUP);
+        long start = System.nanoTime();
+        double sum = loop(cache, read, CALLS);
+        long perCall = (System.nanoTime() - start) / CALLS;
+        assertTrue(sum > 0);
+        System.out.println(name + ": " + perCall + " ns/call, binder reads=" + cache.binderReadCount());
+        return perCall;
+    }
+
+    private static double loop(StreamVolumeCache cache, Read read, int calls) {
+        double sum = 0;
+        for (int i = 0; i < calls; i++) {
+            read.run(cache);
+            sum += cache.ratio();
+        }
+        return sum;
+    }
+
+    @Test
+    public void cachedReadsAvoidBinderCalls() {
+        SlowStream cached = new SlowStream();
+        long cachedNs = measure("cached", cached, cache -> { });
+        assertEquals(2, cached.calls);
+
+        SlowStream volumeOnly = new SlowStream();
+        measure("invalidateVolume", volumeOnly, StreamVolumeCache::invalidateVolume);
+        // 每次一次音量读取，最大音量只读一次
+        assertEquals(WARMUP + CALLS + 1, volumeOnly.calls);
+
+        SlowStream uncached = new SlowStream();
+        long uncachedNs = measure("invalidateRoute", uncached, StreamVolumeCache::invalidateRoute);
+        assertEquals(2 * (WARMUP + CALLS), uncached.calls);
+
+        assertTrue(cachedNs < uncachedNs);
+    }
+}
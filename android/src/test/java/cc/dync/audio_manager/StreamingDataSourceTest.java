@@ -0,0 +1,108 @@
+package cc.dync.audio_manager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingDataSourceTest {
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private static final int SEEK_TARGET = 3 * 1024 * 1024;
+    // 按 128kbps 计算的时长
+    private static final int DURATION_MS = FILE_SIZE / 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] body;
+    private RangeServer server;
+    private HttpClient client;
+    private StreamingDataSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        body = RangeServer.bytes(FILE_SIZE);
+        server = new RangeServer(body);
+        client = new HttpClient(folder.newFolder("http"));
+    }
+
+    @After
+    public void tearDown() {
+        if (source != null) source.close();
+        server.close();
+    }
+
+    private void open(boolean headOnly) {
+        source = new StreamingDataSource(client, server.url("/a.mp3"), BufferingPolicy.defaults(), headOnly, null);
+    }
+
+    private long fetched() {
+        return (Long) source.toMap().get("bytesFetched");
+    }
+
+    /**
+     * 等到下载线程因缓冲已满而暂停
+     */
+    private long awaitIdle() throws InterruptedException {
+        long last = -1;
+        int stable = 0;
+        for (int i = 0; i < 100 && stable < 3; i++) {
+            Thread.sleep(50);
+            long now = fetched();
+            stable = now == last && now > 0 ? stable + 1 : 0;
+            last = now;
+        }
+        return last;
+    }
+
+    private void assertReads(long position, int size) throws Exception {
+        byte[] buffer = new byte[size];
+        int n = source.readAt(position, buffer, 0, size);
+        assertEquals(size, n);
+        assertArrayEquals(Arrays.copyOfRange(body, (int) position, (int) position + size), buffer);
+    }
+
+    @Test
+    public void headOnlyFetchesJustTheHeadThenSeeksWithRange() throws Exception {
+        open(true);
+        assertEquals(FILE_SIZE, source.getSize());
+        assertReads(0, 4096);
+        long head = awaitIdle();
+        assertTrue("head fetched " + head,
+                head <= StreamingDataSource.SEEK_AHEAD_BYTES + 2 * StreamingDataSource.CHUNK_SIZE);
+
+        // 起播位置直接用 Range 请求，不先下载开头
+        assertReads(SEEK_TARGET, 4096);
+        assertTrue(server.ranges.contains("bytes=" + SEEK_TARGET + "-"));
+        long total = awaitIdle();
+        assertTrue("total fetched " + total, total < SEEK_TARGET / 2);
+    }
+
+    @Test
+    public void withoutHeadLimitBuffersUpToMaxBuffer() throws Exception {
+        open(false);
+        assertReads(0, 4096);
+        long fetched = awaitIdle();
+        assertTrue("fetched " + fetched, fetched > 2 * StreamingDataSource.SEEK_AHEAD_BYTES);
+        assertTrue("fetched " + fetched, fetched < FILE_SIZE);
+    }
+
+    @Test
+    public void preparedLiftsTheHeadLimit() throws Exception {
+        open(true);
+        assertReads(0, 4096);
+        long head = awaitIdle();
+        source.onPrepared(DURATION_MS);
+        // 头部缓冲仍高于 minBuffer，播放消耗到以下后才继续下载，并且不再受头部限制
+        assertReads(200 * 1024, 4096);
+        long fetched = awaitIdle();
+        assertTrue("fetched " + fetched + " head " + head, fetched > 2 * head);
+    }
+}
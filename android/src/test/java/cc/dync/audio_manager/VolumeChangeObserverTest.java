@@ -0,0 +1,177 @@
+package cc.dync.audio_manager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class VolumeChangeObserverTest {
+
+    /**
+     * 记录读写次数的音量
+     */
+    static final class FakeStream implements StreamVolumeCache.Stream {
+        int volume = 5;
+        int maxVolume = 15;
+        int reads;
+        final List<Integer> writes = new ArrayList<>();
+
+        @Override
+        public int getVolume() {
+            reads++;
+            return volume;
+        }
+
+        @Override
+        public int getMaxVolume() {
+            reads++;
+            return maxVolume;
+        }
+
+        @Override
+        public void setVolume(int volume) {
+            writes.add(volume);
+            this.volume = volume;
+        }
+    }
+
+    /**
+     * 手动推进的帧窗口
+     */
+    static final class FakeScheduler implements VolumeChangeObserver.Scheduler {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            pending.add(task);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            while (pending.remove(task)) {
+                // 删除全部
+            }
+        }
+
+        void runFrame() {
+            List<Runnable> tasks = new ArrayList<>(pending);
+            pending.clear();
+            for (Runnable task : tasks) task.run();
+        }
+    }
+
+    private FakeStream stream;
+    private FakeScheduler scheduler;
+    private VolumeChangeObserver observer;
+    private final List<Double> delivered = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        stream = new FakeStream();
+        scheduler = new FakeScheduler();
+        observer = new VolumeChangeObserver(stream, scheduler);
+        observer.setVolumeChangeListener(delivered::add);
+    }
+
+    @Test
+    public void burstOfSettingsChangesIsCoalescedIntoOneEvent() {
+        for (int i = 0; i < 10; i++) observer.onSettingsChanged();
+        assertEquals(1, scheduler.pending.size());
+        scheduler.runFrame();
+
+        assertEquals(10, observer.getReceivedEventCount());
+        assertEquals(1, observer.getDeliveredEventCount());
+        assertEquals(1, delivered.size());
+        assertEquals(5 / 15.0, delivered.get(0), 1e-9);
+        // 一次音量，一次最大音量
+        assertEquals(2, observer.getVolumeReadCount());
+    }
+
+    @Test
+    public void unchangedVolumeIsNotDeliveredAgain() {
+        observer.onSettingsChanged();
+        scheduler.runFrame();
+        observer.onSettingsChanged();
+        scheduler.runFrame();
+        assertEquals(2, observer.getReceivedEventCount());
+        assertEquals(1, observer.getDeliveredEventCount());
+
+        stream.volume = 7;
+        observer.onSettingsChanged();
+        scheduler.runFrame();
+        assertEquals(2, observer.getDeliveredEventCount());
+        assertEquals(7 / 15.0, delivered.get(1), 1e-9);
+        // 最大音量只读一次
+        assertEquals(4, observer.getVolumeReadCount());
+    }
+
+    @Test
+    public void routeChangeRereadsMaxVolume() {
+        observer.onSettingsChanged();
+        scheduler.runFrame();
+        int reads = observer.getVolumeReadCount();
+        stream.volume = 9;
+        observer.onRouteChanged();
+        scheduler.runFrame();
+        assertEquals(reads + 2, observer.getVolumeReadCount());
+        assertEquals(9 / 15.0, delivered.get(1), 1e-9);
+    }
+
+    @Test
+    public void setVolumeBurstWritesOnlyTheLastValue() {
+        for (int i = 0; i <= 20; i++) observer.setVolume(i / 20.0);
+        assertEquals(1, scheduler.pending.size());
+        scheduler.runFrame();
+
+        assertEquals(21, observer.getVolumeRequestCount());
+        assertEquals(1, observer.getVolumeWriteCount());
+        assertEquals(1, stream.writes.size());
+        assertEquals(15, (int) stream.writes.get(0));
+    }
+
+    @Test
+    public void setVolumeClampsAndReadsAfterWrite() {
+        observer.setVolume(-1);
+        scheduler.runFrame();
+        assertEquals(0, (int) stream.writes.get(0));
+        observer.setVolume(3);
+        scheduler.runFrame();
+        assertEquals(15, (int) stream.writes.get(1));
+        // 写入后缓存失效，读到新值
+        assertEquals(1.0, observer.getCurrentMusicVolume(), 1e-9);
+    }
+
+    @Test
+    public void noListenerMeansNoReads() {
+        observer.setVolumeChangeListener(null);
+        for (int i = 0; i < 5; i++) observer.onSettingsChanged();
+        scheduler.runFrame();
+        assertEquals(5, observer.getReceivedEventCount());
+        assertEquals(0, observer.getDeliveredEventCount());
+        assertEquals(0, observer.getVolumeReadCount());
+    }
+
+    @Test
+    public void routeChangeWithSameIndexButNewMaxIsDelivered() {
+        observer.onSettingsChanged();
+        scheduler.runFrame();
+        // 例如切到蓝牙，index 不变但最大音量变了
+        stream.maxVolume = 30;
+        observer.onRouteChanged();
+        scheduler.runFrame();
+        assertEquals(2, observer.getDeliveredEventCount());
+        assertEquals(5 / 30.0, delivered.get(1), 1e-9);
+    }
+
+    @Test
+    public void unregisteredReadKeepsMaxVolumeCached() {
+        observer.getCurrentMusicVolume();
+        int reads = observer.getVolumeReadCount();
+        for (int i = 0; i < 10; i++) observer.getCurrentMusicVolume();
+        // 每次只重新读取音量
+        assertEquals(reads + 10, observer.getVolumeReadCount());
+    }
+}
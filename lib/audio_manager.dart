@@ -1,6 +1,7 @@
 import 'dart:async';
 import 'dart:io';
 import 'dart:math';
+import 'dart:typed_data';
 import 'package:logger/logger.dart';
 import 'package:flutter/services.dart';
 import 'package:audio_manager/src/AudioType.dart';
@@ -18,7 +19,8 @@ var logger = Logger(
   ),
 );
 
-
+/// Methods documented as "Only available on Android" throw an
+/// [UnsupportedError] on other platforms
 class AudioManager {
   static AudioManager? _instance;
 
@@ -33,9 +35,36 @@ class AudioManager {
 
   static MethodChannel _channel = const MethodChannel('audio_manager');
 
+  /// The platform side is set up on the first call that needs it, so creating
+  /// the instance does not touch the player. [volume] is read once without
+  /// registering for changes; volume change events start with playback or
+  /// with [getCurrentVolume].
+  ///
+  /// On Android playback continues while no Flutter engine is attached; events
+  /// from that time are replayed once the handler is registered
   AudioManager._() {
     _channel.setMethodCallHandler(_handler);
-    getCurrentVolume();
+    if (Platform.isAndroid) _replayEvents();
+    getCurrentVolume(observe: false);
+  }
+
+  Future<void> _replayEvents() async {
+    try {
+      await _channel.invokeMethod("replayEvents");
+    } on PlatformException catch (e) {
+      logger.w('replayEvents failed: ${e.message}');
+    }
+  }
+
+  /// Calls a method only the Android side implements. Elsewhere the
+  /// [MissingPluginException] becomes an [UnsupportedError] naming the method
+  static Future<T?> _invokeAndroid<T>(String method,
+      [dynamic arguments]) async {
+    try {
+      return await _channel.invokeMethod<T>(method, arguments);
+    } on MissingPluginException {
+      throw UnsupportedError('$method is only available on Android');
+    }
   }
 
   /// 是否资源加载中
@@ -99,6 +128,15 @@ class AudioManager {
   AudioInfo? get info => _info;
   AudioInfo? _info;
 
+  /// Buffering policy for network streams. `null` uses the platform default
+  /// buffering. Only applied on Android
+  BufferingPolicy? bufferingPolicy;
+
+  /// Texture id of the video output created by [createVideoTexture], for a
+  /// `Texture(textureId: ...)` widget. Only available on Android
+  int? get videoTextureId => _videoTextureId;
+  int? _videoTextureId;
+
   Future<dynamic> _handler(MethodCall call) {
     logger.d('Method Handler called with method ${call.method}');
     switch (call.method) {
@@ -156,6 +194,15 @@ class AudioManager {
         _volume = call.arguments;
         _onEvents(AudioManagerEvents.volumeChange, _volume);
         break;
+      case "bitrateChange":
+        _onEvents(AudioManagerEvents.bitrateChange, call.arguments);
+        break;
+      case "metadata":
+        _onEvents(AudioManagerEvents.metadata, call.arguments);
+        break;
+      case "download":
+        _onEvents(AudioManagerEvents.download, call.arguments);
+        break;
       default:
         _onEvents(AudioManagerEvents.unknow, call.arguments);
         break;
@@ -202,8 +249,14 @@ class AudioManager {
   ///
   /// `desc`: Notification details; `cover`: cover image address, `network` address, or `asset` address;
   /// `auto`: Whether to play automatically, default is true;
+  ///
+  /// `position`: Start offset, applied before playback begins so the head of
+  /// the file is not buffered first. Prefer it over [seekTo] after `ready`
   Future<String> start(String url, String title,
-      {required String desc, required String cover, bool? auto}) async {
+      {required String desc,
+      required String cover,
+      bool? auto,
+      Duration? position}) async {
     if (url.isEmpty) return "[url] can not be null or empty";
     if (title.isEmpty) return "[title] can not be null or empty";
     cover = cover;
@@ -211,7 +264,7 @@ class AudioManager {
 
     _info = AudioInfo(url, title: title, desc: desc, coverUrl: cover);
     _audioList.insert(0, _info!);
-    return await play(index: 0, auto: auto);
+    return await play(index: 0, auto: auto, position: position);
   }
 
   /// This will load the file from the file-URI given by:
@@ -227,8 +280,8 @@ class AudioManager {
         desc: audio.desc, cover: audio.coverUrl);
   }
 
-  /// Play specified subscript audio if you want
-  Future<String> play({int? index, bool? auto}) async {
+  /// Play specified subscript audio if you want. [position] is the start offset
+  Future<String> play({int? index, bool? auto, Duration? position}) async {
     if (index != null && (index < 0 || index >= _audioList.length))
       throw "invalid index";
     _auto = auto ?? true;
@@ -250,8 +303,12 @@ class AudioManager {
       "desc": _info!.desc,
       "cover": _info!.coverUrl,
       "isAuto": _auto,
+      "index": _curIndex,
+      "position": position?.inMilliseconds,
       "isLocal": !regx.hasMatch(_info!.url),
       "isLocalCover": !regx.hasMatch(_info!.coverUrl),
+      "buffering": bufferingPolicy?.toJson(),
+      "isVideo": _videoTextureId != null,
     });
     return result;
   }
@@ -311,6 +368,46 @@ class AudioManager {
     return await _channel.invokeMethod("rate", {"rate": _rate});
   }
 
+  /// Continuous play rate between 0.25 and 4.0 with pitch preserved, e.g. from
+  /// a slider. Rapid updates are coalesced on the platform side. On Android a
+  /// rate set while paused is applied when playback resumes
+  Future<String> setSpeed(double speed) async {
+    if (_preprocessing().isNotEmpty) return _preprocessing();
+    final rate = speed.clamp(0.25, 4.0).toDouble();
+    return await _channel.invokeMethod("rate", {"rate": rate});
+  }
+
+  /// Skip silent passages (podcasts, audiobooks). Time saved is reported under
+  /// `silence` in [getMetrics]. Only available on Android
+  Future<void> setSkipSilence(bool enabled) async {
+    await _invokeAndroid("skipSilence", {"enabled": enabled});
+  }
+
+  /// Release the Android player after playback has been paused for [timeout]
+  /// (default 5 minutes), keeping only the url and position. The next play
+  /// prepares it again from there. [Duration.zero] disables it. Only available
+  /// on Android
+  Future<void> setIdleTimeout(Duration timeout) async {
+    await _invokeAndroid(
+        "setIdleTimeout", {"timeout": timeout.inMilliseconds});
+  }
+
+  /// Render video frames straight into a Flutter texture instead of a
+  /// SurfaceView. The player binds it immediately, also mid-playback.
+  /// Only available on Android
+  ///
+  /// [return] The texture id for a `Texture` widget
+  Future<int?> createVideoTexture() async {
+    _videoTextureId = await _invokeAndroid<int>("createVideoTexture");
+    return _videoTextureId;
+  }
+
+  /// Release the texture created by [createVideoTexture]
+  Future<void> disposeVideoTexture() async {
+    _videoTextureId = null;
+    await _invokeAndroid("disposeVideoTexture");
+  }
+
   /// stop play
   Future<bool> stop() async {
     _reset();
@@ -408,9 +505,105 @@ class AudioManager {
     return result;
   }
 
-  /// get current volume
-  Future<double> getCurrentVolume() async {
-    _volume = await _channel.invokeMethod("currentVolume");
+  /// get current volume. `observe`: also start receiving volume change
+  /// events, only used on Android
+  Future<double> getCurrentVolume({bool observe = true}) async {
+    final value =
+        await _channel.invokeMethod("currentVolume", {"observe": observe});
+    if (value is num) _volume = value.toDouble();
     return _volume;
   }
+
+  /// The item, position, rate and playlist index saved before the app process
+  /// was last killed, or null. [start] the same url to continue from the saved
+  /// position. Only available on Android
+  Future<Map<String, dynamic>?> getResumeState() async {
+    final map = await _invokeAndroid<Map>("getResumeState");
+    return map?.cast<String, dynamic>();
+  }
+
+  /// Playback metrics: time-to-prepared, time-to-first-audio, rebuffering,
+  /// seek latency and recent error codes. Only available on Android
+  Future<Map<String, dynamic>?> getMetrics() async {
+    final map = await _invokeAndroid<Map>("getMetrics");
+    return map?.cast<String, dynamic>();
+  }
+
+  /// Read duration, tags and (optionally) embedded artwork of local files
+  /// without preparing a player. Results arrive in batches as
+  /// [AudioManagerEvents.metadata] events `{"id", "items", "done"}`; returns
+  /// the request id for [cancelMetadata]. Only available on Android
+  Future<int> extractMetadata(List<String> paths, {bool artwork = false}) async {
+    final id = await _invokeAndroid<int>(
+        "extractMetadata", {"paths": paths, "artwork": artwork});
+    return id!;
+  }
+
+  /// Stop a running [extractMetadata] request, e.g. when leaving the page
+  Future<void> cancelMetadata(int id) async {
+    await _invokeAndroid("cancelMetadata", {"id": id});
+  }
+
+  /// Download [url] for offline playback in parallel range requests; an
+  /// interrupted download resumes where it stopped. Progress arrives in
+  /// batches as [AudioManagerEvents.download] events. Once completed,
+  /// [start] with the same url plays the local file. [sha256] (hex) is
+  /// checked before the file is kept; metered networks are skipped unless
+  /// [allowMetered]. Only available on Android
+  Future<void> download(String url,
+      {String? sha256, bool allowMetered = false}) async {
+    await _invokeAndroid("download",
+        {"url": url, "sha256": sha256, "allowMetered": allowMetered});
+  }
+
+  /// Pause a [download], keeping what has been downloaded
+  Future<void> pauseDownload(String url) async {
+    await _invokeAndroid("pauseDownload", {"url": url});
+  }
+
+  /// Cancel a [download] or delete the downloaded file
+  Future<void> removeDownload(String url) async {
+    await _invokeAndroid("removeDownload", {"url": url});
+  }
+
+  /// All downloads with their current state, e.g. after the app restarts
+  Future<List<Map<String, dynamic>>> getDownloads() async {
+    final list = await _invokeAndroid<List>("getDownloads");
+    return list
+            ?.cast<Map>()
+            .map((e) => Map<String, dynamic>.from(e))
+            .toList() ??
+        [];
+  }
+
+  /// Loudness normalization towards [target] LUFS. Each track is measured
+  /// once (EBU R128 integrated loudness) in the background and the gain is
+  /// applied when it starts. Off by default. Only available on Android
+  Future<void> setLoudnessNormalization(bool enabled,
+      {double target = -14}) async {
+    await _invokeAndroid(
+        "setLoudnessNormalization", {"enabled": enabled, "target": target});
+  }
+
+  /// Measure the loudness of upcoming tracks ahead of time at low priority
+  Future<void> analyzeLoudness(List<String> urls, {bool isLocal = false}) async {
+    await _invokeAndroid(
+        "analyzeLoudness", {"urls": urls, "isLocal": isLocal});
+  }
+
+  /// Waveform peaks for drawing a seek bar: `[min0, max0, min1, max1, ...]`
+  /// 16-bit values for up to [buckets] buckets. Cached on the device per url.
+  /// Only available on Android
+  Future<Int16List> getWaveform(String url,
+      {int buckets = 512, bool isLocal = false}) async {
+    final bytes = await _invokeAndroid<Uint8List>(
+            "getWaveform", {"url": url, "buckets": buckets, "isLocal": isLocal}) ??
+        Uint8List(0);
+    final data = ByteData.sublistView(bytes);
+    final peaks = Int16List(bytes.lengthInBytes ~/ 2);
+    for (var i = 0; i < peaks.length; i++) {
+      peaks[i] = data.getInt16(i * 2, Endian.little);
+    }
+    return peaks;
+  }
 }
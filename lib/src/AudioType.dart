@@ -25,6 +25,18 @@ enum AudioManagerEvents {
 
   /// ⚠️ IOS simulator is invalid, please use real machine
   volumeChange,
+
+  /// HLS/DASH stream switched bitrate, args: {"bitrate": bps, "bandwidth": bps}.
+  /// Only emitted on Android
+  bitrateChange,
+
+  /// a batch of [AudioManager.extractMetadata] results. Only emitted on Android
+  metadata,
+
+  /// a batch of [AudioManager.download] progress updates, a list of
+  /// `{"url", "state", "downloaded", "total", "path", "error"}`.
+  /// Only emitted on Android
+  download,
   unknow
 }
 typedef void Events(AudioManagerEvents events, args);
@@ -32,6 +44,33 @@ typedef void Events(AudioManagerEvents events, args);
 /// Play rate enumeration [0.5, 0.75, 1, 1.5, 1.75, 2]
 enum AudioRate { rate50, rate75, rate100, rate150, rate175, rate200 }
 
+/// Buffering policy for network streams (Android only).
+///
+/// Loading continues while less than [minBufferMs] is buffered and pauses at
+/// [maxBufferMs]. Playback starts once [bufferForPlaybackMs] is buffered and
+/// resumes after a stall once [bufferForPlaybackAfterRebufferMs] is buffered.
+/// The values are adapted to the measured throughput at runtime.
+class BufferingPolicy {
+  final int minBufferMs;
+  final int maxBufferMs;
+  final int bufferForPlaybackMs;
+  final int bufferForPlaybackAfterRebufferMs;
+
+  const BufferingPolicy({
+    this.minBufferMs = 15000,
+    this.maxBufferMs = 50000,
+    this.bufferForPlaybackMs = 2500,
+    this.bufferForPlaybackAfterRebufferMs = 5000,
+  });
+
+  Map<String, int> toJson() => {
+        'minBufferMs': minBufferMs,
+        'maxBufferMs': maxBufferMs,
+        'bufferForPlaybackMs': bufferForPlaybackMs,
+        'bufferForPlaybackAfterRebufferMs': bufferForPlaybackAfterRebufferMs,
+      };
+}
+
 /// play mode
 enum PlayMode { sequence, shuffle, single }
 
@@ -4,20 +4,122 @@ import 'package:audio_manager/audio_manager.dart';
 
 void main() {
   const MethodChannel channel = MethodChannel('audio_manager');
+  final List<MethodCall> log = <MethodCall>[];
+  // Results by method name; anything else answers '42'
+  final Map<String, dynamic> responses = <String, dynamic>{};
 
   TestWidgetsFlutterBinding.ensureInitialized();
 
+  /// Deliver a platform -> Dart event, as the plugin does with invokeMethod
+  Future<void> emit(String method, [dynamic arguments]) {
+    return ServicesBinding.instance!.defaultBinaryMessenger
+        .handlePlatformMessage(
+            channel.name,
+            const StandardMethodCodec()
+                .encodeMethodCall(MethodCall(method, arguments)),
+            (_) {});
+  }
+
   setUp(() {
+    log.clear();
+    responses.clear();
     channel.setMockMethodCallHandler((MethodCall methodCall) async {
-      return '42';
+      log.add(methodCall);
+      return responses.containsKey(methodCall.method)
+          ? responses[methodCall.method]
+          : '42';
     });
   });
 
   tearDown(() {
     channel.setMockMethodCallHandler(null);
+    AudioManager.instance.onEvents((events, args) {});
   });
 
   test('getPlatformVersion', () async {
     expect(await AudioManager.instance.platformVersion, '42');
   });
+
+  test('volumeChange events update volume', () async {
+    final volumes = <double>[];
+    AudioManager.instance.onEvents((events, args) {
+      if (events == AudioManagerEvents.volumeChange) volumes.add(args);
+    });
+    await emit('volumeChange', 0.3);
+    await emit('volumeChange', 0.6);
+    expect(volumes, [0.3, 0.6]);
+    expect(AudioManager.instance.volume, 0.6);
+  });
+
+  test('setVolume clamps to 1', () async {
+    await AudioManager.instance.setVolume(1.5);
+    expect(log.last.method, 'setVolume');
+    expect(log.last.arguments['value'], 1);
+  });
+
+  test('Android-only methods throw UnsupportedError when not implemented',
+      () async {
+    channel.setMockMethodCallHandler((MethodCall methodCall) async {
+      log.add(methodCall);
+      throw MissingPluginException();
+    });
+    expect(AudioManager.instance.getMetrics(), throwsUnsupportedError);
+    expect(AudioManager.instance.download('https://example.com/a.mp3'),
+        throwsUnsupportedError);
+  });
+
+  test('getMetrics returns the platform map', () async {
+    responses['getMetrics'] = {
+      'timeToPrepared': {'count': 1, 'p50': 120},
+      'rebufferCount': 2,
+    };
+    final metrics = await AudioManager.instance.getMetrics();
+    expect(metrics!['rebufferCount'], 2);
+    expect(metrics['timeToPrepared']['p50'], 120);
+  });
+
+  test('setSpeed clamps the rate once the track is ready', () async {
+    await AudioManager.instance.start('https://example.com/a.mp3', 'a',
+        desc: 'desc', cover: 'https://example.com/a.png');
+    await emit('ready', 1000);
+    await AudioManager.instance.setSpeed(10);
+    expect(log.last.method, 'rate');
+    expect(log.last.arguments['rate'], 4.0);
+    await AudioManager.instance.setSpeed(0.1);
+    expect(log.last.arguments['rate'], 0.25);
+    await AudioManager.instance.setSpeed(1.5);
+    expect(log.last.arguments['rate'], 1.5);
+  });
+
+  test('getCurrentVolume can read without observing', () async {
+    responses['currentVolume'] = 0.4;
+    expect(await AudioManager.instance.getCurrentVolume(observe: false), 0.4);
+    expect(log.last.method, 'currentVolume');
+    expect(log.last.arguments['observe'], false);
+    expect(AudioManager.instance.volume, 0.4);
+  });
+
+  test('download sends its options and reports progress', () async {
+    await AudioManager.instance
+        .download('https://example.com/b.mp3', allowMetered: true);
+    expect(log.last.method, 'download');
+    expect(log.last.arguments['url'], 'https://example.com/b.mp3');
+    expect(log.last.arguments['sha256'], isNull);
+    expect(log.last.arguments['allowMetered'], true);
+
+    final batches = <dynamic>[];
+    AudioManager.instance.onEvents((events, args) {
+      if (events == AudioManagerEvents.download) batches.add(args);
+    });
+    await emit('download', [
+      {'url': 'https://example.com/b.mp3', 'state': 'downloading'}
+    ]);
+    expect(batches.single[0]['state'], 'downloading');
+
+    responses['getDownloads'] = [
+      {'url': 'https://example.com/b.mp3', 'state': 'completed', 'path': '/x'}
+    ];
+    final downloads = await AudioManager.instance.getDownloads();
+    expect(downloads.single['path'], '/x');
+  });
 }